@@ -0,0 +1,43 @@
+package benchmarks;
+
+import Converters.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark dei converter di archivi compressi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private final StreamConverter zipToTarGz = new FileConverterAdapter(new ZIPtoTARGZconverter());
+    private final StreamConverter tarGzToZip = new TARGZtoZIPconverter();
+
+    private byte[] zip;
+    private byte[] targz;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zip = Fixtures.zip(size);
+        targz = Fixtures.targz(size);
+    }
+
+    @Benchmark
+    public long zipToTarGz() throws Exception {
+        return Fixtures.run(zipToTarGz, zip, "archivio.zip", "targz");
+    }
+
+    @Benchmark
+    public long tarGzToZip() throws Exception {
+        return Fixtures.run(tarGzToZip, targz, "archivio.tar.gz", "zip");
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Avvia i benchmark dei converter (throughput e tempo medio, impostati sulle classi) con il GCProfiler
+ * per il tasso di allocazione.
+ * Usato dal profilo Maven "benchmark"; il primo argomento e' un'espressione regolare sui nomi dei benchmark.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        Options options = new OptionsBuilder()
+                .include("benchmarks\\..*" + include + ".*")
+                .addProfiler(GCProfiler.class)
+                // I converter scrivono molti messaggi INFO: nei benchmark interessano solo gli errori
+                .jvmArgsAppend("-Dconverter.log.level=WARN")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import Converters.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark dei converter di documenti: testo verso PDF/DOCX e PDF verso JPG/DOC/DOCX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private final StreamConverter txtToPdf = new FileConverterAdapter(new TXTtoPDFconverter());
+    private final StreamConverter txtToDocx = new FileConverterAdapter(new TXTtoDOCXconverter());
+    private final StreamConverter pdfToJpg = new PDFtoJPGconverter();
+    private final StreamConverter pdfToDoc = new FileConverterAdapter(new PDFtoDOCconverter());
+    private final StreamConverter pdfToDocx = new FileConverterAdapter(new PDFtoDOCXconverter());
+
+    private byte[] txt;
+    private byte[] pdf;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        txt = Fixtures.txt(size);
+        pdf = Fixtures.pdf(size);
+    }
+
+    @Benchmark
+    public long txtToPdf() throws Exception {
+        return Fixtures.run(txtToPdf, txt, "documento.txt", "pdf");
+    }
+
+    @Benchmark
+    public long txtToDocx() throws Exception {
+        return Fixtures.run(txtToDocx, txt, "documento.txt", "docx");
+    }
+
+    @Benchmark
+    public long pdfToJpg() throws Exception {
+        return Fixtures.run(pdfToJpg, pdf, "documento.pdf", "jpg");
+    }
+
+    @Benchmark
+    public long pdfToDoc() throws Exception {
+        return Fixtures.run(pdfToDoc, pdf, "documento.pdf", "doc");
+    }
+
+    @Benchmark
+    public long pdfToDocx() throws Exception {
+        return Fixtures.run(pdfToDocx, pdf, "documento.pdf", "docx");
+    }
+}
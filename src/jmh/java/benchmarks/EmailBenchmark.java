@@ -0,0 +1,44 @@
+package benchmarks;
+
+import Converters.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark dei converter di email verso PDF.
+ * Per il formato MSG non esiste una variante generata: entrambe le taglie usano email.msg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private final StreamConverter emlToPdf = new FileConverterAdapter(new EMLtoPDFconverter());
+    private final StreamConverter msgToPdf = new FileConverterAdapter(new MSGtoPDFconverter());
+
+    private byte[] eml;
+    private byte[] msg;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        eml = Fixtures.eml(size);
+        msg = Fixtures.testFile("email.msg");
+    }
+
+    @Benchmark
+    public long emlToPdf() throws Exception {
+        return Fixtures.run(emlToPdf, eml, "email_eml.eml", "pdf");
+    }
+
+    @Benchmark
+    public long msgToPdf() throws Exception {
+        return Fixtures.run(msgToPdf, msg, "email.msg", "pdf");
+    }
+}
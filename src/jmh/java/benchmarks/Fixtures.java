@@ -0,0 +1,262 @@
+package benchmarks;
+
+import Converters.*;
+import converter.MemoryOutputSink;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * File di input dei benchmark.
+ * La variante "small" usa i file di src/testFiles (o ne ricava uno equivalente), la variante "large"
+ * genera un input piu' grande dello stesso formato. Tutto viene preparato in memoria una volta per trial.
+ */
+final class Fixtures {
+
+    static final String TEST_FILES = "src/testFiles/";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param name Nome del file in src/testFiles
+     * @return Contenuto del file
+     */
+    static byte[] testFile(String name) throws IOException {
+        return Files.readAllBytes(Paths.get(TEST_FILES, name));
+    }
+
+    /**
+     * CSV: mtcars.csv, oppure le sue righe ripetute fino a circa 50.000 righe
+     */
+    static byte[] csv(String size) throws IOException {
+        byte[] base = testFile("mtcars.csv");
+        if (!"large".equals(size)) {
+            return base;
+        }
+        String[] lines = new String(base, StandardCharsets.UTF_8).split("\r?\n");
+        StringBuilder sb = new StringBuilder(lines[0]).append('\n');
+        for (int copy = 0; copy < 50_000 / (lines.length - 1) + 1; copy++) {
+            for (int i = 1; i < lines.length; i++) {
+                sb.append(lines[i]).append('\n');
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * JSON tabellare, ottenuto convertendo il CSV della stessa taglia
+     */
+    static byte[] json(String size) throws Exception {
+        return convert(new CSVtoJSONconverter(), csv(size), "mtcars.csv", "json");
+    }
+
+    /**
+     * XLSX: prova1.xlsx, oppure un foglio generato di 50.000 righe per 10 colonne
+     */
+    static byte[] xlsx(String size) throws IOException {
+        if (!"large".equals(size)) {
+            return testFile("prova1.xlsx");
+        }
+        SXSSFWorkbook workbook = new SXSSFWorkbook(1000);
+        try {
+            return writeSheet(workbook, 50_000);
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    /**
+     * XLS: prova.xls, oppure un foglio generato di 20.000 righe per 10 colonne
+     */
+    static byte[] xls(String size) throws IOException {
+        if (!"large".equals(size)) {
+            return testFile("prova.xls");
+        }
+        return writeSheet(new HSSFWorkbook(), 20_000);
+    }
+
+    /**
+     * ODS, ottenuto convertendo il JSON della stessa taglia
+     */
+    static byte[] ods(String size) throws Exception {
+        return convert(new FileConverterAdapter(new JSONtoODSconverter()), json(size), "mtcars.json", "ods");
+    }
+
+    /**
+     * Testo semplice: 200 righe, oppure 20.000
+     */
+    static byte[] txt(String size) {
+        int lines = "large".equals(size) ? 20_000 : 200;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("Riga ").append(i).append(": Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor.\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * PDF, ottenuto convertendo il testo della stessa taglia
+     */
+    static byte[] pdf(String size) throws Exception {
+        return convert(new FileConverterAdapter(new TXTtoPDFconverter()), txt(size), "documento.txt", "pdf");
+    }
+
+    /**
+     * EML: email_eml.eml, oppure un messaggio generato con un corpo di 20.000 righe
+     */
+    static byte[] eml(String size) throws IOException {
+        if (!"large".equals(size)) {
+            return testFile("email_eml.eml");
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("From: Mittente <mittente@dominio.com>\r\n")
+                .append("To: Destinatario <destinatario@dominio.com>\r\n")
+                .append("Subject: Benchmark\r\n")
+                .append("Date: Mon, 16 Jun 2025 17:39:22 +0200\r\n")
+                .append("MIME-Version: 1.0\r\n")
+                .append("Content-Type: text/plain; charset=\"UTF-8\"\r\n\r\n");
+        sb.append(new String(txt("large"), StandardCharsets.UTF_8).replace("\n", "\r\n"));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ZIP con i file di src/testFiles, oppure con 20 copie di ciascuno
+     */
+    static byte[] zip(String size) throws IOException {
+        int copies = "large".equals(size) ? 20 : 1;
+        String[] names = {"mtcars.csv", "prova1.xlsx", "prova.xls", "email.msg", "email_eml.eml", "fish.png", "pizza.gif", "statistics.ico"};
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(buffer)) {
+            for (int copy = 0; copy < copies; copy++) {
+                for (String name : names) {
+                    zip.putNextEntry(new ZipEntry(copy + "/" + name));
+                    zip.write(testFile(name));
+                    zip.closeEntry();
+                }
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * TAR.GZ, ottenuto convertendo lo ZIP della stessa taglia
+     */
+    static byte[] targz(String size) throws Exception {
+        return convert(new FileConverterAdapter(new ZIPtoTARGZconverter()), zip(size), "archivio.zip", "targz");
+    }
+
+    /**
+     * Immagine: il file di test, oppure la stessa immagine ingrandita a 4096 pixel di larghezza
+     * (per le icone si usa sempre il file originale: il formato ICO non supera i 256 pixel)
+     */
+    static byte[] image(String name, String size) throws IOException {
+        byte[] base = testFile(name);
+        String ext = name.substring(name.lastIndexOf('.') + 1);
+        if (!"large".equals(size) || "ico".equals(ext)) {
+            return base;
+        }
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(base));
+        int width = 4096;
+        int height = Math.max(1, source.getHeight() * width / source.getWidth());
+        BufferedImage scaled = new BufferedImage(width, height, "png".equals(ext) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(scaled, ext, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Esegue una conversione in memoria e ritorna il primo file prodotto
+     */
+    static byte[] convert(StreamConverter converter, byte[] input, String sourceName, String target) throws Exception {
+        MemoryOutputSink sink = new MemoryOutputSink();
+        converter.convert(new ByteArrayInputStream(input), sink, new ConversionOptions(sourceName, target, null, null));
+        List<MemoryOutputSink.Output> outputs = sink.getOutputs();
+        if (outputs.isEmpty()) {
+            throw new IllegalStateException("Nessun file prodotto convertendo " + sourceName + " in " + target);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = outputs.get(0).openStream()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Esegue la conversione misurata: i file prodotti vengono scartati, si contano solo i byte
+     * @return Byte scritti dal converter (ritornati al benchmark per evitare la dead-code elimination)
+     */
+    static long run(StreamConverter converter, byte[] input, String sourceName, String target) throws Exception {
+        CountingSink sink = new CountingSink();
+        converter.convert(new ByteArrayInputStream(input), sink, new ConversionOptions(sourceName, target, null, null));
+        return sink.bytes;
+    }
+
+    /**
+     * Sink che scarta i dati e ne conta la dimensione, per non misurare la scrittura su disco
+     */
+    private static final class CountingSink implements OutputSink {
+        private long bytes;
+
+        @Override
+        public OutputStream newOutput(String fileName) {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    bytes++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    bytes += len;
+                }
+            };
+        }
+    }
+
+    private static byte[] writeSheet(Workbook workbook, int rows) throws IOException {
+        try {
+            Sheet sheet = workbook.createSheet("Dati");
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < 10; c++) {
+                header.createCell(c).setCellValue("colonna" + c);
+            }
+            for (int r = 1; r <= rows; r++) {
+                Row row = sheet.createRow(r);
+                for (int c = 0; c < 10; c++) {
+                    if (c % 2 == 0) {
+                        row.createCell(c).setCellValue(r * 1.5 + c);
+                    } else {
+                        row.createCell(c).setCellValue("valore " + r + "-" + c);
+                    }
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return out.toByteArray();
+        } finally {
+            workbook.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import Converters.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark di ImageConverter sulle immagini di test, per alcuni formati di destinazione
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    @Param({"fish.png", "pizza.gif", "statistics.ico"})
+    public String source;
+
+    @Param({"jpg", "png", "bmp"})
+    public String target;
+
+    private final StreamConverter imageConverter = new ImageConverter();
+
+    private byte[] image;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        image = Fixtures.image(source, size);
+    }
+
+    @Benchmark
+    public long convert() throws Exception {
+        return Fixtures.run(imageConverter, image, source, target);
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import Converters.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark dei converter tra fogli di calcolo, CSV e JSON
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpreadsheetBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private final StreamConverter csvToJson = new CSVtoJSONconverter();
+    private final StreamConverter xlsToJson = new XLStoJSONconverter();
+    private final StreamConverter xlsxToJson = new XLSXtoJSONconverter();
+    private final StreamConverter odsToJson = new FileConverterAdapter(new ODStoJSONconverter());
+    private final StreamConverter jsonToXls = new FileConverterAdapter(new JSONtoXLSconverter());
+    private final StreamConverter jsonToXlsx = new JSONtoXLSXconverter();
+    private final StreamConverter jsonToOds = new FileConverterAdapter(new JSONtoODSconverter());
+
+    private byte[] csv;
+    private byte[] xls;
+    private byte[] xlsx;
+    private byte[] ods;
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        csv = Fixtures.csv(size);
+        xls = Fixtures.xls(size);
+        xlsx = Fixtures.xlsx(size);
+        ods = Fixtures.ods(size);
+        json = Fixtures.json(size);
+    }
+
+    @Benchmark
+    public long csvToJson() throws Exception {
+        return Fixtures.run(csvToJson, csv, "mtcars.csv", "json");
+    }
+
+    @Benchmark
+    public long xlsToJson() throws Exception {
+        return Fixtures.run(xlsToJson, xls, "prova.xls", "json");
+    }
+
+    @Benchmark
+    public long xlsxToJson() throws Exception {
+        return Fixtures.run(xlsxToJson, xlsx, "prova1.xlsx", "json");
+    }
+
+    @Benchmark
+    public long odsToJson() throws Exception {
+        return Fixtures.run(odsToJson, ods, "mtcars.ods", "json");
+    }
+
+    @Benchmark
+    public long jsonToXls() throws Exception {
+        return Fixtures.run(jsonToXls, json, "mtcars.json", "xls");
+    }
+
+    @Benchmark
+    public long jsonToXlsx() throws Exception {
+        return Fixtures.run(jsonToXlsx, json, "mtcars.json", "xlsx");
+    }
+
+    @Benchmark
+    public long jsonToOds() throws Exception {
+        return Fixtures.run(jsonToOds, json, "mtcars.json", "ods");
+    }
+}
@@ -1,78 +1,113 @@
 package Converters;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import converter.Log;
-import converter.Utility;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 
-public class CSVtoJSONconverter implements Converter {
+public class CSVtoJSONconverter implements Converter, StreamConverter {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Pattern NUMERIC = Pattern.compile("^-?\\d+(\\.\\d+)?$");
+
     /**
      * Converte un file CSV in un file JSON con delimitatore rilevato automaticamente.
      * Ogni riga del CSV diventa un oggetto JSON.
      */
     public ArrayList<File> convert(File srcFile) throws IOException {
         Log.addMessage("Inizio conversione CSV: " + srcFile.getName() + " → .json");
-        List<String> lines = Files.readAllLines(srcFile.toPath(), StandardCharsets.UTF_8);
-        if (lines.isEmpty()) {
-            Log.addMessage("Errore: Il file CSV è vuoto → " + srcFile.getName());
-            throw new IOException("Il file CSV è vuoto: " + srcFile.getName());
+        File output = new File(srcFile.getParent(), getBaseName(srcFile) + ".json");
+
+        try (InputStream in = new FileInputStream(srcFile);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            writeJson(in, out, srcFile.getName());
+        } catch (IOException e) {
+            Log.addMessage("Errore durante la scrittura del file JSON: " + output.getName());
+            Files.deleteIfExists(output.toPath());
+            throw e;
         }
 
-        String headerLine = removeBOM(lines.get(0));
-        String delimiter = detectDelimiter(headerLine);
-        String[] headers = splitCsvLine(headerLine, delimiter);
+        Log.addMessage("File JSON creato: " + output.getName());
+        return new ArrayList<File>() {{
+            add(output);
+        }};
+    }
 
-        ObjectMapper mapper = new ObjectMapper();
-        ArrayNode jsonArray = mapper.createArrayNode();
+    /**
+     * Converte un CSV letto da stream, scrivendo il JSON riga per riga senza tenere il file in memoria
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws IOException {
+        Log.addMessage("Inizio conversione CSV: " + options.getSourceName() + " → .json");
+        String outName = options.getBaseName() + ".json";
+        try (OutputStream out = sink.newOutput(outName)) {
+            writeJson(in, out, options.getSourceName());
+        }
+        Log.addMessage("File JSON creato: " + outName);
+    }
+
+    /**
+     * Legge il CSV riga per riga e scrive un array JSON con un oggetto per ogni riga valida
+     * @param in Contenuto del CSV
+     * @param out Destinazione del JSON
+     * @param sourceName Nome del file sorgente, usato nei messaggi di errore
+     * @throws IOException CSV vuoto o errore di lettura/scrittura
+     */
+    private static void writeJson(InputStream in, OutputStream out, String sourceName) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String headerLine = reader.readLine();
+        if (headerLine == null) {
+            Log.addMessage("Errore: Il file CSV è vuoto → " + sourceName);
+            throw new IOException("Il file CSV è vuoto: " + sourceName);
+        }
 
-        for (int i = 1; i < lines.size(); i++) {
-            String rawLine = lines.get(i).trim();
-            if (rawLine.isEmpty()) continue;
+        headerLine = removeBOM(headerLine);
+        String delimiter = detectDelimiter(headerLine);
+        String[] headers = splitCsvLine(headerLine, delimiter);
+        for (int j = 0; j < headers.length; j++) {
+            headers[j] = stripQuotes(headers[j]);
+        }
 
-            String[] values = splitCsvLine(rawLine, delimiter);
-            if (values.length < headers.length) {
-                Log.addMessage("Attenzione: Riga " + (i + 1) + " con celle insufficienti → Skippata");
-                continue;
-            }
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartArray();
+
+            int lineNumber = 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String rawLine = line.trim();
+                if (rawLine.isEmpty()) continue;
+
+                String[] values = splitCsvLine(rawLine, delimiter);
+                if (values.length < headers.length) {
+                    Log.addMessage("Attenzione: Riga " + lineNumber + " con celle insufficienti → Skippata");
+                    continue;
+                }
 
-            if (values.length > headers.length) {
-                Log.addMessage("Attenzione: Riga " + (i + 1) + " con celle extra → Verranno ignorate");
-            }
+                if (values.length > headers.length) {
+                    Log.addMessage("Attenzione: Riga " + lineNumber + " con celle extra → Verranno ignorate");
+                }
 
-            ObjectNode obj = mapper.createObjectNode();
-            for (int j = 0; j < headers.length; j++) {
-                String key = stripQuotes(headers[j]);
-                String value = stripQuotes(values[j]);
+                generator.writeStartObject();
+                for (int j = 0; j < headers.length; j++) {
+                    String value = stripQuotes(values[j]);
 
-                if (value.matches("^-?\\d+(\\.\\d+)?$")) {
-                    obj.put(key, Double.parseDouble(value));
-                } else {
-                    obj.put(key, value);
+                    if (NUMERIC.matcher(value).matches()) {
+                        generator.writeNumberField(headers[j], Double.parseDouble(value));
+                    } else {
+                        generator.writeStringField(headers[j], value);
+                    }
                 }
+                generator.writeEndObject();
             }
-            jsonArray.add(obj);
-        }
 
-        File output = new File(srcFile.getParent(), getBaseName(srcFile) + ".json");
-        try {
-            mapper.writerWithDefaultPrettyPrinter().writeValue(output, jsonArray);
-        } catch (IOException e) {
-            Log.addMessage("Errore durante la scrittura del file JSON: " + output.getName());
-            throw e;
+            generator.writeEndArray();
         }
-
-        Log.addMessage("File JSON creato: " + output.getName());
-        return new ArrayList<File>() {{
-            add(output);
-        }};
     }
 
     /**
@@ -0,0 +1,36 @@
+package Converters;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Segnale di annullamento di una conversione.
+ * Chi ha avviato la conversione chiama {@link #cancel()}, i converter controllano il segnale
+ * nei punti in cui possono fermarsi (tra un passaggio e l'altro, tra una pagina e l'altra).
+ * Anche l'interruzione del thread che esegue la conversione vale come annullamento.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled = false;
+
+    /**
+     * Richiede l'annullamento della conversione
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true se la conversione è stata annullata o il thread corrente è stato interrotto
+     */
+    public boolean isCancelled() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * @throws CancellationException Se la conversione è stata annullata
+     */
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("Conversione annullata");
+        }
+    }
+}
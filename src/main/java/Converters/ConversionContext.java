@@ -0,0 +1,141 @@
+package Converters;
+
+import converter.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Contesto di una singola conversione, passato esplicitamente ai converter:
+ * cartella di lavoro privata, cartella di destinazione, opzioni, segnale di annullamento e listener dell'avanzamento.
+ * Ogni invocazione ha il proprio contesto, quindi più conversioni possono essere eseguite in parallelo
+ * senza condividere cartelle o proprietà globali della JVM.
+ */
+public class ConversionContext implements AutoCloseable {
+    private final Path scratchDir;
+    private final File outputDir;
+    private final ConversionOptions options;
+    private final CancellationToken cancellationToken;
+    private final ProgressListener progressListener;
+    private final boolean ownsScratchDir;
+
+    /**
+     * @param scratchDir Cartella di lavoro (può essere null: le cartelle temporanee vengono create in quella di sistema)
+     * @param outputDir Cartella di destinazione dei file prodotti (può essere null)
+     * @param options Opzioni della conversione
+     * @param cancellationToken Segnale di annullamento
+     */
+    public ConversionContext(Path scratchDir, File outputDir, ConversionOptions options, CancellationToken cancellationToken) {
+        this(scratchDir, outputDir, options, cancellationToken, ProgressListener.NONE, false);
+    }
+
+    private ConversionContext(Path scratchDir, File outputDir, ConversionOptions options, CancellationToken cancellationToken,
+                              ProgressListener progressListener, boolean ownsScratchDir) {
+        if (options == null) {
+            Log.addMessage("ERRORE: options nullo");
+            throw new NullPointerException("L'oggetto options non esiste");
+        }
+        if (cancellationToken == null) {
+            Log.addMessage("ERRORE: cancellationToken nullo");
+            throw new NullPointerException("L'oggetto cancellationToken non esiste");
+        }
+        if (progressListener == null) {
+            Log.addMessage("ERRORE: progressListener nullo");
+            throw new NullPointerException("L'oggetto progressListener non esiste");
+        }
+        this.scratchDir = scratchDir;
+        this.outputDir = outputDir;
+        this.options = options;
+        this.cancellationToken = cancellationToken;
+        this.progressListener = progressListener;
+        this.ownsScratchDir = ownsScratchDir;
+    }
+
+    /**
+     * Crea un contesto con una cartella di lavoro nuova, eliminata da {@link #close()}
+     * @param outputDir Cartella di destinazione dei file prodotti
+     * @param options Opzioni della conversione
+     * @param cancellationToken Segnale di annullamento
+     * @return Contesto da chiudere a fine conversione
+     * @throws IOException Errore nella creazione della cartella di lavoro
+     */
+    public static ConversionContext open(File outputDir, ConversionOptions options, CancellationToken cancellationToken) throws IOException {
+        return open(outputDir, options, cancellationToken, ProgressListener.NONE);
+    }
+
+    /**
+     * Come {@link #open(File, ConversionOptions, CancellationToken)} con un listener dell'avanzamento
+     * @param progressListener Destinatario dell'avanzamento riportato dai converter
+     */
+    public static ConversionContext open(File outputDir, ConversionOptions options, CancellationToken cancellationToken,
+                                         ProgressListener progressListener) throws IOException {
+        return new ConversionContext(Files.createTempDirectory("conversion_"), outputDir, options, cancellationToken, progressListener, true);
+    }
+
+    /**
+     * @param stepOptions Opzioni di un passaggio della conversione (es. un anello di una catena)
+     * @return Contesto con le stesse cartelle, lo stesso segnale di annullamento e lo stesso listener ma con altre opzioni
+     */
+    public ConversionContext withOptions(ConversionOptions stepOptions) {
+        return new ConversionContext(scratchDir, outputDir, stepOptions, cancellationToken, progressListener, false);
+    }
+
+    /**
+     * Riporta l'avanzamento della conversione
+     * @param done Unità completate finora
+     * @param total Unità totali, negativo se non noto
+     * @param unit Descrizione dell'unità al plurale
+     */
+    public void reportProgress(long done, long total, String unit) {
+        progressListener.onProgress(done, total, unit);
+    }
+
+    /**
+     * Crea una sottocartella privata nella cartella di lavoro, da eliminare a cura del chiamante
+     * @param prefix Prefisso del nome della cartella
+     * @return Cartella creata
+     * @throws IOException Errore nella creazione della cartella
+     */
+    public Path newScratchDir(String prefix) throws IOException {
+        return scratchDir == null ? Files.createTempDirectory(prefix) : Files.createTempDirectory(scratchDir, prefix);
+    }
+
+    public Path getScratchDir() {
+        return scratchDir;
+    }
+
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public ConversionOptions getOptions() {
+        return options;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * Elimina la cartella di lavoro se è stata creata da {@link #open}
+     */
+    @Override
+    public void close() {
+        if (!ownsScratchDir || scratchDir == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(scratchDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: eliminazione cartella di lavoro fallita - " + scratchDir);
+        }
+    }
+}
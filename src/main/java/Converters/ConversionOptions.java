@@ -0,0 +1,74 @@
+package Converters;
+
+import converter.Log;
+
+/**
+ * Parametri di una singola conversione: nome del file sorgente, formato richiesto
+ * e parametri extra (password dei PDF protetti, unione delle pagine in un'unica immagine).
+ */
+public class ConversionOptions {
+    private final String sourceName;
+    private final String targetFormat;
+    private final String password;
+    private final Boolean union;
+
+    /**
+     * @param sourceName Nome del file sorgente, usato per ricavare estensione e nome dei file prodotti
+     * @param targetFormat Estensione del formato di destinazione
+     * @param password Password per file criptati (può essere null)
+     * @param union Flag di unione delle immagini estratte dal PDF (può essere null)
+     */
+    public ConversionOptions(String sourceName, String targetFormat, String password, Boolean union) {
+        if (sourceName == null) {
+            Log.addMessage("ERRORE: sourceName nullo");
+            throw new NullPointerException("L'oggetto sourceName non esiste");
+        }
+        if (targetFormat == null) {
+            Log.addMessage("ERRORE: targetFormat nullo");
+            throw new NullPointerException("L'oggetto targetFormat non esiste");
+        }
+        this.sourceName = sourceName;
+        this.targetFormat = targetFormat;
+        this.password = password;
+        this.union = union;
+    }
+
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    public String getTargetFormat() {
+        return targetFormat;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public Boolean getUnion() {
+        return union;
+    }
+
+    /**
+     * @return true se le pagine vanno unite in un'unica immagine
+     */
+    public boolean isUnion() {
+        return union != null && union;
+    }
+
+    /**
+     * @return Estensione del file sorgente in minuscolo, stringa vuota se assente
+     */
+    public String getSourceExtension() {
+        int lastDot = sourceName.lastIndexOf('.');
+        return (lastDot <= 0) ? "" : sourceName.substring(lastDot + 1).toLowerCase();
+    }
+
+    /**
+     * @return Nome del file sorgente senza estensione
+     */
+    public String getBaseName() {
+        int lastDot = sourceName.lastIndexOf('.');
+        return (lastDot <= 0) ? sourceName : sourceName.substring(0, lastDot);
+    }
+}
@@ -46,10 +46,9 @@ public class EMLtoPDFconverter implements Converter {
             throw new FileNotFoundException("File EML non trovato: " + emlFile);
         }
 
-        File outputDir = new File("src/temp");
-        if (!outputDir.exists() && !outputDir.mkdirs()) {
-            throw new IOException("Impossibile creare la directory di output: " + outputDir.getAbsolutePath());
-        }
+        // Il PDF viene creato accanto al file sorgente: una cartella condivisa farebbe collidere
+        // conversioni contemporanee di file con lo stesso nome
+        File outputDir = emlFile.getAbsoluteFile().getParentFile();
 
         String baseName = emlFile.getName().replaceFirst("[.][^.]+$", "");
         File outputPdfFile = new File(outputDir, baseName + ".pdf");
@@ -0,0 +1,101 @@
+package Converters;
+
+import converter.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Adatta un converter che lavora solo su file al contratto {@link StreamConverter}.
+ * Il sorgente viene scritto in una cartella temporanea privata, convertito con i metodi classici
+ * e i file prodotti vengono riversati nel sink.
+ */
+public class FileConverterAdapter implements StreamConverter {
+    private final Converter converter;
+
+    public FileConverterAdapter(Converter converter) {
+        if (converter == null) {
+            Log.addMessage("ERRORE: converter nullo");
+            throw new NullPointerException("L'oggetto converter non esiste");
+        }
+        this.converter = converter;
+    }
+
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws Exception {
+        convert(in, sink, Files.createTempDirectory("converter_adapter_"), options, null);
+    }
+
+    /**
+     * Come {@link #convert(InputStream, OutputSink, ConversionOptions)}, ma la copia del sorgente e i file
+     * prodotti restano nella cartella di lavoro del contesto
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionContext context) throws Exception {
+        context.getCancellationToken().throwIfCancelled();
+        convert(in, sink, context.newScratchDir("converter_adapter_"), context.getOptions(), context.getCancellationToken());
+    }
+
+    private void convert(InputStream in, OutputSink sink, Path scratchDir, ConversionOptions options, CancellationToken token) throws Exception {
+        try {
+            File srcFile = scratchDir.resolve(options.getSourceName()).toFile();
+            Files.copy(in, srcFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            List<File> outFiles = invoke(converter, srcFile, options.getPassword(), options.getUnion());
+            if (outFiles == null) {
+                return;
+            }
+            for (File f : outFiles) {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+                try (OutputStream out = sink.newOutput(f.getName())) {
+                    Files.copy(f.toPath(), out);
+                }
+                Files.deleteIfExists(f.toPath());
+            }
+        } finally {
+            deleteRecursively(scratchDir);
+        }
+    }
+
+    /**
+     * Chiama la variante di convert coerente con i parametri passati
+     * @param converter Converter da invocare
+     * @param srcFile File iniziale
+     * @param parameter Parametro extra (può essere null)
+     * @param union Flag che indica l'unione o meno delle immagini estratte dal PDF (può essere null)
+     * @return Lista dei file prodotti
+     * @throws Exception Errore durante la conversione
+     */
+    public static List<File> invoke(Converter converter, File srcFile, String parameter, Boolean union) throws Exception {
+        if (parameter != null && union != null) {
+            return converter.convert(srcFile, parameter, union);
+        } else if (parameter != null) {
+            return converter.convert(srcFile, parameter);
+        } else if (union != null) {
+            return converter.convert(srcFile, union);
+        } else {
+            return converter.convert(srcFile);
+        }
+    }
+
+    /**
+     * Elimina ricorsivamente la cartella temporanea
+     */
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: eliminazione cartella temporanea fallita - " + directory);
+        }
+    }
+}
@@ -8,15 +8,16 @@ import net.ifok.image.image4j.codec.ico.ICOEncoder;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 import java.util.List;
 
 /**
  * Convertitore per immagini tra vari formati (png, jpg, ico, webp, ecc.)
  */
-public class ImageConverter implements Converter {
+public class ImageConverter implements Converter, StreamConverter {
+
+    private static final List<String> FORMATS_WITH_ALPHA = Arrays.asList("png", "tiff", "gif", "webp", "psd", "icns", "ico", "tga", "iff");
 
     /**
      * Converte un'immagine nel formato desiderato, dedotto dal nome del file
@@ -39,6 +40,25 @@ public class ImageConverter implements Converter {
         return files;
     }
 
+    /**
+     * Converte un'immagine letta da stream nel formato indicato dalle opzioni
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws IOException {
+        String targetFormat = options.getTargetFormat();
+        String outName = options.getBaseName() + "." + targetFormat;
+        Log.addMessage("Inizio conversione immagine: " + options.getSourceName() + " -> ." + targetFormat);
+
+        BufferedImage image = readImage(in, options.getSourceExtension(), options.getSourceName());
+        try (OutputStream out = sink.newOutput(outName)) {
+            writeImage(image, options.getSourceExtension(), targetFormat, out);
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: conversione immagine fallita per " + options.getSourceName());
+            throw e;
+        }
+        Log.addMessage("Creazione file ." + targetFormat + " completata: " + outName);
+    }
+
     /**
      * Metodo principale per la conversione dell'immagine nel formato desiderato
      */
@@ -46,58 +66,65 @@ public class ImageConverter implements Converter {
         Log.addMessage("Inizio conversione immagine: " +
                 imgFile.getName() + " -> ." + targetFormat);
 
-        List<String> formatsWithAlpha = Arrays.asList("png", "tiff", "gif", "webp", "psd", "icns", "ico", "tga", "iff");
-        List<String> formatsRequiringIntermediate = Arrays.asList("webp", "pbm", "pgm", "ppm", "pam", "tga", "iff", "xwd", "icns", "pnm");
-
         String originalExtension = getExtension(imgFile);
-        File outFile;
-
         BufferedImage image;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(imgFile))) {
+            image = readImage(in, originalExtension, imgFile.getName());
+        }
+
+        File outFile = new File("src/temp", getBaseName(imgFile) + "." + targetFormat);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
+            writeImage(image, originalExtension, targetFormat, out);
+        } catch (IOException e) {
+            if (outFile.exists() && !outFile.delete()) {
+                Log.addMessage("ERRORE: impossibile eliminare il file parziale " + outFile.getName());
+            }
+            throw e;
+        }
+
+        Log.addMessage("Creazione file ." + targetFormat + " completata: " + outFile.getName());
+        return outFile;
+    }
 
+    /**
+     * Decodifica l'immagine sorgente. Per i file ICO viene scelta l'immagine a risoluzione più alta
+     */
+    private static BufferedImage readImage(InputStream in, String originalExtension, String name) throws IOException {
         if (originalExtension.equals("ico")) {
-            List<BufferedImage> images = ICODecoder.read(imgFile);
+            List<BufferedImage> images = ICODecoder.read(in);
             if (images.isEmpty()) {
                 Log.addMessage("ERRORE: nessuna immagine valida trovata nel file ICO.");
-                throw new IOException("File ICO non valido: " + imgFile.getName());
+                throw new IOException("File ICO non valido: " + name);
             }
 
             // Seleziona l'immagine con risoluzione più alta
-            BufferedImage largest = images.stream()
+            return images.stream()
                     .max(Comparator.comparingInt(img -> img.getWidth() * img.getHeight())).get();
+        }
 
-            if (formatsRequiringIntermediate.contains(targetFormat)) {
-                outFile = new File("src/temp", getBaseName(imgFile) + ".png");
-                ImageIO.write(largest, "png", outFile);
-            }
-
-            outFile = new File("src/temp", getBaseName(imgFile) + "." + targetFormat);
-            ICOEncoder.write(largest, outFile);
-            Log.addMessage("Creazione file ." + targetFormat + " completata: " + outFile.getName());
-            return outFile;
-
-        } else {
-            image = ImageIO.read(imgFile);
-            if (image == null) {
-                Log.addMessage("ERRORE: lettura immagine fallita - formato non supportato o file corrotto.");
-                throw new IOException("Immagine non valida: " + imgFile.getName());
-            }
+        BufferedImage image = ImageIO.read(in);
+        if (image == null) {
+            Log.addMessage("ERRORE: lettura immagine fallita - formato non supportato o file corrotto.");
+            throw new IOException("Immagine non valida: " + name);
         }
+        return image;
+    }
 
+    /**
+     * Codifica l'immagine nel formato di destinazione, rimuovendo la trasparenza se il formato non la supporta
+     */
+    private static void writeImage(BufferedImage image, String originalExtension, String targetFormat, OutputStream out) throws IOException {
         // Rimuove trasparenza se necessario
-        if (formatsWithAlpha.contains(originalExtension) ^ formatsWithAlpha.contains(targetFormat.toLowerCase())) {
+        if (FORMATS_WITH_ALPHA.contains(originalExtension) ^ FORMATS_WITH_ALPHA.contains(targetFormat.toLowerCase())) {
             image = removeAlphaChannel(image);
         }
 
-        outFile = new File("src/temp", getBaseName(imgFile) + "." + targetFormat);
-
         if (targetFormat.equalsIgnoreCase("ico")) {
-            ICOEncoder.write(image, outFile);
-        } else {
-            ImageIO.write(image, targetFormat, outFile);
+            ICOEncoder.write(image, out);
+        } else if (!ImageIO.write(image, targetFormat, out)) {
+            Log.addMessage("ERRORE: nessun writer disponibile per il formato " + targetFormat);
+            throw new IOException("Formato di destinazione non supportato: " + targetFormat);
         }
-
-        Log.addMessage("Creazione file ." + targetFormat + " completata: " + outFile.getName());
-        return outFile;
     }
 
     /**
@@ -136,4 +163,4 @@ public class ImageConverter implements Converter {
 
         return copy;
     }
-}
\ No newline at end of file
+}
@@ -7,9 +7,13 @@ import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 
-public class JSONtoXLSXconverter implements Converter {
+public class JSONtoXLSXconverter implements Converter, StreamConverter {
+
+    // Ogni quante righe viene riportato l'avanzamento
+    private static final int PROGRESS_ROWS = 500;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -30,52 +34,87 @@ public class JSONtoXLSXconverter implements Converter {
         return convertInternal(srcFile, null, opzioni);
     }
 
-    private ArrayList<File> convertInternal(File jsonFile, String password, boolean optionFlag) throws IOException {
-        List<Map<String, Object>> data = objectMapper.readValue(
-                jsonFile, new TypeReference<List<Map<String, Object>>>() {}
-        );
-
-        Workbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Data");
-
-        // Write header
-        if (!data.isEmpty()) {
-            Row headerRow = sheet.createRow(0);
-            Map<String, Object> firstRow = data.get(0);
-            int cellIndex = 0;
-            for (String key : firstRow.keySet()) {
-                Cell cell = headerRow.createCell(cellIndex++);
-                cell.setCellValue(key);
-            }
-
-            // Write data rows
-            for (int i = 0; i < data.size(); i++) {
-                Row row = sheet.createRow(i + 1);
-                Map<String, Object> rowData = data.get(i);
-                int ci = 0;
-                for (String key : firstRow.keySet()) {
-                    Cell cell = row.createCell(ci++);
-                    Object value = rowData.get(key);
-                    cell.setCellValue(value != null ? value.toString() : "");
-                }
-            }
+    /**
+     * Converte un file JSON letto da stream in un file .xlsx
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws IOException {
+        try (OutputStream out = sink.newOutput(options.getBaseName() + ".xlsx")) {
+            writeWorkbook(in, out, ProgressListener.NONE);
         }
+    }
 
-        // Auto size columns (optional)
-        for (int i = 0; i < sheet.getRow(0).getPhysicalNumberOfCells(); i++) {
-            sheet.autoSizeColumn(i);
+    /**
+     * Come {@link #convert(InputStream, OutputSink, ConversionOptions)}, riportando le righe scritte
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionContext context) throws IOException {
+        context.getCancellationToken().throwIfCancelled();
+        try (OutputStream out = sink.newOutput(context.getOptions().getBaseName() + ".xlsx")) {
+            writeWorkbook(in, out, context.getProgressListener());
         }
+    }
 
+    private ArrayList<File> convertInternal(File jsonFile, String password, boolean optionFlag) throws IOException {
         // Output file
         File outFile = File.createTempFile("converted-", ".xlsx");
-        try (FileOutputStream fos = new FileOutputStream(outFile)) {
-            workbook.write(fos);
+        try (InputStream in = new FileInputStream(jsonFile);
+             FileOutputStream fos = new FileOutputStream(outFile)) {
+            writeWorkbook(in, fos, ProgressListener.NONE);
+        } catch (IOException e) {
+            Files.deleteIfExists(outFile.toPath());
+            throw e;
         }
-        workbook.close();
 
         ArrayList<File> result = new ArrayList<>();
         result.add(outFile);
         return result;
     }
-}
 
+    /**
+     * Scrive un foglio Excel con una riga per ogni oggetto dell'array JSON
+     * @param progress Destinatario del numero di righe scritte
+     */
+    private void writeWorkbook(InputStream in, OutputStream out, ProgressListener progress) throws IOException {
+        List<Map<String, Object>> data = objectMapper.readValue(
+                in, new TypeReference<List<Map<String, Object>>>() {}
+        );
+
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Data");
+
+            // Write header
+            if (!data.isEmpty()) {
+                Row headerRow = sheet.createRow(0);
+                Map<String, Object> firstRow = data.get(0);
+                int cellIndex = 0;
+                for (String key : firstRow.keySet()) {
+                    Cell cell = headerRow.createCell(cellIndex++);
+                    cell.setCellValue(key);
+                }
+
+                // Write data rows
+                for (int i = 0; i < data.size(); i++) {
+                    Row row = sheet.createRow(i + 1);
+                    Map<String, Object> rowData = data.get(i);
+                    int ci = 0;
+                    for (String key : firstRow.keySet()) {
+                        Cell cell = row.createCell(ci++);
+                        Object value = rowData.get(key);
+                        cell.setCellValue(value != null ? value.toString() : "");
+                    }
+                    if ((i + 1) % PROGRESS_ROWS == 0 || i + 1 == data.size()) {
+                        progress.onProgress(i + 1, data.size(), "righe");
+                    }
+                }
+
+                // Auto size columns (optional)
+                for (int i = 0; i < headerRow.getPhysicalNumberOfCells(); i++) {
+                    sheet.autoSizeColumn(i);
+                }
+            }
+
+            workbook.write(out);
+        }
+    }
+}
@@ -41,10 +41,9 @@ public class MSGtoPDFconverter implements Converter {
 
         Log.addMessage("Inizio conversione msg: " + msgFile.getName() + " -> .pdf");
 
-        File outputDir = new File(System.getProperty("java.io.tmpdir"), "msg_to_pdf");
-        if (!outputDir.exists() && !outputDir.mkdirs()) {
-            throw new IOException("Impossibile creare la directory di output: " + outputDir.getAbsolutePath());
-        }
+        // Il PDF viene creato accanto al file sorgente: una cartella condivisa farebbe collidere
+        // conversioni contemporanee di file con lo stesso nome
+        File outputDir = msgFile.getAbsoluteFile().getParentFile();
 
         String baseName = msgFile.getName().replaceFirst("[.][^.]+$", "");
         File outputPdfFile = new File(outputDir, baseName + ".pdf");
@@ -0,0 +1,19 @@
+package Converters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destinazione dei file prodotti da uno {@link StreamConverter}.
+ * Per ogni file in uscita il converter apre un nuovo stream, lo scrive e lo chiude.
+ */
+public interface OutputSink {
+
+    /**
+     * Apre un nuovo file di output
+     * @param fileName Nome del file prodotto (senza percorso)
+     * @return Stream su cui scrivere il contenuto, da chiudere a fine scrittura
+     * @throws IOException Errore nella creazione della destinazione
+     */
+    OutputStream newOutput(String fileName) throws IOException;
+}
@@ -28,7 +28,8 @@ public class PDFtoDOCconverter extends AbstractPDFConverter {
 
         ArrayList<File> files = new ArrayList<>();
         String baseName = pdfFile.getName().replaceAll("(?i)\\.pdf$", "");
-        File outputFile = new File(baseName + ".doc");
+        // Il file viene creato accanto al PDF e non nella directory di lavoro del processo, condivisa da tutte le conversioni
+        File outputFile = new File(pdfFile.getAbsoluteFile().getParentFile(), baseName + ".doc");
         File template = new File("themplate.doc");
 
         try {
@@ -1,18 +1,26 @@
 package Converters;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
 
-public class PDFtoJPGconverter extends AbstractPDFConverter {
+public class PDFtoJPGconverter extends AbstractPDFConverter implements StreamConverter {
     private static final int DPI = 300; // DPI dell'immagine renderizzata
+    private static final long MAX_MAIN_MEMORY_BYTES = 64L * 1024 * 1024; // oltre questa soglia il PDF viene appoggiato su file temporanei
 
     /**
      * Metodo per unire le pagine del pdf una sotto l'altra in un'unica immagine
@@ -47,6 +55,47 @@ public class PDFtoJPGconverter extends AbstractPDFConverter {
         return combined;
     }
 
+    /**
+     * Conversione pdf -> jpg a partire da uno stream, senza copie temporanee del sorgente
+     * @param in Contenuto del pdf
+     * @param sink Destinazione delle immagini prodotte
+     * @param options Password e flag di unione delle pagine
+     * @throws Exception Pdf protetto, password errata o errore durante il rendering
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws Exception {
+        convert(in, sink, options, null, ProgressListener.NONE);
+    }
+
+    /**
+     * Come {@link #convert(InputStream, OutputSink, ConversionOptions)}, controllando il segnale
+     * di annullamento del contesto prima di ogni pagina e riportando le pagine renderizzate
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionContext context) throws Exception {
+        context.getCancellationToken().throwIfCancelled();
+        convert(in, sink, context.getOptions(), context.getCancellationToken(), context.getProgressListener());
+    }
+
+    private void convert(InputStream in, OutputSink sink, ConversionOptions options, CancellationToken token, ProgressListener progress) throws Exception {
+        String password = options.getPassword();
+        PDDocument pdfDocument;
+        try {
+            pdfDocument = PDDocument.load(in, password == null ? "" : password, MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY_BYTES));
+        } catch (InvalidPasswordException e) {
+            throw new Exception(password == null ? "File protetto da password" : "Password errata");
+        }
+        try {
+            renderPages(pdfDocument, options.getBaseName(), options.isUnion(), sink, token, progress);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new Exception("Errore durante il processo di conversione: " + e.getMessage());
+        } finally {
+            pdfDocument.close();
+        }
+    }
+
     /**
      * Conversione pdf -> jpg
      * @param pdfFile File di partenza
@@ -59,44 +108,65 @@ public class PDFtoJPGconverter extends AbstractPDFConverter {
     public ArrayList<File> convertInternal(File pdfFile, PDDocument pdfDocument, boolean union) throws Exception {
         validateInputs(pdfFile, pdfDocument);
         try{
+            String baseName = Objects.requireNonNull(pdfFile.getName().replaceAll("(?i)\\.pdf$", "")); // senza estensione
+            // Stessi percorsi relativi di sempre: i file prodotti vengono poi spostati da chi ha chiamato il converter
+            ArrayList<File> outputFiles = new ArrayList<>();
+            OutputSink sink = fileName -> {
+                File outputFile = new File(fileName);
+                outputFiles.add(outputFile);
+                return new BufferedOutputStream(new FileOutputStream(outputFile));
+            };
+            renderPages(pdfDocument, baseName, union, sink, null, ProgressListener.NONE);
+            return outputFiles;
+        }catch (Exception e){
+            throw new Exception("Errore durante il processo di conversione: " + e.getMessage());
+        } finally {
+            if (pdfDocument != null) {
+                pdfDocument.close();
+            }
+        }
+    }
+
+    /**
+     * Renderizza le pagine e le scrive nel sink: una pagina alla volta se non vanno unite,
+     * altrimenti un'unica immagine con tutte le pagine una sotto l'altra
+     * @param pdfDocument Documento pdf caricato
+     * @param baseName Nome del pdf senza estensione
+     * @param union Boolean che indica se unire o no le pagine in un'unica immagine
+     * @param sink Destinazione delle immagini
+     * @param token Segnale di annullamento controllato prima di ogni pagina (può essere null)
+     * @param progress Destinatario del numero di pagine renderizzate
+     * @throws IOException Errore durante il rendering o la scrittura
+     */
+    private void renderPages(PDDocument pdfDocument, String baseName, boolean union, OutputSink sink, CancellationToken token, ProgressListener progress) throws IOException {
         PDFRenderer renderer = new PDFRenderer(pdfDocument);
         ArrayList<BufferedImage> images = new ArrayList<>();
-        ArrayList<File> outputFiles = new ArrayList<>();
+        int pages = pdfDocument.getNumberOfPages();
+        progress.onProgress(0, pages, "pagine");
 
-        String baseName = Objects.requireNonNull(pdfFile.getName().replaceAll("(?i)\\.pdf$", "")); // senza estensione
-            System.out.println();
-        for (int i = 0; i < pdfDocument.getNumberOfPages(); i++) {
+        for (int i = 0; i < pages; i++) {
+            if (token != null) {
+                token.throwIfCancelled();
+            }
             BufferedImage image = renderer.renderImageWithDPI(i, DPI);
-            images.add(image);
 
-            if (!union) {
-                File tempFile = new File(baseName + "_page_" + (i + 1) + ".jpg");
-                ImageIO.write(image, "jpg", tempFile);
-                outputFiles.add(tempFile);
+            if (union) {
+                images.add(image);
+            } else {
+                // La pagina viene scritta subito e non resta in memoria
+                try (OutputStream out = sink.newOutput(baseName + "_page_" + (i + 1) + ".jpg")) {
+                    ImageIO.write(image, "jpg", out);
+                }
             }
+            progress.onProgress(i + 1, pages, "pagine");
         }
 
         if (union) {
             BufferedImage mergedImage = mergeImagesVertically(images);
-            File mergedFile = new File(baseName + ".jpg");  // usa il nome del PDF
-            ImageIO.write(mergedImage, "jpg", mergedFile);
-            outputFiles.add(mergedFile);
-        }
-
-        pdfDocument.close();
-        return outputFiles;
-        }catch (Exception e){
-            throw new Exception("Errore durante il processo di conversione: " + e.getMessage());
-        } finally {
-            if (pdfDocument != null) {
-                pdfDocument.close();
+            try (OutputStream out = sink.newOutput(baseName + ".jpg")) {  // usa il nome del PDF
+                ImageIO.write(mergedImage, "jpg", out);
             }
         }
     }
 
 }
-
-
-
-
-
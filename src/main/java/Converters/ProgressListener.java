@@ -0,0 +1,22 @@
+package Converters;
+
+/**
+ * Avanzamento di una conversione, riportato dai converter tramite il {@link ConversionContext}
+ * (pagine renderizzate, righe scritte, voci di un archivio copiate).
+ * Viene chiamato nel thread della conversione: le implementazioni devono essere veloci e non bloccare.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Listener che ignora l'avanzamento, usato quando nessuno lo osserva
+     */
+    ProgressListener NONE = (done, total, unit) -> { };
+
+    /**
+     * @param done Unità completate finora
+     * @param total Unità totali, negativo se non noto in anticipo
+     * @param unit Descrizione dell'unità al plurale (es. "pagine", "righe")
+     */
+    void onProgress(long done, long total, String unit);
+}
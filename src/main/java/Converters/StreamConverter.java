@@ -0,0 +1,35 @@
+package Converters;
+
+import java.io.InputStream;
+
+/**
+ * Contratto per i converter che lavorano direttamente su stream.
+ * Il sorgente viene letto dall'InputStream senza copie temporanee su disco e ogni file prodotto
+ * viene scritto nell'OutputSink ricevuto, che decide dove finiscono i byte (cartella, memoria, risposta HTTP).
+ * I converter che implementano solo {@link Converter} continuano a funzionare tramite {@link FileConverterAdapter}.
+ */
+public interface StreamConverter {
+
+    /**
+     * Esegue la conversione
+     * @param in Contenuto del file sorgente (lo stream viene chiuso dal chiamante)
+     * @param sink Destinazione dei file convertiti
+     * @param options Nome del sorgente, formato di destinazione e parametri extra
+     * @throws Exception Errore durante la conversione
+     */
+    void convert(InputStream in, OutputSink sink, ConversionOptions options) throws Exception;
+
+    /**
+     * Esegue la conversione nel contesto indicato.
+     * I converter che usano file temporanei o possono fermarsi a metà ridefiniscono questo metodo
+     * per usare la cartella di lavoro e il segnale di annullamento del contesto
+     * @param in Contenuto del file sorgente (lo stream viene chiuso dal chiamante)
+     * @param sink Destinazione dei file convertiti
+     * @param context Opzioni, cartella di lavoro e segnale di annullamento di questa conversione
+     * @throws Exception Errore durante la conversione
+     */
+    default void convert(InputStream in, OutputSink sink, ConversionContext context) throws Exception {
+        context.getCancellationToken().throwIfCancelled();
+        convert(in, sink, context.getOptions());
+    }
+}
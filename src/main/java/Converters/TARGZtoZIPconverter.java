@@ -14,7 +14,7 @@ import java.util.ArrayList;
 /**
  * Convertitore che trasforma un archivio .tar.gz in un file .zip
  */
-public class TARGZtoZIPconverter implements Converter {
+public class TARGZtoZIPconverter implements Converter, StreamConverter {
 
     /**
      * Converte un file tar.gz in un archivio zip
@@ -29,35 +29,13 @@ public class TARGZtoZIPconverter implements Converter {
         Log.addMessage("Inizio conversione tarGz: " + tarGzFile.getName() + " -> .zip");
 
         String directoryPath = "src/temp/";
-        String name = tarGzFile.getName();
-        String baseName = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
-        File zipFile = new File(directoryPath, baseName + ".zip");
+        File zipFile = new File(directoryPath, getBaseName(tarGzFile.getName()) + ".zip");
 
         try (
                 FileInputStream fis = new FileInputStream(tarGzFile);
-                BufferedInputStream bis = new BufferedInputStream(fis);
-                GzipCompressorInputStream gis = new GzipCompressorInputStream(bis);
-                TarArchiveInputStream tarIn = new TarArchiveInputStream(gis);
-                FileOutputStream fos = new FileOutputStream(zipFile);
-                ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(fos)
+                FileOutputStream fos = new FileOutputStream(zipFile)
         ) {
-            TarArchiveEntry entry;
-
-            while ((entry = tarIn.getNextTarEntry()) != null) {
-                ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.getName());
-                zipOut.putArchiveEntry(zipEntry);
-
-                if (!entry.isDirectory()) {
-                    try {
-                        Utility.copy(tarIn, zipOut);
-                    } catch (IOException e) {
-                        Log.addMessage("ERRORE: impossibile copiare l'entry " + entry.getName() + " nell'archivio zip.");
-                        throw e;
-                    }
-                }
-
-                zipOut.closeArchiveEntry();
-            }
+            copyEntries(fis, fos, ProgressListener.NONE);
 
             Log.addMessage("Creazione file .zip completata: " + zipFile.getName());
             outputFiles.add(zipFile);
@@ -69,4 +47,76 @@ public class TARGZtoZIPconverter implements Converter {
 
         return outputFiles;
     }
+
+    /**
+     * Converte un archivio tar.gz letto da stream: le entry vengono copiate una alla volta senza file intermedi
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws IOException {
+        convert(in, sink, options, ProgressListener.NONE);
+    }
+
+    /**
+     * Come {@link #convert(InputStream, OutputSink, ConversionOptions)}, riportando le voci copiate
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionContext context) throws IOException {
+        context.getCancellationToken().throwIfCancelled();
+        convert(in, sink, context.getOptions(), context.getProgressListener());
+    }
+
+    private void convert(InputStream in, OutputSink sink, ConversionOptions options, ProgressListener progress) throws IOException {
+        Log.addMessage("Inizio conversione tarGz: " + options.getSourceName() + " -> .zip");
+        String outName = getBaseName(options.getSourceName()) + ".zip";
+
+        try (OutputStream out = sink.newOutput(outName)) {
+            copyEntries(in, out, progress);
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: problema durante la conversione del file tar.gz.");
+            throw e;
+        }
+        Log.addMessage("Creazione file .zip completata: " + outName);
+    }
+
+    /**
+     * Copia tutte le entry del tar.gz in un nuovo archivio zip
+     * @param in Contenuto del tar.gz
+     * @param out Destinazione dello zip
+     * @param progress Destinatario del numero di voci copiate (il totale non è noto prima della fine dell'archivio)
+     * @throws IOException In caso di errore durante la lettura o scrittura
+     */
+    private static void copyEntries(InputStream in, OutputStream out, ProgressListener progress) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(in);
+        GzipCompressorInputStream gis = new GzipCompressorInputStream(bis);
+        TarArchiveInputStream tarIn = new TarArchiveInputStream(gis);
+        ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(out);
+
+        TarArchiveEntry entry;
+        long copied = 0;
+
+        while ((entry = tarIn.getNextTarEntry()) != null) {
+            ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.getName());
+            zipOut.putArchiveEntry(zipEntry);
+
+            if (!entry.isDirectory()) {
+                try {
+                    Utility.copy(tarIn, zipOut);
+                } catch (IOException e) {
+                    Log.addMessage("ERRORE: impossibile copiare l'entry " + entry.getName() + " nell'archivio zip.");
+                    throw e;
+                }
+            }
+
+            zipOut.closeArchiveEntry();
+            progress.onProgress(++copied, -1, "voci");
+        }
+        zipOut.finish();
+    }
+
+    /**
+     * Nome del file senza l'ultima estensione
+     */
+    private static String getBaseName(String name) {
+        return name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+    }
 }
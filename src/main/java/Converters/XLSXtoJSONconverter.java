@@ -6,9 +6,14 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 
-public class XLSXtoJSONconverter implements Converter {
+public class XLSXtoJSONconverter implements Converter, StreamConverter {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Ogni quante righe viene riportato l'avanzamento
+    private static final int PROGRESS_ROWS = 500;
 
     /**
      * Converte un file .xlsx in un file .json
@@ -17,12 +22,52 @@ public class XLSXtoJSONconverter implements Converter {
      * @throws IOException in caso di errori di lettura/scrittura
      */
     public File convertXlsxToJson(File excelFile) throws IOException {
-        // Carica il file Excel
+        // Crea file temporaneo per l'output JSON
+        File jsonFile = File.createTempFile("excel-to-json-", ".json");
+
         try (InputStream inputStream = new FileInputStream(excelFile);
-             Workbook workbook = new XSSFWorkbook(inputStream)) {
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jsonFile))) {
+            writeJson(inputStream, outputStream, ProgressListener.NONE);
+        } catch (IOException e) {
+            Files.deleteIfExists(jsonFile.toPath());
+            throw e;
+        }
+        return jsonFile;
+    }
+
+    /**
+     * Converte un file .xlsx letto da stream in JSON
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws IOException {
+        try (OutputStream out = sink.newOutput(options.getBaseName() + ".json")) {
+            writeJson(in, out, ProgressListener.NONE);
+        }
+    }
+
+    /**
+     * Come {@link #convert(InputStream, OutputSink, ConversionOptions)}, riportando le righe elaborate
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionContext context) throws IOException {
+        context.getCancellationToken().throwIfCancelled();
+        try (OutputStream out = sink.newOutput(context.getOptions().getBaseName() + ".json")) {
+            writeJson(in, out, context.getProgressListener());
+        }
+    }
+
+    /**
+     * Legge il primo foglio dell'Excel e ne scrive le righe come array JSON, usando la prima riga come intestazione
+     * @param progress Destinatario del numero di righe elaborate
+     */
+    private void writeJson(InputStream inputStream, OutputStream outputStream, ProgressListener progress) throws IOException {
+        // Carica il file Excel
+        try (Workbook workbook = new XSSFWorkbook(inputStream)) {
 
             Sheet sheet = workbook.getSheetAt(0); // Primo foglio
             Iterator<Row> rowIterator = sheet.iterator();
+            // Righe dati stimate: l'indice dell'ultima riga esclusa l'intestazione
+            int totalRows = sheet.getLastRowNum();
 
             List<Map<String, String>> jsonData = new ArrayList<>();
             List<String> headers = new ArrayList<>();
@@ -46,16 +91,14 @@ public class XLSXtoJSONconverter implements Converter {
                 }
 
                 jsonData.add(rowMap);
+                if (jsonData.size() % PROGRESS_ROWS == 0) {
+                    progress.onProgress(jsonData.size(), totalRows, "righe");
+                }
             }
-
-            // Crea file temporaneo per l'output JSON
-            File jsonFile = File.createTempFile("excel-to-json-", ".json");
+            progress.onProgress(jsonData.size(), jsonData.size(), "righe");
 
             // Scrittura del JSON
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.writerWithDefaultPrettyPrinter().writeValue(jsonFile, jsonData);
-
-            return jsonFile;
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(outputStream, jsonData);
         }
     }
 
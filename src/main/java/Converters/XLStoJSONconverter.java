@@ -7,7 +7,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.*;
 import java.util.*;
 
-public class XLStoJSONconverter implements Converter{
+public class XLStoJSONconverter implements Converter, StreamConverter {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Ogni quante righe viene riportato l'avanzamento
+    private static final int PROGRESS_ROWS = 500;
+
     @Override
     public ArrayList<File> convert(File xlsFile) throws IOException {
         ArrayList<File> resultFiles = new ArrayList<>();
@@ -72,11 +77,74 @@ public class XLStoJSONconverter implements Converter{
         System.out.println("  Input: " + xlsFile.getAbsolutePath());
         System.out.println("  Output: " + outputFile.getAbsolutePath());
 
-        try (InputStream fileStream = new FileInputStream(xlsFile);
-             Workbook workbook = new HSSFWorkbook(fileStream)) {
+        try {
+            // Crea la cartella di output se necessario
+            createOutputDirectory(outputFile);
+
+            int rowCount;
+            try (InputStream fileStream = new FileInputStream(xlsFile);
+                 OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                rowCount = writeJson(fileStream, outputStream, ProgressListener.NONE);
+            }
+
+            System.out.println("  ✓ Conversione completata! Righe elaborate: " + rowCount);
+            System.out.println("  ✓ File creato: " + outputFile.getAbsolutePath() + " (" + outputFile.length() + " bytes)");
+
+            // Verifica che il file sia stato creato correttamente
+            if (outputFile.exists() && outputFile.length() > 0) {
+                return outputFile;
+            } else {
+                throw new IOException("Il file JSON non è stato creato correttamente");
+            }
+
+        } catch (Exception e) {
+            // Pulizia in caso di errore
+            cleanupFailedConversion(outputFile);
+            throw new IOException("Errore durante la conversione XLS: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converte un file XLS letto da stream in JSON
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionOptions options) throws IOException {
+        convert(in, sink, options, ProgressListener.NONE);
+    }
+
+    /**
+     * Come {@link #convert(InputStream, OutputSink, ConversionOptions)}, riportando le righe elaborate
+     */
+    @Override
+    public void convert(InputStream in, OutputSink sink, ConversionContext context) throws IOException {
+        context.getCancellationToken().throwIfCancelled();
+        convert(in, sink, context.getOptions(), context.getProgressListener());
+    }
+
+    private void convert(InputStream in, OutputSink sink, ConversionOptions options, ProgressListener progress) throws IOException {
+        try (OutputStream out = sink.newOutput(options.getBaseName() + ".json")) {
+            writeJson(in, out, progress);
+        } catch (Exception e) {
+            throw new IOException("Errore durante la conversione XLS: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Legge il primo foglio del file XLS e ne scrive le righe non vuote come array JSON
+     *
+     * @param inputStream Contenuto del file XLS
+     * @param outputStream Destinazione del JSON
+     * @param progress Destinatario del numero di righe elaborate
+     * @return Numero di righe elaborate
+     * @throws IOException Se si verificano errori durante la lettura o la scrittura
+     */
+    private int writeJson(InputStream inputStream, OutputStream outputStream, ProgressListener progress) throws IOException {
+        try (Workbook workbook = new HSSFWorkbook(inputStream)) {
 
             Sheet sheet = workbook.getSheetAt(0);
             Iterator<Row> rowIterator = sheet.iterator();
+            // Righe dati stimate: l'indice dell'ultima riga esclusa l'intestazione (le righe vuote vengono saltate)
+            int totalRows = sheet.getLastRowNum();
             List<String> headers = new ArrayList<>();
             List<Map<String, String>> dataList = new ArrayList<>();
 
@@ -107,29 +175,15 @@ public class XLStoJSONconverter implements Converter{
 
                 dataList.add(rowData);
                 rowCount++;
+                if (rowCount % PROGRESS_ROWS == 0) {
+                    progress.onProgress(rowCount, totalRows, "righe");
+                }
             }
+            progress.onProgress(rowCount, rowCount, "righe");
 
-            // Crea la cartella di output se necessario
-            createOutputDirectory(outputFile);
-
-            // Scrive il file JSON
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.writerWithDefaultPrettyPrinter().writeValue(outputFile, dataList);
-
-            System.out.println("  ✓ Conversione completata! Righe elaborate: " + rowCount);
-            System.out.println("  ✓ File creato: " + outputFile.getAbsolutePath() + " (" + outputFile.length() + " bytes)");
-
-            // Verifica che il file sia stato creato correttamente
-            if (outputFile.exists() && outputFile.length() > 0) {
-                return outputFile;
-            } else {
-                throw new IOException("Il file JSON non è stato creato correttamente");
-            }
-
-        } catch (Exception e) {
-            // Pulizia in caso di errore
-            cleanupFailedConversion(outputFile);
-            throw new IOException("Errore durante la conversione XLS: " + e.getMessage(), e);
+            // Scrive il JSON
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(outputStream, dataList);
+            return rowCount;
         }
     }
 
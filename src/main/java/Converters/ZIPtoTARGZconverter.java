@@ -29,11 +29,12 @@ public class ZIPtoTARGZconverter implements Converter {
 
         Log.addMessage("Inizio conversione zip: " + zipFile.getName() + " -> .tar.gz");
 
-        // Preparazione percorso di output
-        String directoryPath = "src/temp/";
+        // L'archivio viene creato accanto al file sorgente: una cartella condivisa farebbe collidere
+        // conversioni contemporanee di file con lo stesso nome
+        File outputDir = zipFile.getAbsoluteFile().getParentFile();
         String zipName = zipFile.getName();
         String baseName = zipName.contains(".") ? zipName.substring(0, zipName.lastIndexOf('.')) : zipName;
-        File tarGzOut = new File(directoryPath, baseName + ".tar.gz");
+        File tarGzOut = new File(outputDir, baseName + ".tar.gz");
 
         // Apertura delle risorse con try-with-resources
         try (ZipFile zip = new ZipFile(zipFile);
@@ -0,0 +1,197 @@
+package WebService;
+
+import converter.ConversionMetrics;
+import converter.ConversionScheduler;
+import converter.Log;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controllo di ammissione delle conversioni del web service.
+ * Per ogni classe di costo è ammesso un numero limitato di conversioni contemporanee (in esecuzione o in coda
+ * nello scheduler); oltre il limite le richieste attendono un posto libero per un tempo limitato, e solo
+ * un numero limitato di richieste può attendere. Quando la classe è satura la richiesta viene rifiutata subito
+ * con {@link AdmissionRejectedException}, così il server resta reattivo invece di esaurire la memoria.
+ * I limiti si impostano con le proprietà di sistema:
+ * converter.admission.factor (conversioni ammesse per thread del pool, predefinito 2),
+ * converter.admission.maxWaiting (richieste in attesa per classe, predefinito 16) e
+ * converter.admission.maxWaitMillis (attesa massima, predefinita 5000).
+ */
+public class AdmissionController {
+
+    private static final int PERMITS_PER_THREAD = Math.max(1, Integer.getInteger("converter.admission.factor", 2));
+    private static final int MAX_WAITING = Math.max(0, Integer.getInteger("converter.admission.maxWaiting", 16));
+    private static final long MAX_WAIT_MILLIS = Math.max(0, Long.getLong("converter.admission.maxWaitMillis", 5000));
+    private static final int MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final ConversionMetrics metrics;
+    private final Map<ConversionScheduler.CostClass, Lane> lanes = new EnumMap<>(ConversionScheduler.CostClass.class);
+
+    /**
+     * @param scheduler Scheduler su cui dimensionare i limiti di ogni classe di costo
+     * @param metrics Metriche su cui registrare tempi di attesa e rifiuti
+     */
+    public AdmissionController(ConversionScheduler scheduler, ConversionMetrics metrics) {
+        if (scheduler == null) {
+            Log.addMessage("ERRORE WebService: scheduler nullo");
+            throw new NullPointerException("L'oggetto scheduler non esiste");
+        }
+        if (metrics == null) {
+            Log.addMessage("ERRORE WebService: metrics nullo");
+            throw new NullPointerException("L'oggetto metrics non esiste");
+        }
+        this.metrics = metrics;
+        for (ConversionScheduler.CostClass costClass : ConversionScheduler.CostClass.values()) {
+            lanes.put(costClass, new Lane(scheduler.getPoolSize(costClass) * PERMITS_PER_THREAD));
+        }
+    }
+
+    /**
+     * Ottiene un posto per una conversione della classe indicata, attendendo al massimo MAX_WAIT_MILLIS
+     * @param costClass Classe di costo della conversione
+     * @return Permesso da rilasciare quando la conversione è terminata
+     * @throws AdmissionRejectedException Se la classe è satura
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa
+     */
+    public Permit acquire(ConversionScheduler.CostClass costClass) throws InterruptedException {
+        if (costClass == null) {
+            Log.addMessage("ERRORE WebService: costClass nullo");
+            throw new NullPointerException("L'oggetto costClass non esiste");
+        }
+        Lane lane = lanes.get(costClass);
+        long start = System.nanoTime();
+
+        if (lane.semaphore.tryAcquire()) {
+            metrics.recordAdmission(costClass, 0);
+            return new Permit(lane);
+        }
+        // Coda di attesa piena: inutile far attendere anche questa richiesta
+        if (lane.waiting.incrementAndGet() > MAX_WAITING) {
+            lane.waiting.decrementAndGet();
+            throw reject(costClass, lane);
+        }
+        try {
+            if (lane.semaphore.tryAcquire(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                metrics.recordAdmission(costClass, System.nanoTime() - start);
+                return new Permit(lane);
+            }
+        } finally {
+            lane.waiting.decrementAndGet();
+        }
+        throw reject(costClass, lane);
+    }
+
+    private AdmissionRejectedException reject(ConversionScheduler.CostClass costClass, Lane lane) {
+        metrics.recordRejection(costClass);
+        int retryAfter = lane.retryAfterSeconds();
+        Log.addMessage("ERRORE WebService: conversioni " + costClass.name().toLowerCase() + " sature, richiesta rifiutata (Retry-After " + retryAfter + "s)");
+        return new AdmissionRejectedException(costClass, retryAfter);
+    }
+
+    /**
+     * @param costClass Classe di costo
+     * @return Conversioni ammesse e non ancora terminate
+     */
+    public int getInFlight(ConversionScheduler.CostClass costClass) {
+        Lane lane = lanes.get(costClass);
+        return lane.limit - lane.semaphore.availablePermits();
+    }
+
+    /**
+     * @param costClass Classe di costo
+     * @return Richieste in attesa di un posto
+     */
+    public int getWaiting(ConversionScheduler.CostClass costClass) {
+        return lanes.get(costClass).waiting.get();
+    }
+
+    /**
+     * @param costClass Classe di costo
+     * @return Numero massimo di conversioni ammesse contemporaneamente
+     */
+    public int getLimit(ConversionScheduler.CostClass costClass) {
+        return lanes.get(costClass).limit;
+    }
+
+    /**
+     * Esporta lo stato corrente in formato testo Prometheus, da aggiungere a {@link ConversionMetrics#toPrometheus}
+     * @return Testo in formato exposition 0.0.4
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("# HELP converter_admission_in_flight Conversioni ammesse e non ancora terminate per classe di costo\n");
+        sb.append("# TYPE converter_admission_in_flight gauge\n");
+        for (ConversionScheduler.CostClass costClass : ConversionScheduler.CostClass.values()) {
+            sb.append("converter_admission_in_flight{class=\"").append(costClass.name().toLowerCase()).append("\"} ")
+                    .append(getInFlight(costClass)).append('\n');
+        }
+        sb.append("# HELP converter_admission_waiting Richieste in attesa di un posto per classe di costo\n");
+        sb.append("# TYPE converter_admission_waiting gauge\n");
+        for (ConversionScheduler.CostClass costClass : ConversionScheduler.CostClass.values()) {
+            sb.append("converter_admission_waiting{class=\"").append(costClass.name().toLowerCase()).append("\"} ")
+                    .append(getWaiting(costClass)).append('\n');
+        }
+        sb.append("# HELP converter_admission_limit Conversioni ammesse contemporaneamente per classe di costo\n");
+        sb.append("# TYPE converter_admission_limit gauge\n");
+        for (ConversionScheduler.CostClass costClass : ConversionScheduler.CostClass.values()) {
+            sb.append("converter_admission_limit{class=\"").append(costClass.name().toLowerCase()).append("\"} ")
+                    .append(getLimit(costClass)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Posto ottenuto per una conversione. Il rilascio è idempotente: può essere chiamato sia alla fine
+     * della conversione sia all'annullamento senza restituire il posto due volte
+     */
+    public static final class Permit {
+        private final Lane lane;
+        private final long acquiredAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(Lane lane) {
+            this.lane = lane;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                lane.recordHold(System.nanoTime() - acquiredAt);
+                lane.semaphore.release();
+            }
+        }
+    }
+
+    /**
+     * Limite, richieste in attesa e durata media di occupazione di una classe di costo
+     */
+    private static final class Lane {
+        private final int limit;
+        private final Semaphore semaphore;
+        private final AtomicInteger waiting = new AtomicInteger();
+        // Media mobile esponenziale (peso 1/8) della durata di occupazione di un posto, in nanosecondi
+        private final AtomicLong averageHoldNanos = new AtomicLong();
+
+        private Lane(int limit) {
+            this.limit = limit;
+            this.semaphore = new Semaphore(limit, true);
+        }
+
+        private void recordHold(long nanos) {
+            averageHoldNanos.updateAndGet(avg -> avg == 0 ? nanos : avg + (nanos - avg) / 8);
+        }
+
+        /**
+         * Stima dopo quanto si libererà un posto per chi è in attesa e per una nuova richiesta
+         */
+        private int retryAfterSeconds() {
+            double seconds = averageHoldNanos.get() / 1_000_000_000.0 * (waiting.get() + 1) / limit;
+            return (int) Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, Math.ceil(seconds)));
+        }
+    }
+}
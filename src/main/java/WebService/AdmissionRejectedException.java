@@ -0,0 +1,32 @@
+package WebService;
+
+import converter.ConversionScheduler;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Richiesta rifiutata dal controllo di ammissione perché la classe di costo è satura.
+ * Il web service la traduce in una risposta 429 con l'intestazione Retry-After.
+ */
+public class AdmissionRejectedException extends RejectedExecutionException {
+
+    private final ConversionScheduler.CostClass costClass;
+    private final int retryAfterSeconds;
+
+    public AdmissionRejectedException(ConversionScheduler.CostClass costClass, int retryAfterSeconds) {
+        super("Servizio sovraccarico per le conversioni " + costClass.name().toLowerCase() + ", riprovare tra " + retryAfterSeconds + " secondi");
+        this.costClass = costClass;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public ConversionScheduler.CostClass getCostClass() {
+        return costClass;
+    }
+
+    /**
+     * @return Secondi dopo cui ha senso riprovare
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
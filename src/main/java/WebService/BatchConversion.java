@@ -0,0 +1,292 @@
+package WebService;
+
+import Converters.CancellationToken;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import converter.ConversionScheduler;
+import converter.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Conversione di un insieme di file caricati con una sola richiesta.
+ * Ogni file diventa un'attività nel pool dello scheduler condiviso relativo alla sua classe di costo;
+ * i risultati vengono scritti in un archivio zip nell'ordine in cui le conversioni terminano,
+ * seguiti da un manifest (manifest.json) con l'esito di ogni file.
+ * Il batch occupa un solo posto del controllo di ammissione per ogni classe di costo dei suoi file,
+ * rilasciato da {@link #close()}: i file attendono il proprio turno nella coda dello scheduler a priorità bassa,
+ * così un batch grande non rallenta le conversioni singole. Al massimo WINDOW file per batch (proprietà di sistema
+ * converter.batch.window, predefinita 32) sono accodati o in esecuzione: gli altri vengono accodati man mano
+ * che i precedenti terminano, come nell'elaborazione dell'arretrato.
+ */
+public class BatchConversion implements AutoCloseable {
+
+    static final String MANIFEST_NAME = "manifest.json";
+    // Numero massimo di file del batch accodati nello scheduler o in esecuzione
+    private static final int WINDOW = Integer.getInteger("converter.batch.window", 32);
+
+    private final EngineWebService engine;
+    private final Path workDir;
+    private final List<Item> items = new ArrayList<>();
+    private final BlockingQueue<Item> completed = new LinkedBlockingQueue<>();
+    private final List<AdmissionController.Permit> permits = new ArrayList<>();
+    // File in attesa di un posto nella finestra, protetti dal lock del batch
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight = 0;
+    private boolean cancelled = false;
+
+    /**
+     * @param engine Engine del web service usato per eseguire le conversioni
+     * @param workDir Directory temporanea del batch, eliminata da {@link #close()}
+     */
+    public BatchConversion(EngineWebService engine, Path workDir) {
+        if (engine == null) {
+            Log.addMessage("ERRORE WebService: engine nullo");
+            throw new NullPointerException("L'oggetto engine non esiste");
+        }
+        if (workDir == null) {
+            Log.addMessage("ERRORE WebService: workDir nullo");
+            throw new NullPointerException("L'oggetto workDir non esiste");
+        }
+        this.engine = engine;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Crea la directory di lavoro di un file del batch: ogni file ha la propria, così nomi uguali non collidono
+     * @return Directory in cui salvare il file caricato
+     */
+    public Path newItemDir() throws IOException {
+        return Files.createDirectory(workDir.resolve(String.valueOf(items.size())));
+    }
+
+    /**
+     * Associa al batch un posto del controllo di ammissione, rilasciato da {@link #close()}
+     * @param permit Posto ottenuto per una classe di costo dei file del batch
+     */
+    public void addPermit(AdmissionController.Permit permit) {
+        if (permit == null) {
+            Log.addMessage("ERRORE WebService: permit nullo");
+            throw new NullPointerException("L'oggetto permit non esiste");
+        }
+        permits.add(permit);
+    }
+
+    /**
+     * Accoda la conversione di un file, oppure la mette in attesa se la finestra del batch è piena
+     * @param srcFile File caricato, nella directory ottenuta da {@link #newItemDir()}
+     * @param srcExt Estensione file iniziale
+     * @param targetFormat Estensione file finale
+     * @param password Password per file criptati, null se assente
+     * @param mergeImages Flag che indica l'unione delle immagini estratte dal PDF
+     */
+    public void submit(File srcFile, String srcExt, String targetFormat, String password, boolean mergeImages) {
+        Item item = new Item(items.size(), srcFile.getName(), targetFormat);
+        items.add(item);
+        Callable<File> conversion = engine.conversionTask(srcExt, targetFormat, srcFile, password, mergeImages, srcFile.getParentFile(), item.token);
+        Runnable launch = () -> launch(item, srcExt, targetFormat, conversion);
+        synchronized (this) {
+            if (inFlight >= WINDOW) {
+                waiting.addLast(launch);
+                return;
+            }
+            inFlight++;
+        }
+        launch.run();
+    }
+
+    /**
+     * Accoda la conversione nello scheduler; se lo scheduler la rifiuta il file risulta fallito
+     */
+    private void launch(Item item, String srcExt, String targetFormat, Callable<File> conversion) {
+        try {
+            item.future = engine.submitConversion(srcExt, targetFormat, ConversionScheduler.Priority.LOW,
+                    () -> item.run(conversion, this::finished));
+        } catch (RuntimeException e) {
+            item.error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            Log.addMessage("ERRORE WebService: conversione batch non accodata per " + item.sourceName + ": " + item.error);
+            finished(item);
+        }
+    }
+
+    /**
+     * Registra la fine di una conversione e accoda il prossimo file in attesa, se c'è
+     */
+    private void finished(Item item) {
+        completed.add(item);
+        Runnable next;
+        synchronized (this) {
+            next = cancelled ? null : waiting.pollFirst();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        next.run();
+    }
+
+    /**
+     * Registra un file rifiutato prima della conversione (es. nome o formato mancante)
+     * @param sourceName Nome del file caricato
+     * @param targetFormat Estensione file finale richiesta
+     * @param error Motivo del rifiuto
+     */
+    public void reject(String sourceName, String targetFormat, String error) {
+        Item item = new Item(items.size(), sourceName, targetFormat);
+        items.add(item);
+        item.error = error;
+        completed.add(item);
+    }
+
+    /**
+     * Scrive l'archivio: una voce per ogni conversione riuscita, nell'ordine di completamento,
+     * e infine il manifest con l'esito di tutti i file. I file convertiti vengono eliminati appena scritti
+     * @param out Stream di destinazione (la risposta HTTP)
+     * @throws IOException Errore di scrittura, ad esempio il client ha chiuso la connessione
+     * @throws InterruptedException Se il thread viene interrotto in attesa di una conversione
+     */
+    public void writeZip(OutputStream out) throws IOException, InterruptedException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        // La maggior parte dei formati prodotti (immagini, pdf, docx, xlsx) è già compressa
+        zip.setLevel(Deflater.BEST_SPEED);
+        Set<String> entryNames = new HashSet<>();
+        for (int written = 0; written < items.size(); written++) {
+            Item item = completed.take();
+            if (item.result == null) {
+                continue;
+            }
+            String entryName = item.result.getName();
+            if (!entryNames.add(entryName)) {
+                entryName = item.index + "_" + entryName;
+                entryNames.add(entryName);
+            }
+            item.entryName = entryName;
+            zip.putNextEntry(new ZipEntry(entryName));
+            Files.copy(item.result.toPath(), zip);
+            zip.closeEntry();
+            zip.flush();
+            Files.deleteIfExists(item.result.toPath());
+        }
+
+        zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+        zip.write(manifest().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * @return Manifest in JSON: per ogni file, nell'ordine di caricamento, esito, voce dell'archivio ed errore
+     */
+    private String manifest() {
+        List<Map<String, Object>> files = new ArrayList<>(items.size());
+        int succeeded = 0;
+        for (Item item : items) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("source", item.sourceName);
+            entry.put("targetFormat", item.targetFormat);
+            entry.put("success", item.entryName != null);
+            if (item.entryName != null) {
+                entry.put("entry", item.entryName);
+                succeeded++;
+            }
+            if (item.error != null) {
+                entry.put("error", item.error);
+            }
+            entry.put("durationMillis", item.durationMillis);
+            files.add(entry);
+        }
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("total", items.size());
+        manifest.put("succeeded", succeeded);
+        manifest.put("failed", items.size() - succeeded);
+        manifest.put("files", files);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(manifest);
+    }
+
+    /**
+     * Annulla le conversioni non ancora terminate, ad esempio quando il client chiude la connessione
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            waiting.clear();
+        }
+        for (Item item : items) {
+            item.token.cancel();
+            if (item.future != null) {
+                item.future.cancel(true);
+            }
+        }
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Annulla le conversioni rimaste, rilascia i posti del batch ed elimina la directory di lavoro
+     */
+    @Override
+    public void close() {
+        cancel();
+        for (AdmissionController.Permit permit : permits) {
+            permit.release();
+        }
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            Log.addMessage("ERRORE WebService: eliminazione directory del batch fallita - " + workDir);
+        }
+    }
+
+    /**
+     * Un file del batch
+     */
+    private static final class Item {
+        private final int index;
+        private final String sourceName;
+        private final String targetFormat;
+        private final CancellationToken token = new CancellationToken();
+        private volatile Future<?> future;
+        private volatile File result;
+        private volatile String error;
+        private volatile String entryName;
+        private volatile long durationMillis;
+
+        private Item(int index, String sourceName, String targetFormat) {
+            this.index = index;
+            this.sourceName = sourceName;
+            this.targetFormat = targetFormat;
+        }
+
+        /**
+         * Esegue la conversione e segnala il completamento, anche in caso di errore
+         */
+        private void run(Callable<File> conversion, Consumer<Item> finished) {
+            long start = System.nanoTime();
+            try {
+                result = conversion.call();
+            } catch (Exception e) {
+                error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                Log.addMessage("ERRORE WebService: conversione batch fallita per " + sourceName + ": " + error);
+            } finally {
+                durationMillis = (System.nanoTime() - start) / 1_000_000;
+                finished.accept(this);
+            }
+        }
+    }
+}
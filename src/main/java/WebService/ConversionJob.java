@@ -0,0 +1,345 @@
+package WebService;
+
+import Converters.CancellationToken;
+import Converters.ProgressListener;
+import converter.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversione richiesta tramite web service ed eseguita in background.
+ * Tiene lo stato, l'avanzamento riportato dal converter, il file prodotto (o l'errore) e la directory di lavoro,
+ * che viene eliminata quando il job scade o viene annullato.
+ * Chi osserva il job (es. uno stream di eventi) viene avvisato a ogni cambio di stato e, al massimo
+ * ogni PROGRESS_INTERVAL_MILLIS, quando l'avanzamento cambia.
+ */
+public class ConversionJob {
+
+    // Intervallo minimo tra due avvisi di avanzamento, per non inondare gli osservatori con una notifica per riga
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+
+    /**
+     * Stato di un job
+     */
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED;
+
+        public boolean isTerminal() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String sourceName;
+    private final String targetFormat;
+    private final Path workDir;
+    private final long submittedAt = System.currentTimeMillis();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final CancellationToken cancellationToken = new CancellationToken();
+
+    private volatile State state = State.QUEUED;
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
+    private volatile File result = null;
+    private volatile String error = null;
+    private volatile Future<?> future = null;
+    private volatile AdmissionController.Permit permit = null;
+    private volatile long progressDone = 0;
+    private volatile long progressTotal = -1;
+    private volatile String progressUnit = null;
+    private volatile long lastProgressNotice = 0;
+    // Il thread dello scheduler è dentro run(): i file non possono essere eliminati finché non esce
+    private boolean working = false;
+    private boolean discarded = false;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    ConversionJob(String id, String sourceName, String targetFormat, Path workDir) {
+        this.id = id;
+        this.sourceName = sourceName;
+        this.targetFormat = targetFormat;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Esegue la conversione nel thread dello scheduler aggiornando lo stato del job
+     * @param conversion Attività che ritorna il file convertito
+     */
+    void run(Callable<File> conversion) {
+        synchronized (this) {
+            if (state != State.QUEUED) {
+                return;
+            }
+            state = State.RUNNING;
+            startedAt = System.currentTimeMillis();
+            working = true;
+        }
+        notifyListeners();
+        try {
+            File output = conversion.call();
+            if (output == null || !output.exists()) {
+                throw new Exception("Il file convertito non è stato generato correttamente");
+            }
+            finish(State.COMPLETED, output, null);
+        } catch (Exception e) {
+            if (cancellationToken.isCancelled() || e instanceof CancellationException || e instanceof InterruptedException) {
+                finish(State.CANCELLED, null, "Conversione annullata");
+            } else {
+                Log.addMessage("ERRORE WebService: job " + id + " fallito: " + e.getMessage());
+                finish(State.FAILED, null, e.getMessage());
+            }
+        } finally {
+            boolean delete;
+            synchronized (this) {
+                working = false;
+                delete = discarded;
+            }
+            // Job scartato mentre la conversione scriveva ancora nella directory di lavoro
+            if (delete) {
+                deleteFiles();
+            }
+        }
+    }
+
+    /**
+     * Annulla il job: se è in coda non verrà eseguito, se è in esecuzione il thread viene interrotto
+     * @return false se il job era già terminato
+     */
+    boolean cancel() {
+        synchronized (this) {
+            if (state.isTerminal()) {
+                return false;
+            }
+        }
+        cancellationToken.cancel();
+        Future<?> f = future;
+        if (f != null) {
+            f.cancel(true);
+        }
+        finish(State.CANCELLED, null, "Conversione annullata");
+        return true;
+    }
+
+    private void finish(State finalState, File output, String message) {
+        synchronized (this) {
+            if (state.isTerminal()) {
+                // Annullato mentre la conversione terminava: il file prodotto non serve più
+                if (output != null) {
+                    output.delete();
+                }
+                return;
+            }
+            result = output;
+            error = message;
+            finishedAt = System.currentTimeMillis();
+            state = finalState;
+        }
+        AdmissionController.Permit p = permit;
+        if (p != null) {
+            p.release();
+        }
+        done.countDown();
+        notifyListeners();
+    }
+
+    /**
+     * Aggiorna l'avanzamento; chiamato nel thread della conversione
+     */
+    private void updateProgress(long completed, long total, String unit) {
+        progressDone = completed;
+        progressTotal = total;
+        progressUnit = unit;
+        long now = System.currentTimeMillis();
+        if (now - lastProgressNotice >= PROGRESS_INTERVAL_MILLIS || (total > 0 && completed >= total)) {
+            lastProgressNotice = now;
+            notifyListeners();
+        }
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                Log.addMessage("ERRORE WebService: notifica dell'avanzamento del job " + id + " fallita: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registra un osservatore del job. Viene chiamato nel thread che ha cambiato stato o avanzamento,
+     * quindi non deve bloccare (es. deve passare l'invio di rete a un altro thread)
+     * @param listener Osservatore da avvisare
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Attende la fine del job
+     * @param timeout Tempo massimo di attesa
+     * @param unit Unità di misura del timeout
+     * @return true se il job è terminato entro il timeout
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Attende la fine del job senza limite di tempo
+     */
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * Scarta il job eliminandone i file. Se il thread della conversione è ancora attivo (es. annullato mentre
+     * un converter non interrompibile scrive nella directory di lavoro) l'eliminazione avviene quando termina
+     */
+    void discard() {
+        synchronized (this) {
+            discarded = true;
+            if (working) {
+                Log.addMessage("WebService: File del job " + id + " eliminati al termine della conversione");
+                return;
+            }
+        }
+        deleteFiles();
+    }
+
+    /**
+     * Elimina la directory di lavoro (file caricato e file prodotti) e il file convertito
+     */
+    private void deleteFiles() {
+        File output = result;
+        try {
+            if (output != null) {
+                Files.deleteIfExists(output.toPath());
+            }
+            if (workDir != null && Files.exists(workDir)) {
+                Files.walkFileTree(workDir, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        Files.delete(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                        Files.delete(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            Log.addMessage("WebService: File del job " + id + " eliminati");
+        } catch (IOException e) {
+            Log.addMessage("ERRORE WebService: Errore durante la pulizia del job " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Destinatario dell'avanzamento da passare alla conversione
+     */
+    ProgressListener getProgressListener() {
+        return this::updateProgress;
+    }
+
+    /**
+     * @return Segnale di annullamento da passare alla conversione
+     */
+    CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * @param permit Posto del controllo di ammissione, rilasciato quando il job termina
+     */
+    void setPermit(AdmissionController.Permit permit) {
+        this.permit = permit;
+    }
+
+    /**
+     * @return Avanzamento stimato tra 0 e 100 (99 al massimo finché il job non è completato)
+     */
+    public int getProgress() {
+        if (state == State.COMPLETED) {
+            return 100;
+        }
+        long total = progressTotal;
+        if (total <= 0) {
+            return 0;
+        }
+        return (int) Math.min(99, progressDone * 100 / total);
+    }
+
+    /**
+     * @return Descrizione dell'avanzamento (es. "3/12 pagine"), null se il converter non lo riporta
+     */
+    public String getProgressDetail() {
+        String unit = progressUnit;
+        if (unit == null) {
+            return null;
+        }
+        long total = progressTotal;
+        return total > 0 ? progressDone + "/" + total + " " + unit : progressDone + " " + unit;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    public String getTargetFormat() {
+        return targetFormat;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * @return File convertito, null se il job non è completato
+     */
+    public File getResult() {
+        return result;
+    }
+
+    /**
+     * @return Messaggio di errore, null se il job non è fallito
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,165 @@
+package WebService;
+
+import converter.ConversionScheduler;
+import converter.Log;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Gestione dei job di conversione del web service.
+ * Le conversioni vengono eseguite nei pool limitati dello scheduler condiviso, mai nei thread delle richieste HTTP.
+ * I job terminati restano disponibili per il download fino alla scadenza (proprietà di sistema
+ * converter.jobs.ttl, in secondi, predefinita 900), poi vengono eliminati insieme ai loro file.
+ */
+public class ConversionJobManager {
+
+    // Numero massimo di job non ancora terminati: oltre questo limite le nuove richieste vengono rifiutate
+    private static final int MAX_PENDING_JOBS = 256;
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("converter.jobs.ttl", 900));
+    private static final long CLEANUP_INTERVAL_SECONDS = 60;
+
+    private final EngineWebService engine;
+    private final Map<String, ConversionJob> jobs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService cleaner;
+
+    /**
+     * @param engine Engine del web service usato per eseguire le conversioni
+     */
+    public ConversionJobManager(EngineWebService engine) {
+        if (engine == null) {
+            Log.addMessage("ERRORE WebService: engine nullo");
+            throw new NullPointerException("L'oggetto engine non esiste");
+        }
+        this.engine = engine;
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "conversion-jobs-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        cleaner.scheduleWithFixedDelay(this::removeExpired, CLEANUP_INTERVAL_SECONDS, CLEANUP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Crea un job e lo accoda nello scheduler
+     * @param srcFile File caricato, all'interno di workDir
+     * @param srcExt Estensione file iniziale
+     * @param targetFormat Estensione file finale
+     * @param password Password per file criptati, null se assente
+     * @param mergeImages Flag che indica l'unione delle immagini estratte dal PDF
+     * @param workDir Directory di lavoro del job, eliminata alla scadenza
+     * @return Job creato
+     * @throws RejectedExecutionException Se ci sono già troppi job in attesa o in esecuzione
+     */
+    public ConversionJob submit(File srcFile, String srcExt, String targetFormat, String password, boolean mergeImages, Path workDir) {
+        return submit(srcFile, srcExt, targetFormat, password, mergeImages, workDir, null);
+    }
+
+    /**
+     * Come {@link #submit(File, String, String, String, boolean, Path)} per una conversione già ammessa
+     * @param permit Posto del controllo di ammissione, rilasciato quando il job termina (null se assente).
+     *               Se il job non viene creato il posto resta al chiamante
+     */
+    public ConversionJob submit(File srcFile, String srcExt, String targetFormat, String password, boolean mergeImages, Path workDir,
+                                AdmissionController.Permit permit) {
+        if (srcFile == null) {
+            Log.addMessage("ERRORE WebService: srcFile nullo");
+            throw new NullPointerException("L'oggetto srcFile non esiste");
+        }
+        if (targetFormat == null) {
+            Log.addMessage("ERRORE WebService: targetFormat nullo");
+            throw new NullPointerException("L'oggetto targetFormat non esiste");
+        }
+
+        if (countPending() >= MAX_PENDING_JOBS) {
+            Log.addMessage("ERRORE WebService: troppi job in corso, richiesta rifiutata");
+            throw new RejectedExecutionException("Troppi job di conversione in corso");
+        }
+
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString(), srcFile.getName(), targetFormat, workDir);
+        Callable<File> conversion = engine.conversionTask(srcExt, targetFormat, srcFile, password, mergeImages, workDir.toFile(),
+                job.getCancellationToken(), job.getProgressListener());
+        job.setPermit(permit);
+        jobs.put(job.getId(), job);
+        try {
+            job.setFuture(engine.submitConversion(srcExt, targetFormat, ConversionScheduler.Priority.NORMAL, () -> job.run(conversion)));
+        } catch (RuntimeException e) {
+            // Job mai partito: non deve restare QUEUED nella mappa e il posto torna al chiamante
+            jobs.remove(job.getId());
+            job.setPermit(null);
+            throw e;
+        }
+        Log.addMessage("WebService: Job " + job.getId() + " accodato: " + srcFile.getName() + " -> " + targetFormat);
+        return job;
+    }
+
+    /**
+     * @param id Identificativo del job
+     * @return Job, null se non esiste o è scaduto
+     */
+    public ConversionJob get(String id) {
+        return id == null ? null : jobs.get(id);
+    }
+
+    /**
+     * Annulla un job e ne elimina i file (al termine del thread della conversione, se è ancora in esecuzione)
+     * @param id Identificativo del job
+     * @return Job annullato, null se non esiste
+     */
+    public ConversionJob cancel(String id) {
+        ConversionJob job = get(id);
+        if (job == null) {
+            return null;
+        }
+        if (job.cancel()) {
+            Log.addMessage("WebService: Job " + id + " annullato");
+        }
+        remove(id);
+        return job;
+    }
+
+    /**
+     * Rimuove un job e ne elimina i file, subito o quando il thread della conversione termina
+     * @param id Identificativo del job
+     */
+    public void remove(String id) {
+        ConversionJob job = jobs.remove(id);
+        if (job != null) {
+            job.discard();
+        }
+    }
+
+    private int countPending() {
+        int pending = 0;
+        for (ConversionJob job : jobs.values()) {
+            if (!job.getState().isTerminal()) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Elimina i job terminati da più di TTL_MILLIS
+     */
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+        for (ConversionJob job : jobs.values()) {
+            if (job.getState().isTerminal() && now - job.getFinishedAt() > TTL_MILLIS) {
+                expired.add(job.getId());
+            }
+        }
+        for (String id : expired) {
+            remove(id);
+        }
+        if (!expired.isEmpty()) {
+            Log.addMessage("WebService: " + expired.size() + " job scaduti eliminati");
+        }
+    }
+}
@@ -1,57 +1,53 @@
 package WebService;
 
-import Converters.Converter;
+import Converters.CancellationToken;
+import Converters.ConversionContext;
+import Converters.ConversionOptions;
+import Converters.OutputSink;
+import Converters.ProgressListener;
+import converter.ConfigStore;
+import converter.ConversionCache;
+import converter.ConversionPlanner;
+import converter.ConversionScheduler;
 import converter.ConverterConfig;
+import converter.Engine;
 import converter.Log;
-import com.google.gson.Gson;
+import converter.ZipOutputSink;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Engine per il WebService - versione modificata dell'Engine locale
  * Gestisce le conversioni senza spostare automaticamente i file
  */
 public class EngineWebService {
-    private ConverterConfig config;
-    private static final String CONFIG_FILE_PATH = "src/main/java/converter/config/config.json";
 
     /**
-     * Costruttore: carica il file config.json
+     * Costruttore: carica il file config.json se non è ancora stato caricato.
+     * La configurazione è la stessa dell'Engine locale: le modifiche fatte dalla GUI sono subito visibili
      */
     public EngineWebService() {
-        setConfig();
+        ConfigStore.get();
     }
 
     /**
-     * Carica il file config.json
+     * Ricarica il file config.json
      */
     public void setConfig() {
-        try (FileReader reader = new FileReader(CONFIG_FILE_PATH)) {
-            Gson gson = new Gson();
-            config = gson.fromJson(reader, ConverterConfig.class);
-            if (config == null) {
-                Log.addMessage("ERRORE WebService: l'oggetto config non esiste");
-                throw new NullPointerException("L'oggetto config non esiste");
-            }
-            Log.addMessage("WebService: Configurazione caricata correttamente da config.json");
-        } catch (Exception e) {
-            Log.addMessage("ERRORE WebService: Lettura del file di configurazione fallita");
-            throw new RuntimeException("Errore nella lettura del file di configurazione", e);
-        }
+        ConfigStore.reload();
     }
 
     /**
      * Ritorna la stringa che rappresenta il contenuto del json
      */
     public String getConfigAsJson() throws Exception {
-        try {
-            Log.addMessage("WebService: Lettura del contenuto di config.json eseguita con successo");
-            return new String(Files.readAllBytes(Paths.get(CONFIG_FILE_PATH)));
-        } catch (IOException e) {
-            Log.addMessage("ERRORE WebService: Lettura del file di configurazione non riuscita");
-            throw new Exception("Errore nella lettura del file di configurazione: " + e.getMessage(), e);
-        }
+        return ConfigStore.get().getJson();
     }
 
     /**
@@ -63,369 +59,368 @@ public class EngineWebService {
             throw new NullPointerException("L'oggetto extension non esiste");
         }
 
-        if (config == null || config.getConversions() == null || !config.getConversions().containsKey(extension)) {
+        // Oltre alle coppie dirette di config.json vengono elencati i formati raggiungibili tramite catene
+        ConversionPlanner current = ConfigStore.get().getPlanner();
+        if (!current.getRegistry().supports(extension)) {
             Log.addMessage("ERRORE WebService: Configurazione mancante o conversione non supportata per: " + extension);
             throw new Exception("Config assente o conversione non supportata");
         }
 
         Log.addMessage("WebService: Formati disponibili per la conversione da " + extension + " ottenuti con successo");
-        return new ArrayList<>(config.getConversions().get(extension).keySet());
+        return current.getReachableTargets(extension);
     }
 
     /**
      * Conversione base per WebService - restituisce il file convertito senza spostarlo
      */
     public File conversione(String srcExt, String outExt, File srcFile, File outputDirectory) throws Exception {
-        return executeConversionWebService(srcExt, outExt, srcFile, null, null, outputDirectory);
+        return schedule(srcExt, outExt, () -> executeConversionWebService(srcExt, outExt, srcFile, null, null, outputDirectory, new CancellationToken(), ProgressListener.NONE));
     }
 
     /**
      * Conversione PDF protetto per WebService
      */
     public File conversione(String srcExt, String outExt, File srcFile, String password, File outputDirectory) throws Exception {
-        return executeConversionWebService(srcExt, outExt, srcFile, password, null, outputDirectory);
+        return schedule(srcExt, outExt, () -> executeConversionWebService(srcExt, outExt, srcFile, password, null, outputDirectory, new CancellationToken(), ProgressListener.NONE));
     }
 
     /**
      * Conversione PDF -> JPG unendo le pagine per WebService
      */
     public File conversione(String srcExt, String outExt, File srcFile, boolean union, File outputDirectory) throws Exception {
-        return executeConversionWebService(srcExt, outExt, srcFile, null, union, outputDirectory);
+        return schedule(srcExt, outExt, () -> executeConversionWebService(srcExt, outExt, srcFile, null, union, outputDirectory, new CancellationToken(), ProgressListener.NONE));
     }
 
     /**
      * Conversione PDF -> JPG unendo le pagine per WebService
      */
     public File conversione(String srcExt, String outExt, File srcFile, String extraParam) throws Exception {
-        return executeConversionWebService(srcExt, outExt, srcFile, extraParam, null);
+        return schedule(srcExt, outExt, () -> executeConversionWebService(srcExt, outExt, srcFile, extraParam, null, new CancellationToken(), ProgressListener.NONE));
     }
 
     /**
      * Conversione PDF protetto -> JPG unendo le pagine per WebService
      */
     public File conversione(String srcExt, String outExt, File srcFile, String password, boolean union, File outputDirectory) throws Exception {
-        return executeConversionWebService(srcExt, outExt, srcFile, password, union, outputDirectory);
+        return schedule(srcExt, outExt, () -> executeConversionWebService(srcExt, outExt, srcFile, password, union, outputDirectory, new CancellationToken(), ProgressListener.NONE));
     }
 
     /**
-     * Esecuzione conversione per WebService - NON sposta i file automaticamente
+     * Prepara la conversione scegliendo la variante in base ai parametri ricevuti dal client,
+     * senza eseguirla: l'attività va accodata con {@link #submitConversion}
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @param srcFile File iniziale
+     * @param password Password per file criptati, null o vuota se assente
+     * @param mergeImages Flag che indica l'unione delle immagini estratte dal PDF (solo verso jpg)
+     * @param outputDirectory Directory in cui salvare il file convertito
+     * @param token Segnale di annullamento della conversione
+     * @return Attività che esegue la conversione e ritorna il file convertito
      */
-    // SOSTITUISCI IL METODO executeConversionWebService con questa versione corretta:
-
-    private File executeConversionWebService(String srcExt, String outExt, File srcFile, String password, Boolean union, File outputDirectory) throws Exception {
-        String converterClassName = checkParameters(srcExt, outExt, srcFile);
-
-        Class<?> clazz = Class.forName(converterClassName);
-        Converter converter = (Converter) clazz.getDeclaredConstructor().newInstance();
-
-        // Crea directory temporanea per questa conversione specifica
-        Path conversionTempDir = Files.createTempDirectory("webservice_conversion_");
-        Log.addMessage("WebService: Creata directory temporanea: " + conversionTempDir);
-
-        try {
-            // Copia il file nella directory temporanea
-            Path tempPath = conversionTempDir.resolve(srcFile.getName());
-            Files.copy(srcFile.toPath(), tempPath, StandardCopyOption.REPLACE_EXISTING);
-            Log.addMessage("WebService: Copia del file nella cartella temporanea: " + tempPath);
-            File tempFile = tempPath.toFile();
-
-            // Rinomina il file con suffisso per evitare conflitti
-            File renamedFile = giveBackNewFileWithNewName(tempFile.getPath(), "-$$" + outExt + "$$-");
-            rinominaFile(tempFile, renamedFile);
-            tempFile = renamedFile;
-
-            // SALVA IL NOME DEL FILE TEMPORANEO PER USO NELLA LAMBDA (FINAL)
-            final String tempFileName = tempFile.getName();
-
-            Log.addMessage("WebService: Avvio conversione con: " + converterClassName);
-            System.out.println("WebService: File input: " + tempFile.getAbsolutePath());
-            System.out.println("WebService: Directory temp: " + conversionTempDir.toAbsolutePath());
-
-            List<File> outFiles;
-
-            // Soluzione: Salva i percorsi originali e li ripristina dopo
-            String originalSuccessDir = config.getSuccessOutputDir();
-            String originalErrorDir = config.getErrorOutputDir();
-
-            try {
-                // Crea una sottodirectory per i file convertiti
-                Path tempOutputDir = conversionTempDir.resolve("output");
-                Files.createDirectories(tempOutputDir);
-
-                System.setProperty("webservice.temp.output", tempOutputDir.toString());
-
-                // Chiama il converter con i parametri appropriati
-                if (password != null && union != null) {
-                    System.out.println("WebService: Conversione con password e union");
-                    outFiles = converter.convert(tempFile, password, union);
-                } else if (password != null) {
-                    System.out.println("WebService: Conversione con password");
-                    outFiles = converter.convert(tempFile, password);
-                } else if (union != null) {
-                    System.out.println("WebService: Conversione con union");
-                    outFiles = converter.convert(tempFile, union);
-                } else {
-                    System.out.println("WebService: Conversione base");
-                    outFiles = converter.convert(tempFile);
-                }
-
-                System.out.println("WebService: File di output dal converter: " + outFiles);
-
-                // Se il converter non ha prodotto file, proviamo a cercarli nella directory di successo dell'engine
-                if (outFiles == null || outFiles.isEmpty()) {
-                    Log.addMessage("WebService: Il converter non ha restituito file, cerco nella directory di successo...");
-
-                    // Cerca i file nella directory di successo dell'engine
-                    File successDir = new File(originalSuccessDir);
-                    if (successDir.exists() && successDir.isDirectory()) {
-                        File[] potentialFiles = successDir.listFiles((dir, name) ->
-                                name.toLowerCase().endsWith("." + outExt.toLowerCase())
-                        );
-
-                        if (potentialFiles != null && potentialFiles.length > 0) {
-                            // Ordina per data di modifica (più recente prima)
-                            Arrays.sort(potentialFiles, (a, b) ->
-                                    Long.compare(b.lastModified(), a.lastModified())
-                            );
-
-                            outFiles = Arrays.asList(potentialFiles);
-                            Log.addMessage("WebService: Trovati " + outFiles.size() + " file nella directory di successo");
-                        }
-                    }
-
-                    // Se ancora non troviamo file, cerca nella directory temporanea
-                    if (outFiles == null || outFiles.isEmpty()) {
-                        Log.addMessage("WebService: Cerco file nella directory temporanea...");
-
-                        // USA LA VARIABILE FINAL tempFileName INVECE DI tempFile.getName()
-                        File[] tempFiles = conversionTempDir.toFile().listFiles((dir, name) ->
-                                name.toLowerCase().endsWith("." + outExt.toLowerCase()) &&
-                                        !name.equals(tempFileName)  // ← CORRETTO: usa tempFileName (final)
-                        );
-
-                        if (tempFiles != null && tempFiles.length > 0) {
-                            outFiles = Arrays.asList(tempFiles);
-                            Log.addMessage("WebService: Trovati " + outFiles.size() + " file nella directory temporanea");
-                        }
-                    }
-                }
-
-            } finally {
-                // Ripristina le directory originali (se fossero state modificate)
-                System.clearProperty("webservice.temp.output");
-            }
-
-            // Elimina il file temporaneo di input
-            Files.deleteIfExists(tempFile.toPath());
-            Log.addMessage("WebService: File temporaneo di input eliminato: " + tempFile.getPath());
+    public Callable<File> conversionTask(String srcExt, String outExt, File srcFile, String password, boolean mergeImages, File outputDirectory, CancellationToken token) {
+        return conversionTask(srcExt, outExt, srcFile, password, mergeImages, outputDirectory, token, ProgressListener.NONE);
+    }
 
-            // Verifica che abbiamo almeno un file di output
-            if (outFiles == null || outFiles.isEmpty()) {
-                throw new Exception("Il converter non ha prodotto file di output validi");
+    /**
+     * Come {@link #conversionTask(String, String, File, String, boolean, File, CancellationToken)}
+     * @param progress Destinatario dell'avanzamento riportato dai converter
+     */
+    public Callable<File> conversionTask(String srcExt, String outExt, File srcFile, String password, boolean mergeImages, File outputDirectory,
+                                         CancellationToken token, ProgressListener progress) {
+        boolean hasPassword = password != null && !password.trim().isEmpty();
+        boolean union = mergeImages && "jpg".equals(outExt);
+        if (hasPassword) {
+            if (union) {
+                return () -> executeConversionWebService(srcExt, outExt, srcFile, password, true, outputDirectory, token, progress);
             }
+            return () -> executeConversionWebService(srcExt, outExt, srcFile, password, null, outputDirectory, token, progress);
+        }
+        if (union) {
+            return () -> executeConversionWebService(srcExt, outExt, srcFile, null, true, outputDirectory, token, progress);
+        }
+        if (ConfigStore.get().isImageFormat(srcExt)) {
+            return () -> executeConversionWebService(srcExt, outExt, srcFile, outExt, null, token, progress);
+        }
+        return () -> executeConversionWebService(srcExt, outExt, srcFile, null, null, outputDirectory, token, progress);
+    }
 
-            // Prende il primo file convertito (o l'unico nel caso di merge)
-            File convertedFile = outFiles.get(0);
-            Log.addMessage("WebService: File convertito trovato: " + convertedFile.getAbsolutePath());
+    /**
+     * Accoda un'attività nel pool dello scheduler condiviso relativo alla classe di costo della conversione
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @param priority Priorità dell'attività
+     * @param task Attività da eseguire
+     * @return Future dell'attività
+     */
+    public <T> Future<T> submitConversion(String srcExt, String outExt, ConversionScheduler.Priority priority, Callable<T> task) {
+        return Engine.getScheduler().submit(getCostClass(srcExt, outExt), priority, task);
+    }
 
-            // Rimuove il suffisso dal nome se presente
-            String cleanName = convertedFile.getName().replaceAll("-\\$\\$.*?\\$\\$-", "");
-            File finalOutputFile = new File(outputDirectory, cleanName);
+    /**
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @return Classe di costo della conversione (LIGHT se la conversione non è prevista dalla configurazione)
+     */
+    public ConversionScheduler.CostClass getCostClass(String srcExt, String outExt) {
+        ConversionPlanner.Plan plan = ConfigStore.get().getPlanner().plan(srcExt, outExt);
+        return plan == null ? ConversionScheduler.CostClass.LIGHT : plan.getCostClass();
+    }
 
-            // Sposta il file convertito nella directory di output specificata
-            Files.move(convertedFile.toPath(), finalOutputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            Log.addMessage("WebService: File convertito spostato in: " + finalOutputFile.getAbsolutePath());
+    /**
+     * Come {@link #submitConversion(String, String, ConversionScheduler.Priority, Callable)} per attività senza risultato
+     */
+    public Future<?> submitConversion(String srcExt, String outExt, ConversionScheduler.Priority priority, Runnable task) {
+        return submitConversion(srcExt, outExt, priority, Executors.callable(task));
+    }
 
-            // Pulizia: elimina eventuali altri file di output
-            for (int i = 1; i < outFiles.size(); i++) {
-                try {
-                    Files.deleteIfExists(outFiles.get(i).toPath());
-                } catch (Exception e) {
-                    Log.addMessage("WebService: Errore eliminazione file extra: " + e.getMessage());
-                }
+    /**
+     * Esegue la conversione nel pool dello scheduler condiviso relativo alla sua classe di costo
+     * e attende il risultato, cosi' il numero di conversioni contemporanee resta limitato
+     */
+    private File schedule(String srcExt, String outExt, Callable<File> conversion) throws Exception {
+        Future<File> future = submitConversion(srcExt, outExt, ConversionScheduler.Priority.NORMAL, conversion);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new Exception("Conversione interrotta", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
             }
+            throw new Exception(cause);
+        }
+    }
+
+    /**
+     * Esecuzione conversione per WebService - NON sposta i file automaticamente.
+     * Ogni invocazione ha il proprio contesto (cartella di lavoro, cartella di output, opzioni e annullamento)
+     * e non usa stato globale della JVM, quindi più conversioni possono essere eseguite in parallelo
+     */
+    private File executeConversionWebService(String srcExt, String outExt, File srcFile, String password, Boolean union, File outputDirectory,
+                                             CancellationToken token, ProgressListener progress) throws Exception {
+        ConversionPlanner.Plan plan = checkParameters(srcExt, outExt, srcFile);
+        String baseName = srcFile.getName().replaceFirst("\\.[^\\.]+$", "");
+        String cacheKey = ConversionCache.key(srcFile, plan.getSignature(), password, union);
+        File cachedFile = restoreFromCache(cacheKey, baseName, outExt, outputDirectory);
+        if (cachedFile != null) {
+            return cachedFile;
+        }
+        // Richieste identiche contemporanee (anche dall'Engine locale) attendono la stessa conversione
+        return Engine.getCoalescer().execute(cacheKey,
+                () -> measure(srcExt, outExt, srcFile, () -> executeStreamConversionWebService(plan, cacheKey, baseName, outExt, srcFile, password, union, outputDirectory, token, progress)),
+                () -> restoreFromCache(cacheKey, baseName, outExt, outputDirectory));
+    }
 
-            Log.addMessage("WebService: Conversione completata con successo: " + srcFile.getName() + " -> " + finalOutputFile.getName());
-            return finalOutputFile;
+    /**
+     * Come {@link #executeConversionWebService(String, String, File, String, Boolean, File, CancellationToken, ProgressListener)}
+     * con il file convertito salvato nella stessa directory del file iniziale
+     */
+    private File executeConversionWebService(String srcExt, String outExt, File srcFile, String extraParam, Boolean union,
+                                             CancellationToken token, ProgressListener progress) throws Exception {
+        if (srcFile == null) {
+            Log.addMessage("ERRORE WebService: srcFile nullo");
+            throw new NullPointerException("L'oggetto srcFile non esiste");
+        }
+        return executeConversionWebService(srcExt, outExt, srcFile, extraParam, union, srcFile.getAbsoluteFile().getParentFile(), token, progress);
+    }
 
+    /**
+     * Esecuzione conversione con i converter a stream: il file caricato viene letto sul posto e l'output
+     * finisce direttamente in outputDirectory. I converter che lavorano solo su file usano la cartella di lavoro
+     * privata del contesto; nelle conversioni a catena i risultati intermedi restano in memoria.
+     * Se la conversione produce più file (es. le pagine di un PDF) il risultato è un archivio zip
+     * con tutti i file, scritto una voce alla volta man mano che vengono prodotti
+     */
+    private File executeStreamConversionWebService(ConversionPlanner.Plan plan, String cacheKey, String baseName, String outExt, File srcFile, String password, Boolean union,
+                                                   File outputDirectory, CancellationToken token, ProgressListener progress) throws Exception {
+        ConversionOptions options = new ConversionOptions(srcFile.getName(), outExt, password, union);
+        ZipOutputSink sink = new ZipOutputSink(outputDirectory, archiveName(baseName, outExt));
+        Log.addMessage("WebService: Avvio conversione in streaming: " + plan);
+
+        try (ConversionContext context = ConversionContext.open(outputDirectory, options, token, progress);
+             InputStream in = new BufferedInputStream(new FileInputStream(srcFile))) {
+            ConversionPlanner.execute(plan, in, sink, context);
+            sink.finish();
+        } catch (CancellationException e) {
+            sink.discard();
+            Log.addMessage("WebService: Conversione annullata: " + srcFile.getName());
+            throw e;
         } catch (Exception e) {
+            sink.discard();
             Log.addMessage("ERRORE WebService: Errore durante la conversione del file " + srcFile.getName() + ": " + e.getMessage());
             throw new Exception("Errore durante la conversione: " + e.getMessage(), e);
-        } finally {
-            // Pulizia finale: elimina la directory temporanea e tutto il suo contenuto
-            try {
-                deleteDirectoryRecursively(conversionTempDir);
-                Log.addMessage("WebService: Directory temporanea eliminata: " + conversionTempDir);
-            } catch (Exception e) {
-                Log.addMessage("WebService: Errore eliminazione directory temporanea: " + e.getMessage());
-            }
         }
-    }
 
-    private File executeConversionWebService(String srcExt, String outExt, File srcFile, String extraParam, Boolean union) throws Exception {
-        String converterClassName = checkParameters(srcExt, outExt, srcFile);
-
-        Class<?> clazz = Class.forName(converterClassName);
-        Converter converter = (Converter) clazz.getDeclaredConstructor().newInstance();
-
-        // Crea directory temporanea per questa conversione specifica
-        Path conversionTempDir = Files.createTempDirectory("webservice_conversion_");
-        Log.addMessage("WebService: Creata directory temporanea: " + conversionTempDir);
-
-        try {
-            // Copia il file nella directory temporanea
-            Path tempPath = conversionTempDir.resolve(srcFile.getName());
-            Files.copy(srcFile.toPath(), tempPath, StandardCopyOption.REPLACE_EXISTING);
-            Log.addMessage("WebService: Copia del file nella cartella temporanea: " + tempPath);
-            File tempFile = tempPath.toFile();
-
-            // Rinomina il file con suffisso per evitare conflitti
-            File renamedFile = giveBackNewFileWithNewName(tempFile.getPath(), "-$$" + outExt + "$$-");
-            rinominaFile(tempFile, renamedFile);
-            tempFile = renamedFile;
-
-            // SALVA IL NOME DEL FILE TEMPORANEO PER USO NELLA LAMBDA (FINAL)
-            final String tempFileName = tempFile.getName();
-
-            Log.addMessage("WebService: Avvio conversione con: " + converterClassName);
-            System.out.println("WebService: File input: " + tempFile.getAbsolutePath());
-            System.out.println("WebService: Directory temp: " + conversionTempDir.toAbsolutePath());
-
-            List<File> outFiles;
-
-            // Soluzione: Salva i percorsi originali e li ripristina dopo
-            String originalSuccessDir = config.getSuccessOutputDir();
-            String originalErrorDir = config.getErrorOutputDir();
-
-            try {
-                // Crea una sottodirectory per i file convertiti
-                Path tempOutputDir = conversionTempDir.resolve("output");
-                Files.createDirectories(tempOutputDir);
-
-                System.setProperty("webservice.temp.output", tempOutputDir.toString());
-
-                // Chiama il converter con i parametri appropriati
-                if (extraParam != null && union != null) {
-                    System.out.println("WebService: Conversione con password e union");
-                    outFiles = converter.convert(tempFile, extraParam, union);
-                } else if (extraParam != null) {
-                    System.out.println("WebService: Conversione con password");
-                    outFiles = converter.convert(tempFile, extraParam);
-                } else if (union != null) {
-                    System.out.println("WebService: Conversione con union");
-                    outFiles = converter.convert(tempFile, union);
-                } else {
-                    System.out.println("WebService: Conversione base");
-                    outFiles = converter.convert(tempFile);
-                }
+        File convertedFile = sink.getResult();
+        if (convertedFile == null) {
+            throw new Exception("Il converter non ha prodotto file di output validi");
+        }
+        // L'archivio ha una chiave propria: la chiave della conversione contiene i singoli file prodotti
+        Engine.getCache().put(sink.getCount() > 1 ? archiveKey(cacheKey) : cacheKey, baseName, Collections.singletonList(convertedFile));
 
-                System.out.println("WebService: File di output dal converter: " + outFiles);
-
-                // Se il converter non ha prodotto file, proviamo a cercarli nella directory di successo dell'engine
-                if (outFiles == null || outFiles.isEmpty()) {
-                    Log.addMessage("WebService: Il converter non ha restituito file, cerco nella directory di successo...");
-
-                    // Cerca i file nella directory di successo dell'engine
-                    File successDir = new File(originalSuccessDir);
-                    if (successDir.exists() && successDir.isDirectory()) {
-                        File[] potentialFiles = successDir.listFiles((dir, name) ->
-                                name.toLowerCase().endsWith("." + outExt.toLowerCase())
-                        );
-
-                        if (potentialFiles != null && potentialFiles.length > 0) {
-                            // Ordina per data di modifica (più recente prima)
-                            Arrays.sort(potentialFiles, (a, b) ->
-                                    Long.compare(b.lastModified(), a.lastModified())
-                            );
-
-                            outFiles = Arrays.asList(potentialFiles);
-                            Log.addMessage("WebService: Trovati " + outFiles.size() + " file nella directory di successo");
-                        }
-                    }
-
-                    // Se ancora non troviamo file, cerca nella directory temporanea
-                    if (outFiles == null || outFiles.isEmpty()) {
-                        Log.addMessage("WebService: Cerco file nella directory temporanea...");
-
-                        // USA LA VARIABILE FINAL tempFileName INVECE DI tempFile.getName()
-                        File[] tempFiles = conversionTempDir.toFile().listFiles((dir, name) ->
-                                name.toLowerCase().endsWith("." + outExt.toLowerCase()) &&
-                                        !name.equals(tempFileName)  // ← CORRETTO: usa tempFileName (final)
-                        );
-
-                        if (tempFiles != null && tempFiles.length > 0) {
-                            outFiles = Arrays.asList(tempFiles);
-                            Log.addMessage("WebService: Trovati " + outFiles.size() + " file nella directory temporanea");
-                        }
-                    }
-                }
+        Log.addMessage("WebService: Conversione completata con successo: " + srcFile.getName() + " -> " + convertedFile.getName()
+                + (sink.getCount() > 1 ? " (" + sink.getCount() + " file)" : ""));
+        return convertedFile;
+    }
 
-            } finally {
-                // Ripristina le directory originali (se fossero state modificate)
-                System.clearProperty("webservice.temp.output");
+    /**
+     * Conversione con i file prodotti scritti direttamente nel sink indicato, senza passare dal disco né dalla cache:
+     * usata per inviare al client ogni file (es. ogni pagina di un PDF) appena il converter lo produce.
+     * La conversione viene eseguita nel pool dello scheduler relativo alla sua classe di costo; le pagine non vengono unite
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @param srcFile File iniziale, la sua directory fa da cartella di lavoro dei converter che lavorano solo su file
+     * @param password Password per file criptati, null o vuota se assente
+     * @param sink Destinazione dei file prodotti
+     * @param token Segnale di annullamento della conversione
+     * @return Numero di file prodotti
+     * @throws Exception Conversione non supportata o errore durante la conversione
+     */
+    public int streamConversion(String srcExt, String outExt, File srcFile, String password, OutputSink sink, CancellationToken token) throws Exception {
+        if (sink == null) {
+            Log.addMessage("ERRORE WebService: sink nullo");
+            throw new NullPointerException("L'oggetto sink non esiste");
+        }
+        ConversionPlanner.Plan plan = checkParameters(srcExt, outExt, srcFile);
+        boolean hasPassword = password != null && !password.trim().isEmpty();
+        ConversionOptions options = new ConversionOptions(srcFile.getName(), outExt, hasPassword ? password : null, null);
+        CountingSink counting = new CountingSink(sink);
+
+        schedule(srcExt, outExt, () -> {
+            long start = System.nanoTime();
+            Log.addMessage("WebService: Avvio conversione con invio progressivo: " + plan);
+            try (ConversionContext context = ConversionContext.open(srcFile.getAbsoluteFile().getParentFile(), options, token);
+                 InputStream in = new BufferedInputStream(new FileInputStream(srcFile))) {
+                ConversionPlanner.execute(plan, in, counting, context);
+            } catch (CancellationException e) {
+                Log.addMessage("WebService: Conversione annullata: " + srcFile.getName());
+                throw e;
+            } catch (Exception e) {
+                Engine.getMetrics().recordFailure(srcExt, outExt, e);
+                Log.addMessage("ERRORE WebService: Errore durante la conversione del file " + srcFile.getName() + ": " + e.getMessage());
+                throw new Exception("Errore durante la conversione: " + e.getMessage(), e);
             }
+            Engine.getMetrics().recordSuccess(srcExt, outExt, System.nanoTime() - start, srcFile.length(), counting.bytes);
+            return null;
+        });
 
-            // Elimina il file temporaneo di input
-            Files.deleteIfExists(tempFile.toPath());
-            Log.addMessage("WebService: File temporaneo di input eliminato: " + tempFile.getPath());
-
-            // Verifica che abbiamo almeno un file di output
-            if (outFiles == null || outFiles.isEmpty()) {
-                throw new Exception("Il converter non ha prodotto file di output validi");
-            }
+        if (counting.files == 0) {
+            throw new Exception("Il converter non ha prodotto file di output validi");
+        }
+        Log.addMessage("WebService: Conversione completata con successo: " + srcFile.getName() + " (" + counting.files + " file inviati)");
+        return counting.files;
+    }
 
-            // Prende il primo file convertito (o l'unico nel caso di merge)
-            File convertedFile = outFiles.get(0);
-            Log.addMessage("WebService: File convertito trovato: " + convertedFile.getAbsolutePath());
+    /**
+     * Sink che conta file e byte scritti nel sink di destinazione, per le metriche
+     */
+    private static final class CountingSink implements OutputSink {
+        private final OutputSink target;
+        private int files = 0;
+        private long bytes = 0;
 
-            // Rimuove il suffisso dal nome se presente
+        private CountingSink(OutputSink target) {
+            this.target = target;
+        }
 
-            // Sposta il file convertito nella directory di output specificata
-            Files.move(convertedFile.toPath(), convertedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            Log.addMessage("WebService: File convertito spostato in: " + convertedFile.getAbsolutePath());
+        @Override
+        public OutputStream newOutput(String fileName) throws IOException {
+            OutputStream out = target.newOutput(fileName);
+            files++;
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytes++;
+                }
 
-            // Pulizia: elimina eventuali altri file di output
-            for (int i = 1; i < outFiles.size(); i++) {
-                try {
-                    Files.deleteIfExists(outFiles.get(i).toPath());
-                } catch (Exception e) {
-                    Log.addMessage("WebService: Errore eliminazione file extra: " + e.getMessage());
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    bytes += len;
                 }
-            }
+            };
+        }
+    }
 
-            Log.addMessage("WebService: Conversione completata con successo: " + srcFile.getName() + " -> " + convertedFile.getName());
-            return convertedFile;
+    /**
+     * @return Nome dell'archivio restituito quando la conversione produce più file
+     */
+    private static String archiveName(String baseName, String outExt) {
+        return baseName + "_" + outExt + ".zip";
+    }
+
+    /**
+     * @return Chiave di cache dell'archivio zip di una conversione con più file prodotti
+     */
+    private static String archiveKey(String cacheKey) {
+        return cacheKey + "-zip";
+    }
 
+    /**
+     * Esegue la conversione registrando durata, byte ed eventuale errore nelle metriche condivise
+     */
+    private File measure(String srcExt, String outExt, File srcFile, Callable<File> conversion) throws Exception {
+        long bytesIn = srcFile.length();
+        long start = System.nanoTime();
+        try {
+            File result = conversion.call();
+            Engine.getMetrics().recordSuccess(srcExt, outExt, System.nanoTime() - start, bytesIn, result.length());
+            return result;
         } catch (Exception e) {
-            Log.addMessage("ERRORE WebService: Errore durante la conversione del file " + srcFile.getName() + ": " + e.getMessage());
-            throw new Exception("Errore durante la conversione: " + e.getMessage(), e);
-        } finally {
-            // Pulizia finale: elimina la directory temporanea e tutto il suo contenuto
-            try {
-                deleteDirectoryRecursively(conversionTempDir);
-                Log.addMessage("WebService: Directory temporanea eliminata: " + conversionTempDir);
-            } catch (Exception e) {
-                Log.addMessage("WebService: Errore eliminazione directory temporanea: " + e.getMessage());
-            }
+            Engine.getMetrics().recordFailure(srcExt, outExt, e);
+            throw e;
         }
     }
 
     /**
-     * Elimina ricorsivamente una directory e tutto il suo contenuto
+     * Cerca il risultato nella cache condivisa e lo scrive nella directory di output.
+     * Se in cache ci sono più file (salvati dall'Engine locale) vengono raccolti in un archivio zip
+     * @return File del risultato, null se non e' in cache
      */
-    private void deleteDirectoryRecursively(Path directory) throws IOException {
-        if (Files.exists(directory)) {
-            Files.walk(directory)
-                    .sorted(Comparator.reverseOrder())
-                    .map(Path::toFile)
-                    .forEach(File::delete);
+    private File restoreFromCache(String cacheKey, String baseName, String outExt, File outputDirectory) {
+        List<File> cached = Engine.getCache().restore(archiveKey(cacheKey), baseName, outputDirectory);
+        if (cached == null || cached.isEmpty()) {
+            cached = Engine.getCache().restore(cacheKey, baseName, outputDirectory);
+        }
+        if (cached == null || cached.isEmpty()) {
+            return null;
+        }
+        if (cached.size() == 1) {
+            Log.addMessage("WebService: Conversione trovata in cache: " + cached.get(0).getName());
+            return cached.get(0);
+        }
+
+        ZipOutputSink sink = new ZipOutputSink(outputDirectory, archiveName(baseName, outExt));
+        try {
+            for (File f : cached) {
+                try (OutputStream out = sink.newOutput(f.getName())) {
+                    Files.copy(f.toPath(), out);
+                }
+                Files.deleteIfExists(f.toPath());
+            }
+            sink.finish();
+        } catch (IOException e) {
+            sink.discard();
+            Log.addMessage("WebService: Errore nella creazione dell'archivio dalla cache: " + e.getMessage());
+            return null;
+        } finally {
+            for (File f : cached) {
+                f.delete();
+            }
         }
+        Engine.getCache().put(archiveKey(cacheKey), baseName, Collections.singletonList(sink.getResult()));
+        Log.addMessage("WebService: Conversione trovata in cache: " + cached.size() + " file raccolti in " + sink.getResult().getName());
+        return sink.getResult();
     }
 
     /**
      * Controllo dell'esistenza dei parametri
      */
-    private String checkParameters(String srcExt, String outExt, File srcFile) throws Exception {
+    private ConversionPlanner.Plan checkParameters(String srcExt, String outExt, File srcFile) throws Exception {
         if (srcExt == null) {
             Log.addMessage("ERRORE WebService: srcExt nullo");
             throw new NullPointerException("L'oggetto srcExt non esiste");
@@ -439,46 +434,31 @@ public class EngineWebService {
             throw new NullPointerException("L'oggetto srcFile non esiste");
         }
 
-        Map<String, Map<String, String>> conversions = config.getConversions();
-        if (conversions == null || !conversions.containsKey(srcExt)) {
+        ConversionPlanner current = ConfigStore.get().getPlanner();
+        if (!current.getRegistry().supports(srcExt)) {
             Log.addMessage("ERRORE WebService: Conversione da " + srcExt + " non supportata");
             throw new Exception("Conversione non supportata");
         }
 
-        Map<String, String> possibleConversions = conversions.get(srcExt);
-        String converterClassName = possibleConversions.get(outExt);
-        if (converterClassName == null) {
+        ConversionPlanner.Plan plan = current.plan(srcExt, outExt);
+        if (plan == null) {
             Log.addMessage("ERRORE WebService: Conversione da " + srcExt + " a " + outExt + " non supportata");
             throw new Exception("Conversione non supportata");
         }
 
-        Log.addMessage("WebService: Parametri validi. Conversione da " + srcExt + " a " + outExt + " tramite " + converterClassName);
-        return converterClassName;
-    }
-
-    /**
-     * Ritorna un file temporaneo identico a quello passato ma con un suffisso
-     */
-    private static File giveBackNewFileWithNewName(String filePath, String suffix) {
-        if (filePath == null) throw new NullPointerException("L'oggetto filePath non esiste");
-        if (suffix == null) throw new NullPointerException("L'oggetto suffix non esiste");
-
-        File file = new File(filePath);
-        String name = file.getName();
-        int lastDot = name.lastIndexOf(".");
-
-        String newName = (lastDot == -1) ? name + suffix : name.substring(0, lastDot) + suffix + name.substring(lastDot);
-        return new File(file.getParent(), newName);
+        if (plan.isDirect()) {
+            Log.addMessage("WebService: Parametri validi. Conversione da " + srcExt + " a " + outExt + " tramite " + plan.getFirstEntry().getClassName());
+        } else {
+            Log.addMessage("WebService: Parametri validi. Conversione a catena " + plan);
+        }
+        return plan;
     }
 
     /**
      * Ritorna la configurazione ottenuta da config.json
      */
     public ConverterConfig getConverterConfig() throws NullPointerException {
-        if (config == null) {
-            throw new NullPointerException("L'oggetto config non esiste");
-        }
-        return config;
+        return ConfigStore.get().getConfig();
     }
 
     /**
@@ -0,0 +1,93 @@
+package WebService.client;
+
+/**
+ * Stato di salute del servizio web ricavato dall'esito delle chiamate, senza richieste di controllo dedicate.
+ * Dopo un certo numero di errori consecutivi (connessione fallita o errore 5xx) il circuito si apre e le chiamate
+ * falliscono subito; trascorso il tempo di attesa una sola chiamata di prova viene lasciata passare:
+ * se riesce il circuito si richiude, altrimenti resta aperto per un altro intervallo.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Stato del circuito
+     */
+    public enum State {
+        CLOSED,     // servizio disponibile, tutte le chiamate passano
+        OPEN,       // servizio non disponibile, le chiamate falliscono subito
+        HALF_OPEN   // una chiamata di prova è in corso
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+
+    /**
+     * @param failureThreshold Errori consecutivi dopo cui il circuito si apre
+     * @param openMillis Tempo in cui il circuito resta aperto prima di una chiamata di prova
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+    }
+
+    /**
+     * Chiede il permesso di eseguire una chiamata. Se il circuito è aperto e l'attesa è trascorsa,
+     * il chiamante diventa la chiamata di prova e deve riportarne l'esito
+     * @return true se la chiamata può essere eseguita
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openMillis) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // Prova già in corso: le altre chiamate attendono il suo esito
+                return false;
+        }
+    }
+
+    /**
+     * Registra una chiamata riuscita: il circuito si chiude
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Registra una chiamata fallita per indisponibilità del servizio
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                System.err.println("Servizio web non disponibile dopo " + consecutiveFailures + " errori consecutivi, nuovo tentativo tra " + openMillis + " ms");
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Chiamata terminata senza informazioni sulla salute del servizio (es. annullata):
+     * se era la chiamata di prova il circuito torna aperto per permetterne un'altra
+     */
+    public synchronized void recordIgnored() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis() - openMillis;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
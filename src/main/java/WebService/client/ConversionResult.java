@@ -1,10 +1,13 @@
 package WebService.client;
 
+import java.io.File;
+
 public class ConversionResult {
 
     private final boolean success;
     private final String message;
     private final String error; // Questo è il campo per gli errori
+    private File outputFile = null; // File salvato localmente, se diverso da quello richiesto (es. archivio zip)
 
     // Costruttore principale che accetta success, message e error
     public ConversionResult(boolean success, String message, String error) {
@@ -33,6 +36,13 @@ public class ConversionResult {
         return error;
     }
 
+    /**
+     * @return File in cui è stato salvato il risultato, null se non indicato
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
     public boolean hasError() {
         return error != null && !error.trim().isEmpty();
     }
@@ -54,6 +64,12 @@ public class ConversionResult {
         return new ConversionResult(true, message, null);
     }
 
+    public static ConversionResult saved(String message, File outputFile) {
+        ConversionResult result = new ConversionResult(true, message, null);
+        result.outputFile = outputFile;
+        return result;
+    }
+
     public static ConversionResult error(String error) {
         return new ConversionResult(false, null, error);
     }
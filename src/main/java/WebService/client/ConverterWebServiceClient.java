@@ -1,53 +1,107 @@
 package WebService.client;
 
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.web.client.ResourceAccessException;
-import org.springframework.web.client.RestTemplate;
+import com.google.gson.Gson;
+import converter.Log;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Client del web service di conversione.
+ * Usa un unico client HTTP con un pool di connessioni keep-alive; lo stato del servizio è dato da un
+ * {@link CircuitBreaker} alimentato dall'esito delle chiamate, senza una richiesta a /status prima di ogni operazione.
+ * I file vengono inviati e ricevuti in streaming tra disco e connessione, senza caricarli in memoria.
+ * I timeout predefiniti si impostano con le proprietà di sistema converter.client.connectTimeoutMillis (5000),
+ * converter.client.readTimeoutMillis (300000) e converter.client.writeTimeoutMillis (60000).
+ */
 public class ConverterWebServiceClient {
 
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+    // Errori consecutivi dopo cui il servizio viene considerato non disponibile, e attesa prima di riprovare
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 15_000;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
     private final String baseUrl;
-    private final RestTemplate restTemplate;
+    private final OkHttpClient httpClient;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+    private final Gson gson = new Gson();
 
     public ConverterWebServiceClient(String baseUrl) {
-        this.baseUrl = baseUrl;
-        this.restTemplate = new RestTemplate();
+        this(baseUrl,
+                Long.getLong("converter.client.connectTimeoutMillis", 5_000),
+                Long.getLong("converter.client.readTimeoutMillis", 300_000),
+                Long.getLong("converter.client.writeTimeoutMillis", 60_000));
+    }
+
+    /**
+     * @param baseUrl Indirizzo del servizio (es. http://localhost:8080)
+     * @param connectTimeoutMillis Tempo massimo per aprire la connessione
+     * @param readTimeoutMillis Tempo massimo di attesa tra due letture: comprende la durata della conversione sincrona
+     * @param writeTimeoutMillis Tempo massimo di attesa tra due scritture durante l'invio dei file
+     */
+    public ConverterWebServiceClient(String baseUrl, long connectTimeoutMillis, long readTimeoutMillis, long writeTimeoutMillis) {
+        if (baseUrl == null) {
+            Log.addMessage("ERRORE: baseUrl nullo");
+            throw new NullPointerException("L'oggetto baseUrl non esiste");
+        }
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
     }
 
     /**
      * Controlla la disponibilità del servizio web.
+     * Non esegue richieste finché il circuito è chiuso; quando è aperto e l'attesa è trascorsa
+     * esegue una sola richiesta di prova a /status.
      * @return true se il servizio è disponibile, false altrimenti.
      */
     public boolean isServiceAvailable() {
-        try {
-            String url = baseUrl + "/api/converter/status";
-            ResponseEntity<Map> response = restTemplate.getForEntity(url, Map.class);
-            return response.getStatusCode().is2xxSuccessful() && response.getBody() != null && "active".equals(response.getBody().get("status"));
-        } catch (ResourceAccessException e) {
+        if (circuitBreaker.getState() == CircuitBreaker.State.CLOSED) {
+            return true;
+        }
+        if (!circuitBreaker.allowRequest()) {
+            return false;
+        }
+        Request request = new Request.Builder().url(baseUrl + "/api/converter/status").get().build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                circuitBreaker.recordSuccess();
+                return true;
+            }
+            circuitBreaker.recordFailure();
+            System.err.println("Errore durante il controllo dello stato del servizio web: " + response.code());
+            return false;
+        } catch (IOException e) {
             // Non riuscito a connettersi al server (e.g., server down, indirizzo errato)
+            circuitBreaker.recordFailure();
             System.err.println("Servizio web non disponibile (connessione fallita): " + e.getMessage());
             return false;
-        } catch (Exception e) {
-            // Altri errori (e.g., server risponde con errore HTTP)
-            System.err.println("Errore durante il controllo dello stato del servizio web: " + e.getMessage());
-            return false;
         }
     }
 
@@ -58,21 +112,20 @@ public class ConverterWebServiceClient {
      * @throws Exception Se la richiesta fallisce o il servizio non è disponibile.
      */
     public List<String> getPossibleConversions(String extension) throws Exception {
-        if (!isServiceAvailable()) {
-            throw new Exception("Servizio di conversione non disponibile.");
-        }
-        try {
-            String url = baseUrl + "/api/converter/conversions/" + extension;
-            ResponseEntity<String[]> response = restTemplate.getForEntity(url, String[].class);
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                return Arrays.asList(response.getBody());
-            } else {
-                throw new Exception("Errore nel recupero delle conversioni possibili: " + response.getStatusCode());
+        Request request = new Request.Builder().url(baseUrl + "/api/converter/conversions/" + extension).get().build();
+        try (Response response = execute(request)) {
+            if (!response.isSuccessful()) {
+                throw new Exception("Errore HTTP durante il recupero delle conversioni: " + errorMessage(response));
+            }
+            try (Reader reader = new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8)) {
+                String[] formats = gson.fromJson(reader, String[].class);
+                if (formats == null) {
+                    throw new Exception("Errore nel recupero delle conversioni possibili: risposta vuota");
+                }
+                return Arrays.asList(formats);
             }
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            throw new Exception("Errore HTTP durante il recupero delle conversioni: " + e.getResponseBodyAsString(), e);
-        } catch (Exception e) {
-            throw new Exception("Errore sconosciuto durante il recupero delle conversioni: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new Exception("Errore di connessione durante il recupero delle conversioni: " + e.getMessage(), e);
         }
     }
 
@@ -87,80 +140,260 @@ public class ConverterWebServiceClient {
      * @return Un oggetto ConversionResult che indica il successo e un messaggio.
      */
     public ConversionResult convertFile(File inputFile, String targetFormat, File outputFile, String password, boolean mergeImages) {
-        if (!isServiceAvailable()) {
-            return new ConversionResult(false, "Servizio di conversione non disponibile.");
-        }
+        Request request = new Request.Builder().url(baseUrl + "/api/converter/convert")
+                .post(conversionForm(inputFile, targetFormat, password, mergeImages)).build();
 
-        try {
-            String url = baseUrl + "/api/converter/convert";
+        try (Response response = execute(request)) {
+            return saveResult(response, targetFormat, outputFile);
+        } catch (ServiceUnavailableException e) {
+            return new ConversionResult(false, e.getMessage());
+        } catch (IOException e) {
+            // Errore di rete, di connessione o di scrittura del file locale
+            String errorMessage = "Errore di connessione al servizio o di salvataggio del file convertito: " + e.getMessage();
+            System.err.println(errorMessage);
+            return new ConversionResult(false, errorMessage);
+        }
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    /**
+     * Come {@link #convertFile(File, String, File, String, boolean)}, ma la conversione viene eseguita come job
+     * e il suo avanzamento viene seguito tramite lo stream di eventi del servizio.
+     * Il job può essere annullato da un altro thread con {@link #cancelJob(String)}
+     *
+     * @param listener Destinatario dell'identificativo del job e dell'avanzamento (null per la conversione sincrona).
+     * @return Un oggetto ConversionResult che indica il successo e un messaggio.
+     */
+    public ConversionResult convertFile(File inputFile, String targetFormat, File outputFile, String password, boolean mergeImages, JobProgressListener listener) {
+        if (listener == null) {
+            return convertFile(inputFile, targetFormat, outputFile, password, mergeImages);
+        }
 
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("file", new FileSystemResource(inputFile)); // Aggiunge il file
-            body.add("targetFormat", targetFormat); // Aggiunge il formato target
+        String jobId = null;
+        try {
+            Request submit = new Request.Builder().url(baseUrl + "/api/converter/jobs")
+                    .post(conversionForm(inputFile, targetFormat, password, mergeImages)).build();
+            try (Response response = execute(submit)) {
+                if (!response.isSuccessful()) {
+                    String errorMessage = "Errore del server (" + response.code() + "): " + errorMessage(response);
+                    System.err.println(errorMessage);
+                    return new ConversionResult(false, errorMessage);
+                }
+                jobId = (String) readJson(response).get("jobId");
+            }
+            listener.onSubmitted(jobId);
 
-            if (password != null && !password.isEmpty()) {
-                body.add("password", password); // Aggiunge la password se presente
+            Map<String, Object> status = awaitJob(jobId, listener);
+            String state = (String) status.get("state");
+            if ("CANCELLED".equals(state)) {
+                return new ConversionResult(false, "Conversione annullata");
             }
-            body.add("mergeImages", String.valueOf(mergeImages)); // Aggiunge il flag mergeImages
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            // Esegui la richiesta POST e aspetta un array di byte come risposta
-            ResponseEntity<byte[]> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    requestEntity,
-                    byte[].class
-            );
-
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                // Scrive i byte ricevuti nel file di output specificato
-                try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                    fos.write(response.getBody());
-                }
-                return new ConversionResult(true, "File convertito e salvato con successo: " + outputFile.getName());
-            } else {
-                // Se la risposta non è 2xx OK
-                String errorMessage = "Errore durante la conversione: " + response.getStatusCode();
-                if (response.getBody() != null) {
-                    // Tenta di decodificare l'errore JSON dal body se presente
-                    try {
-                        String responseBody = new String(response.getBody());
-                        // Potresti voler usare una libreria JSON come Gson o Jackson qui
-                        // per parsare un oggetto errore, ma per semplicità ora lo stampo
-                        System.err.println("Errore dal server: " + responseBody);
-                        errorMessage += " - Dettagli: " + responseBody;
-                    } catch (Exception e) {
-                        // Impossibile leggere il body come stringa o JSON
-                        errorMessage += " (corpo risposta illeggibile)";
-                    }
-                }
-                return new ConversionResult(false, errorMessage);
+            if (!"COMPLETED".equals(state)) {
+                return new ConversionResult(false, "Errore durante la conversione: " + status.get("error"));
             }
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            // Errori HTTP specifici (4xx, 5xx)
-            String errorMessage = "Errore del server (" + e.getStatusCode() + "): " + e.getResponseBodyAsString();
-            System.err.println(errorMessage);
-            return new ConversionResult(false, errorMessage);
-        } catch (ResourceAccessException e) {
-            // Errore di rete o connessione
-            String errorMessage = "Errore di connessione al servizio: " + e.getMessage();
+
+            Request result = new Request.Builder().url(baseUrl + "/api/converter/jobs/" + jobId + "/result").get().build();
+            try (Response response = execute(result)) {
+                return saveResult(response, targetFormat, outputFile);
+            }
+        } catch (ServiceUnavailableException e) {
+            return new ConversionResult(false, e.getMessage());
+        } catch (IOException e) {
+            String errorMessage = "Errore di connessione al servizio o di salvataggio del file convertito: " + e.getMessage();
             System.err.println(errorMessage);
             return new ConversionResult(false, errorMessage);
+        } finally {
+            // Il risultato è già stato scaricato (o non serve più): i file del job vengono eliminati subito
+            if (jobId != null) {
+                cancelJob(jobId);
+            }
+        }
+    }
+
+    /**
+     * Annulla un job (o ne elimina i file se è già terminato)
+     * @param jobId Identificativo del job
+     * @return true se il servizio ha trovato il job
+     */
+    public boolean cancelJob(String jobId) {
+        Request request = new Request.Builder().url(baseUrl + "/api/converter/jobs/" + jobId).delete().build();
+        try (Response response = execute(request)) {
+            return response.isSuccessful();
+        } catch (IOException e) {
+            System.err.println("Annullamento del job " + jobId + " fallito: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Invia più file con una sola richiesta e salva l'archivio zip restituito dal servizio
+     * (file convertiti nell'ordine di completamento più manifest.json con l'esito di ogni file).
+     *
+     * @param inputFiles I file sorgente da convertire.
+     * @param targetFormat Il formato di destinazione comune a tutti i file.
+     * @param zipFile Il percorso dove salvare l'archivio con i risultati.
+     * @return Un oggetto ConversionResult che indica il successo e un messaggio.
+     */
+    public ConversionResult convertBatch(List<File> inputFiles, String targetFormat, File zipFile) {
+        MultipartBody.Builder body = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        for (File inputFile : inputFiles) {
+            body.addFormDataPart("files", inputFile.getName(), RequestBody.create(inputFile, OCTET_STREAM));
+        }
+        body.addFormDataPart("targetFormat", targetFormat);
+        Request request = new Request.Builder().url(baseUrl + "/api/converter/convert/batch").post(body.build()).build();
+
+        try (Response response = execute(request)) {
+            if (!response.isSuccessful()) {
+                String errorMessage = "Errore del server (" + response.code() + "): " + errorMessage(response);
+                System.err.println(errorMessage);
+                return new ConversionResult(false, errorMessage);
+            }
+            // L'archivio viene copiato su disco mentre arriva, senza tenerlo tutto in memoria
+            download(response.body(), zipFile);
+            return ConversionResult.saved("Batch convertito e salvato con successo: " + zipFile.getName(), zipFile);
+        } catch (ServiceUnavailableException e) {
+            return new ConversionResult(false, e.getMessage());
         } catch (IOException e) {
-            // Errore nella scrittura del file locale
-            String errorMessage = "Errore I/O durante il salvataggio del file convertito: " + e.getMessage();
+            String errorMessage = "Errore di connessione al servizio durante la conversione batch: " + e.getMessage();
             System.err.println(errorMessage);
             return new ConversionResult(false, errorMessage);
-        } catch (Exception e) {
-            // Qualsiasi altro errore inatteso
-            String errorMessage = "Errore inatteso durante la conversione: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Modulo multipart di una conversione: il file viene letto dal disco mentre viene inviato
+     */
+    private static RequestBody conversionForm(File inputFile, String targetFormat, String password, boolean mergeImages) {
+        MultipartBody.Builder body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("file", inputFile.getName(), RequestBody.create(inputFile, OCTET_STREAM))
+                .addFormDataPart("targetFormat", targetFormat)
+                .addFormDataPart("mergeImages", String.valueOf(mergeImages));
+        if (password != null && !password.isEmpty()) {
+            body.addFormDataPart("password", password);
+        }
+        return body.build();
+    }
+
+    /**
+     * Salva il file convertito ricevuto nella risposta
+     */
+    private static ConversionResult saveResult(Response response, String targetFormat, File outputFile) throws IOException {
+        if (!response.isSuccessful()) {
+            String errorMessage = "Errore del server (" + response.code() + "): " + errorMessage(response);
             System.err.println(errorMessage);
-            e.printStackTrace(); // Per debug
             return new ConversionResult(false, errorMessage);
         }
+        // Se la conversione ha prodotto più file il server restituisce un archivio zip con tutti i file
+        MediaType responseType = response.body().contentType();
+        if (responseType != null && "zip".equals(responseType.subtype()) && !outputFile.getName().toLowerCase().endsWith(".zip")) {
+            outputFile = new File(outputFile.getParentFile(), outputFile.getName().replaceFirst("\\.[^\\.]+$", "") + "_" + targetFormat + ".zip");
+        }
+        download(response.body(), outputFile);
+        return ConversionResult.saved("File convertito e salvato con successo: " + outputFile.getName(), outputFile);
+    }
+
+    /**
+     * Segue lo stream di eventi del job fino all'evento finale
+     * @return Ultimo stato ricevuto, con il job terminato
+     * @throws IOException Se lo stream si interrompe prima della fine del job
+     */
+    private Map<String, Object> awaitJob(String jobId, JobProgressListener listener) throws IOException {
+        Request request = new Request.Builder().url(baseUrl + "/api/converter/jobs/" + jobId + "/events")
+                .header("Accept", "text/event-stream").get().build();
+        try (Response response = execute(request)) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Stream degli eventi del job non disponibile (" + response.code() + ")");
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8));
+            StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("data:")) {
+                    data.append(line.substring(5).trim());
+                } else if (line.isEmpty() && data.length() > 0) {
+                    // Riga vuota: fine di un evento
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> status = gson.fromJson(data.toString(), Map.class);
+                    data.setLength(0);
+                    String state = (String) status.get("state");
+                    Object progress = status.get("progress");
+                    listener.onProgress(state, progress instanceof Number ? ((Number) progress).intValue() : 0, (String) status.get("progressDetail"));
+                    if ("COMPLETED".equals(state) || "FAILED".equals(state) || "CANCELLED".equals(state)) {
+                        return status;
+                    }
+                }
+            }
+        }
+        throw new IOException("Stream degli eventi del job interrotto prima della fine della conversione");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readJson(Response response) throws IOException {
+        try (Reader reader = new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, Map.class);
+        }
+    }
+
+    /**
+     * Esegue una richiesta aggiornando lo stato del servizio.
+     * Solo gli errori di connessione e le risposte 502/503/504 indicano un servizio non disponibile:
+     * un errore di conversione (500) o una richiesta rifiutata per sovraccarico (429) arrivano da un servizio attivo
+     * @throws ServiceUnavailableException Se il circuito è aperto e la richiesta non viene nemmeno inviata
+     * @throws IOException Errore di connessione
+     */
+    private Response execute(Request request) throws IOException {
+        if (!circuitBreaker.allowRequest()) {
+            throw new ServiceUnavailableException();
+        }
+        Response response;
+        try {
+            response = httpClient.newCall(request).execute();
+        } catch (IOException e) {
+            circuitBreaker.recordFailure();
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.recordIgnored();
+            throw e;
+        }
+        int code = response.code();
+        if (code == 502 || code == 503 || code == 504) {
+            circuitBreaker.recordFailure();
+        } else {
+            circuitBreaker.recordSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * Copia il corpo della risposta nel file indicato; in caso di errore il file parziale viene eliminato
+     */
+    private static void download(ResponseBody body, File destination) throws IOException {
+        try (InputStream in = body.byteStream()) {
+            Files.copy(in, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(destination.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * @return Messaggio di errore ricavato dal corpo della risposta, con il tempo di attesa suggerito se presente
+     */
+    private static String errorMessage(Response response) throws IOException {
+        String message = response.body() != null ? response.body().string() : "";
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter != null) {
+            message += " (riprovare tra " + retryAfter + " secondi)";
+        }
+        return message;
+    }
+
+    /**
+     * Richiesta non inviata perché il servizio è considerato non disponibile
+     */
+    private static final class ServiceUnavailableException extends IOException {
+        private ServiceUnavailableException() {
+            super("Servizio di conversione non disponibile.");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package WebService.client;
+
+/**
+ * Avanzamento di una conversione eseguita come job dal servizio web, ricevuto dallo stream di eventi del job.
+ * I metodi vengono chiamati nel thread che esegue la conversione lato client.
+ */
+public interface JobProgressListener {
+
+    /**
+     * Il job è stato accodato: l'identificativo serve per annullarlo con {@link ConverterWebServiceClient#cancelJob(String)}
+     * @param jobId Identificativo del job
+     */
+    default void onSubmitted(String jobId) {
+    }
+
+    /**
+     * @param state Stato del job (QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED)
+     * @param progress Avanzamento tra 0 e 100
+     * @param detail Descrizione dell'avanzamento (es. "3/12 pagine"), null se il converter non lo riporta
+     */
+    void onProgress(String state, int progress, String detail);
+}
@@ -1,32 +1,78 @@
 package WebService.controller;
 
+import WebService.AdmissionController;
+import WebService.AdmissionRejectedException;
+import WebService.BatchConversion;
+import WebService.ConversionJob;
+import WebService.ConversionJobManager;
 import WebService.EngineWebService;
+import Converters.CancellationToken;
+import converter.ConfigStore;
+import converter.ConversionScheduler;
+import converter.Engine;
 import converter.Log;
+import converter.MultipartOutputSink;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.MediaType;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.util.FileSystemUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/api/converter")
 @CrossOrigin(origins = "*")
 public class ConverterWebServiceController {
 
+    // Dimensione del buffer usato per inviare i file convertiti
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    // Intervallo con cui lo stream degli eventi ripete lo stato del job anche senza avanzamento:
+    // tiene viva la connessione e mostra i job bloccati
+    private static final long EVENTS_HEARTBEAT_SECONDS = 10;
+
     private final EngineWebService engineWebService = new EngineWebService();
-    List<String> formatiImmagini = Arrays.asList("png", "tiff", "gif", "webp", "psd", "icns", "ico", "tga", "iff", "jpeg", "bmp", "jpg", "pnm", "pgm", "pgm", "ppm", "xwd");
+    private final ConversionJobManager jobManager = new ConversionJobManager(engineWebService);
+    private final AdmissionController admission = new AdmissionController(Engine.getScheduler(), Engine.getMetrics());
+    // Invio degli eventi dei job: le scritture di rete non avvengono mai nei thread delle conversioni
+    private final ScheduledExecutorService jobEvents = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "job-events");
+        t.setDaemon(true);
+        return t;
+    });
 
     @GetMapping("/status")
     public ResponseEntity<Map<String, String>> getStatus() {
         Log.addMessage("WebService: Richiesta stato ricevuta");
-        return ResponseEntity.ok(Collections.singletonMap("status", "active"));
+        Map<String, String> status = new LinkedHashMap<>();
+        status.put("status", "active");
+        status.put("queued", String.valueOf(Engine.getScheduler().getTotalQueued()));
+        status.put("active", String.valueOf(Engine.getScheduler().getTotalActive()));
+        status.put("cacheHits", String.valueOf(Engine.getCache().getMemoryHits() + Engine.getCache().getDiskHits()));
+        status.put("cacheMisses", String.valueOf(Engine.getCache().getMisses()));
+        status.put("rejected", String.valueOf(Engine.getMetrics().getTotalRejected()));
+        return ResponseEntity.ok(status);
+    }
+
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public ResponseEntity<String> getMetrics() {
+        return ResponseEntity.ok(Engine.getMetrics().toPrometheus(Engine.getScheduler(), Engine.getCache()) + admission.toPrometheus());
     }
 
     @GetMapping("/conversions/{extension}")
@@ -42,6 +88,11 @@ public class ConverterWebServiceController {
         }
     }
 
+    /**
+     * Conversione sincrona: crea un job, ne attende la fine e invia il file convertito
+     * (l'archivio zip se i file prodotti sono più di uno, vedi {@link converter.ZipOutputSink}).
+     * Per ricevere i file mentre la conversione è in corso c'è /convert/stream
+     */
     @PostMapping("/convert")
     public ResponseEntity<?> convertFile(
             @RequestParam("file") MultipartFile file,
@@ -49,96 +100,440 @@ public class ConverterWebServiceController {
             @RequestParam(value = "password", required = false) String password,
             @RequestParam(value = "mergeImages", required = false, defaultValue = "false") boolean mergeImages) {
 
-        Path tempInputFilePath = null;
-        Path conversionTempDir = null;
-        File convertedOutputFile = null;
+        ConversionJob job = null;
+        boolean streaming = false;
 
         try {
             Log.addMessage("WebService: Inizio conversione file: " + file.getOriginalFilename() + " -> " + targetFormat);
+            job = submitJob(file, targetFormat, password, mergeImages);
 
-            // 1. Crea una directory temporanea univoca per questa conversione
-            conversionTempDir = Files.createTempDirectory("conversion-" + UUID.randomUUID().toString() + "-");
-            Log.addMessage("WebService: Creata directory temporanea: " + conversionTempDir);
+            try {
+                job.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Exception("Conversione interrotta", e);
+            }
+            if (job.getState() != ConversionJob.State.COMPLETED) {
+                throw new Exception(job.getError());
+            }
 
-            // 2. Salva il file caricato nella directory temporanea
-            String originalFilename = file.getOriginalFilename();
-            String extension = getFileExtension(originalFilename);
-            tempInputFilePath = conversionTempDir.resolve(originalFilename);
-            file.transferTo(tempInputFilePath);
-            Log.addMessage("WebService: File salvato in: " + tempInputFilePath);
+            // Il job viene eliminato quando l'invio del file è terminato
+            ResponseEntity<StreamingResponseBody> response = streamResult(job, true);
+            streaming = true;
+            Log.addMessage("WebService: Conversione completata con successo per: " + file.getOriginalFilename());
+            return response;
+
+        } catch (AdmissionRejectedException e) {
+            return tooManyRequests(e);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorBody(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorBody(e.getMessage()));
+        } catch (Exception e) {
+            Log.addMessage("ERRORE WebService: Errore durante conversione: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorBody("Errore durante la conversione: " + e.getMessage()));
+        } finally {
+            // Se la risposta non viene inviata, il job e i suoi file vengono eliminati subito
+            if (job != null && !streaming) {
+                jobManager.cancel(job.getId());
+            }
+        }
+    }
+
+    /**
+     * Conversione con invio progressivo: la risposta è multipart/mixed con una parte per ogni file prodotto,
+     * inviata appena il converter la scrive (es. ogni pagina di un PDF verso jpg appena renderizzata),
+     * così il client può mostrare la prima pagina mentre le successive sono ancora in conversione.
+     * Le pagine non vengono unite e il risultato non passa dalla cache. Se la conversione fallisce dopo l'inizio
+     * della risposta, l'ultima parte è un JSON con l'errore
+     */
+    @PostMapping("/convert/stream")
+    public ResponseEntity<?> convertFileStreaming(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("targetFormat") String targetFormat,
+            @RequestParam(value = "password", required = false) String password) {
+
+        String originalFilename = file.getOriginalFilename();
+        if (originalFilename == null || originalFilename.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(errorBody("Nome del file mancante"));
+        }
+        String safeName = Paths.get(originalFilename).getFileName().toString();
+        String srcExt = getFileExtension(safeName);
+        String outExt = targetFormat.toLowerCase();
+
+        AdmissionController.Permit permit;
+        try {
+            permit = admission.acquire(engineWebService.getCostClass(srcExt, outExt));
+        } catch (AdmissionRejectedException e) {
+            return tooManyRequests(e);
+        }
+
+        Path conversionTempDir = null;
+        boolean streaming = false;
+        try {
+            Log.addMessage("WebService: Inizio conversione con invio progressivo: " + originalFilename + " -> " + outExt);
+            conversionTempDir = Files.createTempDirectory("conversion-" + UUID.randomUUID().toString() + "-");
+            Path input = conversionTempDir.resolve(safeName);
+            file.transferTo(input);
 
-            // 3. Chiama EngineWebService per la conversione
-            File inputFileForEngine = tempInputFilePath.toFile();
-            File outputDirectoryForEngine = conversionTempDir.toFile();
+            // Il separatore delle parti deve essere noto prima di scrivere l'intestazione della risposta
+            String boundary = UUID.randomUUID().toString().replace("-", "");
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.valueOf("multipart/mixed; boundary=" + boundary));
 
-            // Chiamata ai metodi di EngineWebService che restituiscono il file convertito
-            if (password != null && !password.trim().isEmpty()) {
-                if (mergeImages && targetFormat.equals("jpg")) {
-                    convertedOutputFile = engineWebService.conversione(extension, targetFormat, inputFileForEngine, password, mergeImages, outputDirectoryForEngine);
-                } else {
-                    convertedOutputFile = engineWebService.conversione(extension, targetFormat, inputFileForEngine, password, outputDirectoryForEngine);
+            Path workDir = conversionTempDir;
+            StreamingResponseBody body = outputStream -> {
+                MultipartOutputSink sink = new MultipartOutputSink(outputStream, boundary);
+                CancellationToken token = new CancellationToken();
+                try {
+                    engineWebService.streamConversion(srcExt, outExt, input.toFile(), password, sink, token);
+                    sink.finish();
+                } catch (Exception e) {
+                    token.cancel();
+                    Log.addMessage("ERRORE WebService: conversione con invio progressivo interrotta: " + e.getMessage());
+                    // Con il client disconnesso anche questa scrittura fallisce
+                    sink.fail(e.getMessage());
+                } finally {
+                    permit.release();
+                    FileSystemUtils.deleteRecursively(workDir.toFile());
                 }
-            } else {
-                if (mergeImages && targetFormat.equals("jpg")) {
-                    convertedOutputFile = engineWebService.conversione(extension, targetFormat, inputFileForEngine, mergeImages, outputDirectoryForEngine);
-                } else {
-                    if (formatiImmagini.contains(extension)) {
-                        convertedOutputFile = engineWebService.conversione(extension, targetFormat, inputFileForEngine, targetFormat);
-                    } else {
-                        convertedOutputFile = engineWebService.conversione(extension, targetFormat, inputFileForEngine, outputDirectoryForEngine);
-                    }
+            };
+            streaming = true;
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
+
+        } catch (Exception e) {
+            Log.addMessage("ERRORE WebService: Errore durante la conversione: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorBody("Errore durante la conversione: " + e.getMessage()));
+        } finally {
+            if (!streaming) {
+                permit.release();
+                if (conversionTempDir != null) {
+                    FileSystemUtils.deleteRecursively(conversionTempDir.toFile());
                 }
             }
+        }
+    }
 
-            // 4. Verifica che il file convertito esista
-            if (convertedOutputFile == null || !convertedOutputFile.exists()) {
-                throw new Exception("Il file convertito non è stato generato correttamente");
+    /**
+     * Conversione di più file con una sola richiesta.
+     * I file vengono convertiti in parallelo nei pool dello scheduler; la risposta è un archivio zip
+     * con le voci nell'ordine in cui le conversioni terminano e, in fondo, il manifest con l'esito di ogni file.
+     * targetFormats, se presente, indica il formato di ciascun file nello stesso ordine di files;
+     * i valori mancanti o vuoti usano targetFormat
+     */
+    @PostMapping("/convert/batch")
+    public ResponseEntity<?> convertBatch(
+            @RequestParam("files") MultipartFile[] files,
+            @RequestParam(value = "targetFormat", required = false) String targetFormat,
+            @RequestParam(value = "targetFormats", required = false) List<String> targetFormats,
+            @RequestParam(value = "password", required = false) String password,
+            @RequestParam(value = "mergeImages", required = false, defaultValue = "false") boolean mergeImages) {
+
+        BatchConversion batch = null;
+        boolean streaming = false;
+        try {
+            Log.addMessage("WebService: Inizio conversione batch di " + files.length + " file");
+            batch = new BatchConversion(engineWebService, Files.createTempDirectory("conversion-batch-"));
+            String[] safeNames = new String[files.length];
+            String[] targets = new String[files.length];
+            Set<ConversionScheduler.CostClass> costClasses = EnumSet.noneOf(ConversionScheduler.CostClass.class);
+            for (int i = 0; i < files.length; i++) {
+                String originalFilename = files[i].getOriginalFilename();
+                String target = targetFormats != null && i < targetFormats.size() && !targetFormats.get(i).trim().isEmpty()
+                        ? targetFormats.get(i).trim() : targetFormat;
+                targets[i] = target;
+                if (originalFilename == null || originalFilename.trim().isEmpty() || target == null || target.trim().isEmpty()) {
+                    continue;
+                }
+                // Solo il nome: un percorso nel nome caricato non deve uscire dalla directory del batch
+                safeNames[i] = Paths.get(originalFilename).getFileName().toString();
+                costClasses.add(engineWebService.getCostClass(getFileExtension(safeNames[i]), target.toLowerCase()));
             }
 
-            // 5. Leggi i byte del file convertito
-            byte[] fileBytes = Files.readAllBytes(convertedOutputFile.toPath());
-            Log.addMessage("WebService: File convertito letto, dimensione: " + fileBytes.length + " bytes");
+            // Il batch viene ammesso una sola volta per classe di costo: i suoi file attendono nella coda dello scheduler
+            // invece di occupare ciascuno un posto, quindi non vengono rifiutati dal proprio batch
+            for (ConversionScheduler.CostClass costClass : costClasses) {
+                try {
+                    batch.addPermit(admission.acquire(costClass));
+                } catch (AdmissionRejectedException e) {
+                    return tooManyRequests(e);
+                }
+            }
 
-            // 6. Determina il Content-Type corretto per la risposta HTTP
-            MediaType contentType = determineMediaType(targetFormat);
+            for (int i = 0; i < files.length; i++) {
+                if (safeNames[i] == null) {
+                    batch.reject(files[i].getOriginalFilename(), targets[i], "Nome del file o formato di destinazione mancante");
+                    continue;
+                }
+                Path input = batch.newItemDir().resolve(safeNames[i]);
+                files[i].transferTo(input);
+                batch.submit(input.toFile(), getFileExtension(safeNames[i]), targets[i].toLowerCase(), password, mergeImages);
+            }
 
-            // 7. Costruisci la risposta con i byte del file
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(contentType);
-            headers.setContentDispositionFormData("attachment", convertedOutputFile.getName());
-            headers.setContentLength(fileBytes.length);
+            headers.setContentType(MediaType.valueOf("application/zip"));
+            headers.setContentDispositionFormData("attachment", "batch_" + System.currentTimeMillis() + ".zip");
 
-            Log.addMessage("WebService: Conversione completata con successo per: " + originalFilename);
-            return new ResponseEntity<>(fileBytes, headers, HttpStatus.OK);
+            BatchConversion running = batch;
+            StreamingResponseBody body = outputStream -> {
+                try {
+                    running.writeZip(outputStream);
+                    Log.addMessage("WebService: Conversione batch completata (" + running.size() + " file)");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Conversione batch interrotta", e);
+                } catch (IOException e) {
+                    Log.addMessage("ERRORE WebService: invio del batch interrotto: " + e.getMessage());
+                    throw e;
+                } finally {
+                    running.close();
+                }
+            };
+            streaming = true;
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
 
         } catch (Exception e) {
-            Log.addMessage("ERRORE WebService: Errore durante conversione: " + e.getMessage());
-            e.printStackTrace();
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("error", "Errore durante la conversione: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+            Log.addMessage("ERRORE WebService: Errore durante la conversione batch: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorBody("Errore durante la conversione batch: " + e.getMessage()));
         } finally {
-            // 8. Pulisci i file temporanei e la directory temporanea
-            try {
-                if (tempInputFilePath != null && Files.exists(tempInputFilePath)) {
-                    Files.delete(tempInputFilePath);
-                    Log.addMessage("WebService: File temporaneo di input eliminato");
-                }
-                if (convertedOutputFile != null && Files.exists(convertedOutputFile.toPath())) {
-                    Files.delete(convertedOutputFile.toPath());
-                    Log.addMessage("WebService: File temporaneo di output eliminato");
+            if (batch != null && !streaming) {
+                batch.close();
+            }
+        }
+    }
+
+    /**
+     * Conversione asincrona: accoda un job e ritorna subito il suo identificativo
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<?> submitConversionJob(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("targetFormat") String targetFormat,
+            @RequestParam(value = "password", required = false) String password,
+            @RequestParam(value = "mergeImages", required = false, defaultValue = "false") boolean mergeImages) {
+        try {
+            ConversionJob job = submitJob(file, targetFormat, password, mergeImages);
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.LOCATION, "/api/converter/jobs/" + job.getId());
+            return new ResponseEntity<>(jobStatus(job), headers, HttpStatus.ACCEPTED);
+        } catch (AdmissionRejectedException e) {
+            return tooManyRequests(e);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorBody(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorBody(e.getMessage()));
+        } catch (Exception e) {
+            Log.addMessage("ERRORE WebService: Creazione job fallita: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorBody("Errore durante la creazione del job: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> getJobStatus(@PathVariable String id) {
+        ConversionJob job = jobManager.get(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(jobStatus(job));
+    }
+
+    @GetMapping("/jobs/{id}/progress")
+    public ResponseEntity<Map<String, Object>> getJobProgress(@PathVariable String id) {
+        ConversionJob job = jobManager.get(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobId", job.getId());
+        progress.put("state", job.getState().name());
+        progress.put("progress", job.getProgress());
+        if (job.getProgressDetail() != null) {
+            progress.put("progressDetail", job.getProgressDetail());
+        }
+        return ResponseEntity.ok(progress);
+    }
+
+    /**
+     * Stream di eventi (Server-Sent Events) con lo stato e l'avanzamento del job.
+     * Un evento "progress" viene inviato a ogni cambio di stato, a ogni avanzamento (al massimo ogni 250 ms)
+     * e comunque ogni EVENTS_HEARTBEAT_SECONDS; l'evento "end" con lo stato finale chiude lo stream
+     */
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamJobEvents(@PathVariable String id) {
+        ConversionJob job = jobManager.get(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        // Nessun timeout: lo stream termina con il job o con la chiusura della connessione
+        SseEmitter emitter = new SseEmitter(0L);
+        AtomicBoolean closed = new AtomicBoolean(false);
+        Runnable publish = () -> jobEvents.execute(() -> sendJobEvent(emitter, job, closed));
+        job.addListener(publish);
+        ScheduledFuture<?> heartbeat = jobEvents.scheduleWithFixedDelay(() -> sendJobEvent(emitter, job, closed),
+                EVENTS_HEARTBEAT_SECONDS, EVENTS_HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        Runnable unsubscribe = () -> {
+            closed.set(true);
+            job.removeListener(publish);
+            heartbeat.cancel(false);
+        };
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+        // Stato iniziale, che è anche quello finale se il job era già terminato
+        publish.run();
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Download del risultato di un job completato; il risultato resta disponibile fino alla scadenza del job
+     */
+    @GetMapping("/jobs/{id}/result")
+    public ResponseEntity<?> getJobResult(@PathVariable String id) {
+        ConversionJob job = jobManager.get(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.getState() != ConversionJob.State.COMPLETED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(jobStatus(job));
+        }
+        return streamResult(job, false);
+    }
+
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> cancelJob(@PathVariable String id) {
+        ConversionJob job = jobManager.cancel(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(jobStatus(job));
+    }
+
+    /**
+     * Salva il file caricato in una directory temporanea univoca e crea il job di conversione
+     * @throws IllegalArgumentException Nome del file mancante
+     */
+    private ConversionJob submitJob(MultipartFile file, String targetFormat, String password, boolean mergeImages) throws IOException, InterruptedException {
+        String originalFilename = file.getOriginalFilename();
+        if (originalFilename == null || originalFilename.trim().isEmpty()) {
+            throw new IllegalArgumentException("Nome del file mancante");
+        }
+        // Solo il nome: un percorso nel nome caricato non deve uscire dalla directory del job
+        String safeName = Paths.get(originalFilename).getFileName().toString();
+        String srcExt = getFileExtension(safeName);
+        // Il posto viene ottenuto prima di copiare il file: se il servizio è saturo la richiesta viene rifiutata subito
+        AdmissionController.Permit permit = admission.acquire(engineWebService.getCostClass(srcExt, targetFormat));
+        Path conversionTempDir = null;
+        try {
+            conversionTempDir = Files.createTempDirectory("conversion-" + UUID.randomUUID().toString() + "-");
+            Path tempInputFilePath = conversionTempDir.resolve(safeName);
+            file.transferTo(tempInputFilePath);
+            Log.addMessage("WebService: File salvato in: " + tempInputFilePath);
+            return jobManager.submit(tempInputFilePath.toFile(), srcExt, targetFormat, password, mergeImages, conversionTempDir, permit);
+        } catch (IOException | RuntimeException e) {
+            permit.release();
+            if (conversionTempDir != null) {
+                FileSystemUtils.deleteRecursively(conversionTempDir);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Risposta 429 con l'intestazione Retry-After stimata dal controllo di ammissione
+     */
+    private ResponseEntity<Map<String, Object>> tooManyRequests(AdmissionRejectedException e) {
+        Map<String, Object> body = errorBody(e.getMessage());
+        body.put("retryAfter", e.getRetryAfterSeconds());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(body);
+    }
+
+    /**
+     * Risposta che copia il file convertito con un buffer di dimensione fissa,
+     * quindi la memoria usata non dipende dalla dimensione del file
+     * @param job Job completato
+     * @param removeAfter true per eliminare il job quando l'invio è terminato
+     */
+    private ResponseEntity<StreamingResponseBody> streamResult(ConversionJob job, boolean removeAfter) {
+        File output = job.getResult();
+        HttpHeaders headers = new HttpHeaders();
+        // Le conversioni con più file prodotti restituiscono un archivio zip al posto del formato richiesto
+        headers.setContentType(determineMediaType(getFileExtension(output.getName())));
+        headers.setContentDispositionFormData("attachment", output.getName());
+        headers.setContentLength(output.length());
+
+        StreamingResponseBody body = outputStream -> {
+            try (InputStream in = Files.newInputStream(output.toPath())) {
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, n);
                 }
-                // Elimina la directory temporanea se vuota
-                if (conversionTempDir != null && Files.exists(conversionTempDir)) {
-                    Files.delete(conversionTempDir);
-                    Log.addMessage("WebService: Directory temporanea eliminata");
+                outputStream.flush();
+            } finally {
+                if (removeAfter) {
+                    jobManager.remove(job.getId());
                 }
-            } catch (IOException cleanupException) {
-                Log.addMessage("ERRORE WebService: Errore durante la pulizia dei file temporanei: " + cleanupException.getMessage());
-                cleanupException.printStackTrace();
             }
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Invia lo stato del job sullo stream di eventi; con il job terminato invia l'evento finale e chiude lo stream.
+     * Eseguito solo nel thread jobEvents, quindi gli invii sullo stesso stream non si sovrappongono
+     */
+    private void sendJobEvent(SseEmitter emitter, ConversionJob job, AtomicBoolean closed) {
+        if (closed.get()) {
+            return;
+        }
+        boolean terminal = job.getState().isTerminal();
+        try {
+            emitter.send(SseEmitter.event().name(terminal ? "end" : "progress").data(jobStatus(job), MediaType.APPLICATION_JSON));
+            if (terminal) {
+                closed.set(true);
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // Il client ha chiuso la connessione
+            closed.set(true);
+            emitter.completeWithError(e);
+        }
+    }
+
+    private Map<String, Object> jobStatus(ConversionJob job) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", job.getId());
+        status.put("state", job.getState().name());
+        status.put("progress", job.getProgress());
+        if (job.getProgressDetail() != null) {
+            status.put("progressDetail", job.getProgressDetail());
         }
+        status.put("sourceName", job.getSourceName());
+        status.put("targetFormat", job.getTargetFormat());
+        status.put("submittedAt", job.getSubmittedAt());
+        if (job.getStartedAt() > 0) {
+            status.put("startedAt", job.getStartedAt());
+        }
+        if (job.getFinishedAt() > 0) {
+            status.put("finishedAt", job.getFinishedAt());
+        }
+        if (job.getError() != null) {
+            status.put("error", job.getError());
+        }
+        if (job.getState() == ConversionJob.State.COMPLETED) {
+            status.put("resultUrl", "/api/converter/jobs/" + job.getId() + "/result");
+        }
+        return status;
+    }
+
+    private Map<String, Object> errorBody(String message) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("error", message);
+        return errorResponse;
     }
 
     private String getFileExtension(String filename) {
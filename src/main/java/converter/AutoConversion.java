@@ -0,0 +1,137 @@
+package converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Future;
+
+/**
+ * Conversione automatica dei file della cartella monitorata secondo le regole di config.json.
+ * Il file viene convertito dall'Engine locale nel pool dello scheduler relativo alla classe di costo della conversione,
+ * senza dialoghi: funziona anche senza interfaccia grafica. A conversione riuscita il file originale
+ * viene eliminato dalla cartella monitorata, se fallisce viene spostato nella cartella degli errori.
+ */
+public class AutoConversion {
+
+    /**
+     * Esito delle conversioni automatiche, chiamato nel thread della conversione
+     */
+    public interface Listener {
+
+        /**
+         * @param srcFile File convertito (già eliminato dalla cartella monitorata)
+         * @param rule Regola applicata
+         */
+        void onConverted(File srcFile, ConversionRule rule);
+
+        /**
+         * @param srcFile File non convertito (già spostato nella cartella degli errori)
+         * @param rule Regola applicata
+         * @param error Motivo del fallimento
+         */
+        void onFailed(File srcFile, ConversionRule rule, String error);
+    }
+
+    private final Engine engine;
+    private final Listener listener;
+
+    /**
+     * @param engine Engine che esegue le conversioni
+     * @param listener Destinatario degli esiti
+     */
+    public AutoConversion(Engine engine, Listener listener) {
+        if (engine == null) {
+            Log.addMessage("ERRORE: engine nullo");
+            throw new NullPointerException("L'oggetto engine non esiste");
+        }
+        if (listener == null) {
+            Log.addMessage("ERRORE: listener nullo");
+            throw new NullPointerException("L'oggetto listener non esiste");
+        }
+        this.engine = engine;
+        this.listener = listener;
+    }
+
+    /**
+     * Accoda la conversione del file se una regola gli corrisponde
+     * @param file File da convertire
+     * @param relative Percorso del file relativo alla cartella monitorata
+     * @param priority Priorità della conversione nel pool
+     * @return Future della conversione accodata, null se nessuna regola corrisponde e il file va gestito in altro modo
+     */
+    public Future<?> submit(File file, Path relative, ConversionScheduler.Priority priority) {
+        if (file == null) {
+            Log.addMessage("ERRORE: file nullo");
+            throw new NullPointerException("L'oggetto file non esiste");
+        }
+        ConversionRule rule = ConfigStore.get().findRule(relative != null ? relative : file.toPath().getFileName());
+        if (rule == null) {
+            return null;
+        }
+        String srcExt = getExtension(file);
+        Log.addMessage("Regola " + rule + " applicata a " + file.getName());
+        return engine.submitConversion(srcExt, rule.getTarget(), priority, () -> convert(file, srcExt, rule));
+    }
+
+    private void convert(File file, String srcExt, ConversionRule rule) {
+        String target = rule.getTarget();
+        // Come nella GUI la password vale solo per i PDF: i converter che lavorano solo su file non la accettano
+        boolean pdf = "pdf".equals(srcExt);
+        String password = pdf ? rule.resolvePassword() : null;
+        boolean merge = pdf && rule.isMerge() && "jpg".equals(target);
+        try {
+            // Stesse varianti usate dalla conversione con l'engine locale dalla GUI
+            if (password != null) {
+                if (merge) {
+                    engine.conversione(srcExt, target, file, password, true);
+                } else {
+                    engine.conversione(srcExt, target, file, password);
+                }
+            } else if (merge) {
+                engine.conversione(srcExt, target, file, true);
+            } else if (ConfigStore.get().isImageFormat(srcExt)) {
+                engine.conversione(srcExt, target, file, target);
+            } else {
+                engine.conversione(srcExt, target, file);
+            }
+        } catch (Exception e) {
+            Log.addMessage("ERRORE: conversione automatica di " + file.getName() + " fallita: " + e.getMessage());
+            moveToErrorDir(file);
+            listener.onFailed(file, rule, e.getMessage());
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: impossibile eliminare il file originale " + file.getAbsolutePath() + ": " + e.getMessage());
+        }
+        Log.addMessage("Conversione automatica completata: " + file.getName() + " -> " + target);
+        listener.onConverted(file, rule);
+    }
+
+    private void moveToErrorDir(File file) {
+        try {
+            // Alcuni errori dell'engine spostano già il file nella cartella degli errori
+            if (file.exists()) {
+                Path dest = Paths.get(engine.getConverterConfig().getErrorOutputDir(), file.getName());
+                Files.move(file.toPath(), dest, StandardCopyOption.REPLACE_EXISTING);
+                Log.addMessage("File spostato in: " + dest);
+            }
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: spostamento di " + file.getName() + " nella cartella degli errori fallito: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Estensione in minuscolo, stringa vuota se assente
+     */
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int lastDot = name.lastIndexOf('.');
+        return (lastDot == -1 || lastDot == name.length() - 1) ? "" : name.substring(lastDot + 1).toLowerCase();
+    }
+}
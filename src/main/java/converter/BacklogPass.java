@@ -0,0 +1,182 @@
+package converter;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Elaborazione dei file già presenti nella cartella monitorata all'avvio (ad esempio arrivati mentre l'applicazione era ferma).
+ * L'albero viene scansionato in parallelo tramite {@link FileIndex}, che esclude i file già consegnati e non modificati;
+ * i file restanti vengono accodati nell'ordine scelto in config.json (prima i meno recenti o prima i più piccoli)
+ * con priorità LOW, così i file che arrivano nel frattempo passano davanti all'arretrato.
+ * Solo un numero limitato di file dell'arretrato è in coda nello stesso momento: l'ordine resta quello scelto
+ * e l'avanzamento indica i file effettivamente elaborati.
+ */
+public class BacklogPass implements Runnable {
+
+    // File dell'arretrato in coda o in conversione nello stesso momento
+    private static final int WINDOW = Integer.getInteger("converter.backlog.window", 32);
+
+    private final FileIndex index;
+    private final String order;
+    private final Function<Path, Future<?>> handoff;
+    private final Consumer<Path> unstable;
+    private final Consumer<Path> directoryFound;
+
+    private final AtomicInteger total = new AtomicInteger(-1);
+    private final AtomicInteger done = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /**
+     * @param index Indice della cartella monitorata
+     * @param order Ordine di elaborazione: "oldest" oppure "smallest"
+     * @param handoff Avvio della conversione di un file, ritorna il Future dell'attività accodata
+     * @param unstable Destinatario dei file modificati da poco, forse ancora in copia
+     * @param directoryFound Destinatario delle directory trovate dalla scansione
+     */
+    public BacklogPass(FileIndex index, String order, Function<Path, Future<?>> handoff, Consumer<Path> unstable, Consumer<Path> directoryFound) {
+        if (index == null) {
+            Log.addMessage("ERRORE: index nullo");
+            throw new NullPointerException("L'oggetto index non esiste");
+        }
+        if (handoff == null) {
+            Log.addMessage("ERRORE: handoff nullo");
+            throw new NullPointerException("L'oggetto handoff non esiste");
+        }
+        if (unstable == null) {
+            Log.addMessage("ERRORE: unstable nullo");
+            throw new NullPointerException("L'oggetto unstable non esiste");
+        }
+        if (directoryFound == null) {
+            Log.addMessage("ERRORE: directoryFound nullo");
+            throw new NullPointerException("L'oggetto directoryFound non esiste");
+        }
+        this.index = index;
+        this.order = order == null ? "oldest" : order;
+        this.handoff = handoff;
+        this.unstable = unstable;
+        this.directoryFound = directoryFound;
+    }
+
+    @Override
+    public void run() {
+        try {
+            process();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.addMessage("Elaborazione dell'arretrato interrotta dopo " + done.get() + " file su " + total.get());
+        } finally {
+            running = false;
+        }
+    }
+
+    private void process() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        FileIndex.RescanResult result = index.rescan();
+        for (Path directory : result.getDirectories()) {
+            directoryFound.accept(directory);
+        }
+
+        List<FileIndex.FoundFile> files = new ArrayList<>(result.getFiles());
+        files.sort(comparator(order));
+        total.set(files.size());
+        if (files.isEmpty()) {
+            Log.addMessage("Nessun file arretrato da elaborare");
+            return;
+        }
+        Log.addMessage("Elaborazione dell'arretrato: " + files.size() + " file, ordine " + order);
+
+        int step = Math.max(1, files.size() / 10);
+        long settledBefore = System.currentTimeMillis() - FileIntake.getStableMillis();
+        Deque<Future<?>> inFlight = new ArrayDeque<>();
+        for (FileIndex.FoundFile file : files) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            if (file.getModified() > settledBefore) {
+                // Modificato da poco: potrebbe essere ancora in copia, lo consegna la coda dei file in arrivo
+                unstable.accept(file.getPath());
+                advance(step);
+                continue;
+            }
+            Future<?> future = handoff.apply(file.getPath());
+            if (future == null) {
+                advance(step);
+                continue;
+            }
+            inFlight.addLast(future);
+            while (inFlight.size() >= WINDOW) {
+                await(inFlight.pollFirst());
+                advance(step);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            await(inFlight.pollFirst());
+            advance(step);
+        }
+        Log.addMessage("Elaborazione dell'arretrato completata: " + files.size() + " file in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void await(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException | CancellationException e) {
+            // L'errore della singola conversione viene gestito da chi la esegue
+        }
+    }
+
+    private void advance(int step) {
+        int current = done.incrementAndGet();
+        if (current % step == 0 && current < total.get()) {
+            Log.addMessage("Elaborazione dell'arretrato: " + current + "/" + total.get() + " file");
+        }
+    }
+
+    private static Comparator<FileIndex.FoundFile> comparator(String order) {
+        if ("smallest".equals(order)) {
+            return Comparator.comparingLong(FileIndex.FoundFile::getSize).thenComparingLong(FileIndex.FoundFile::getModified);
+        }
+        if (!"oldest".equals(order)) {
+            Log.addMessage("ERRORE: ordine dell'arretrato " + order + " non valido, uso oldest");
+        }
+        return Comparator.comparingLong(FileIndex.FoundFile::getModified).thenComparingLong(FileIndex.FoundFile::getSize);
+    }
+
+    /**
+     * @return true finché l'arretrato non è stato elaborato completamente
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return Numero di file dell'arretrato, -1 se la scansione è ancora in corso
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return Numero di file dell'arretrato già elaborati
+     */
+    public int getDone() {
+        return done.get();
+    }
+
+    /**
+     * @return Riepilogo dell'avanzamento per la GUI
+     */
+    public String getSummary() {
+        int t = total.get();
+        return t < 0 ? "Arretrato: scansione in corso" : "Arretrato: " + done.get() + "/" + t;
+    }
+}
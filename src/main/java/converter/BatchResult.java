@@ -0,0 +1,104 @@
+package converter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Esito di una conversione batch: risultato di ogni file (stato, durata, file prodotti o errore)
+ * e contatori aggregati.
+ */
+public class BatchResult {
+    private final List<Item> items;
+    private final long elapsedMillis;
+    private final int succeeded;
+
+    /**
+     * @param items Esiti dei singoli file, nell'ordine di input
+     * @param elapsedMillis Durata complessiva del batch
+     */
+    public BatchResult(List<Item> items, long elapsedMillis) {
+        if (items == null) {
+            Log.addMessage("ERRORE: items nullo");
+            throw new NullPointerException("L'oggetto items non esiste");
+        }
+        this.items = Collections.unmodifiableList(new ArrayList<>(items));
+        this.elapsedMillis = elapsedMillis;
+        int ok = 0;
+        for (Item item : items) {
+            if (item.isSuccess()) ok++;
+        }
+        this.succeeded = ok;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return items.size() - succeeded;
+    }
+
+    /**
+     * Esito della conversione di un singolo file
+     */
+    public static final class Item {
+        private final File source;
+        private final boolean success;
+        private final long durationMillis;
+        private final List<File> outputs;
+        private final String error;
+
+        private Item(File source, boolean success, long durationMillis, List<File> outputs, String error) {
+            this.source = source;
+            this.success = success;
+            this.durationMillis = durationMillis;
+            this.outputs = outputs;
+            this.error = error;
+        }
+
+        static Item succeeded(File source, long durationMillis, List<File> outputs) {
+            List<File> copy = outputs == null ? Collections.<File>emptyList() : Collections.unmodifiableList(new ArrayList<>(outputs));
+            return new Item(source, true, durationMillis, copy, null);
+        }
+
+        static Item failed(File source, long durationMillis, String error) {
+            return new Item(source, false, durationMillis, Collections.<File>emptyList(), error);
+        }
+
+        public File getSource() {
+            return source;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return File prodotti nella cartella di successo, lista vuota se la conversione è fallita
+         */
+        public List<File> getOutputs() {
+            return outputs;
+        }
+
+        /**
+         * @return Messaggio di errore, null se la conversione è riuscita
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package converter;
+
+import com.google.gson.Gson;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Fotografia immutabile di config.json: la configurazione letta, il testo originale
+ * e le strutture di ricerca calcolate una volta sola (tabella di dispatch, planner, insiemi di estensioni).
+ * Una nuova configurazione produce una nuova istanza, che viene pubblicata da {@link ConfigStore}:
+ * chi legge non tocca mai il disco e non vede mai una configurazione a metà.
+ */
+public final class ConfigSnapshot {
+
+    // Converter usato dalle coppie tra formati immagine
+    private static final String IMAGE_CONVERTER = "Converters.ImageConverter";
+
+    private final ConverterConfig config;
+    private final String json;
+    private final ConversionPlanner planner;
+    private final Set<String> sourceExtensions;
+    private final Set<String> imageFormats;
+    private final long loadedAt;
+
+    private ConfigSnapshot(ConverterConfig config, String json, ConversionPlanner planner,
+                           Set<String> sourceExtensions, Set<String> imageFormats) {
+        this.config = config;
+        this.json = json;
+        this.planner = planner;
+        this.sourceExtensions = sourceExtensions;
+        this.imageFormats = imageFormats;
+        this.loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Legge il testo di config.json (una sola volta) e costruisce tutte le strutture derivate
+     * @param json Contenuto di config.json
+     * @return Configurazione pronta per essere pubblicata
+     * @throws Exception Se il JSON non è valido
+     */
+    public static ConfigSnapshot parse(String json) throws Exception {
+        if (json == null) {
+            Log.addMessage("ERRORE: json nullo");
+            throw new NullPointerException("L'oggetto json non esiste");
+        }
+
+        ConverterConfig config;
+        try {
+            config = new Gson().fromJson(json, ConverterConfig.class);
+        } catch (RuntimeException e) {
+            throw new Exception("JSON non valido: " + e.getMessage(), e);
+        }
+        if (config == null) {
+            throw new Exception("JSON non valido: impossibile parsare la configurazione");
+        }
+
+        ConverterRegistry registry = ConverterRegistry.build(config);
+        Set<String> sources = new TreeSet<>();
+        Set<String> images = new TreeSet<>();
+        Map<String, Map<String, String>> conversions = config.getConversions();
+        if (conversions != null) {
+            for (Map.Entry<String, Map<String, String>> src : conversions.entrySet()) {
+                sources.add(src.getKey());
+                if (src.getValue() != null && src.getValue().containsValue(IMAGE_CONVERTER)) {
+                    images.add(src.getKey());
+                }
+            }
+        }
+        return new ConfigSnapshot(config, json, new ConversionPlanner(registry),
+                Collections.unmodifiableSet(sources), Collections.unmodifiableSet(images));
+    }
+
+    public ConverterConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return Testo di config.json da cui è stata costruita la configurazione
+     */
+    public String getJson() {
+        return json;
+    }
+
+    public ConversionPlanner getPlanner() {
+        return planner;
+    }
+
+    public ConverterRegistry getRegistry() {
+        return planner.getRegistry();
+    }
+
+    /**
+     * @return Estensioni che compaiono come sorgente in config.json
+     */
+    public Set<String> getSourceExtensions() {
+        return sourceExtensions;
+    }
+
+    /**
+     * @return Formati sorgente gestiti dal convertitore di immagini
+     */
+    public Set<String> getImageFormats() {
+        return imageFormats;
+    }
+
+    /**
+     * @param extension Estensione da controllare
+     * @return true se l'estensione è un formato immagine secondo config.json
+     */
+    public boolean isImageFormat(String extension) {
+        return extension != null && imageFormats.contains(extension.toLowerCase());
+    }
+
+    /**
+     * @param relative Percorso del file relativo alla cartella monitorata
+     * @return Prima regola di conversione automatica che corrisponde al file, null se nessuna
+     */
+    public ConversionRule findRule(Path relative) {
+        for (ConversionRule rule : config.getRules()) {
+            if (rule != null && rule.matches(relative)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Istante (ms) in cui la configurazione è stata costruita
+     */
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+}
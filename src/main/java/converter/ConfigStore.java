@@ -0,0 +1,170 @@
+package converter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Punto unico di accesso alla configurazione, condiviso da Engine ed EngineWebService.
+ * La configurazione corrente è un {@link ConfigSnapshot} immutabile sostituito in modo atomico:
+ * i lettori ottengono sempre una configurazione completa senza leggere il file né attendere un ricaricamento.
+ * Un thread in background osserva config.json e ricarica la configurazione quando il file cambia;
+ * se il nuovo contenuto non è valido resta in uso quella precedente.
+ */
+public final class ConfigStore {
+
+    private static final Path CONFIG_PATH = Paths.get(System.getProperty("user.dir"), "src", "main", "java", "converter", "config", "config.json");
+    // Attesa dopo una modifica, per leggere il file una sola volta quando l'editor lo salva in più scritture
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private static final AtomicReference<ConfigSnapshot> current = new AtomicReference<>();
+    private static final Object writeLock = new Object();
+    private static Thread watcherThread = null;
+
+    private ConfigStore() {
+    }
+
+    /**
+     * Ritorna la configurazione corrente, caricandola alla prima richiesta
+     * @return Configurazione corrente
+     * @throws RuntimeException Se config.json non può essere letto al primo caricamento
+     */
+    public static ConfigSnapshot get() {
+        ConfigSnapshot snapshot = current.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (writeLock) {
+            if (current.get() == null) {
+                reload();
+            }
+            return current.get();
+        }
+    }
+
+    /**
+     * Rilegge config.json e pubblica la nuova configurazione
+     * @return Configurazione pubblicata
+     * @throws RuntimeException Se il file non può essere letto o non è valido
+     */
+    public static ConfigSnapshot reload() {
+        synchronized (writeLock) {
+            try {
+                ConfigSnapshot snapshot = ConfigSnapshot.parse(new String(Files.readAllBytes(CONFIG_PATH), StandardCharsets.UTF_8));
+                publish(snapshot);
+                Log.addMessage("Configurazione caricata correttamente da config.json");
+                return snapshot;
+            } catch (Exception e) {
+                Log.addMessage("ERRORE: Lettura del file di configurazione fallita");
+                throw new RuntimeException("Errore nella lettura del file di configurazione", e);
+            }
+        }
+    }
+
+    /**
+     * Valida il testo, lo scrive su config.json e pubblica la nuova configurazione.
+     * Il file viene scritto in un file temporaneo e poi rinominato, così il watcher
+     * (o un altro processo) non legge mai un file scritto a metà.
+     * @param json Nuovo contenuto di config.json
+     * @return Configurazione pubblicata
+     * @throws Exception Se il JSON non è valido o la scrittura fallisce
+     */
+    public static ConfigSnapshot update(String json) throws Exception {
+        ConfigSnapshot snapshot = ConfigSnapshot.parse(json);
+        synchronized (writeLock) {
+            Path temp = CONFIG_PATH.resolveSibling(CONFIG_PATH.getFileName() + ".tmp");
+            try {
+                Files.write(temp, json.getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.move(temp, CONFIG_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, CONFIG_PATH, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            publish(snapshot);
+            Log.addMessage("Scrittura su config.json completata");
+            return snapshot;
+        }
+    }
+
+    private static void publish(ConfigSnapshot snapshot) {
+        current.set(snapshot);
+        startWatcher();
+    }
+
+    /**
+     * Avvia (una sola volta) il thread che osserva la cartella di config.json
+     */
+    private static void startWatcher() {
+        if (watcherThread != null) {
+            return;
+        }
+        watcherThread = new Thread(ConfigStore::watchLoop, "config-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    private static void watchLoop() {
+        Path dir = CONFIG_PATH.getParent();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            dir.register(watchService, ENTRY_MODIFY, ENTRY_CREATE);
+            Log.addMessage("Osservazione di config.json avviata");
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context == null || CONFIG_PATH.getFileName().equals(context)) {
+                        changed = true;
+                    }
+                }
+                if (!key.reset()) {
+                    Log.addMessage("ERRORE: cartella di config.json non più accessibile, osservazione terminata");
+                    return;
+                }
+                if (changed) {
+                    // Gli eventi successivi della stessa scrittura vengono assorbiti dall'attesa
+                    TimeUnit.MILLISECONDS.sleep(DEBOUNCE_MILLIS);
+                    WatchKey pending = watchService.poll();
+                    if (pending != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    reloadIfChanged();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: osservazione di config.json non disponibile: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ricarica la configurazione se il contenuto del file è diverso da quello pubblicato
+     * (le scritture fatte da {@link #update(String)} sono già pubblicate e vengono ignorate)
+     */
+    private static void reloadIfChanged() {
+        synchronized (writeLock) {
+            try {
+                String json = new String(Files.readAllBytes(CONFIG_PATH), StandardCharsets.UTF_8);
+                ConfigSnapshot snapshot = current.get();
+                if (snapshot != null && json.equals(snapshot.getJson())) {
+                    return;
+                }
+                current.set(ConfigSnapshot.parse(json));
+                Log.addMessage("Configurazione ricaricata da config.json dopo una modifica del file");
+            } catch (Exception e) {
+                Log.addMessage("ERRORE: config.json modificato ma non valido, resta in uso la configurazione precedente: " + e.getMessage());
+            }
+        }
+    }
+}
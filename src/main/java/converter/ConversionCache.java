@@ -0,0 +1,448 @@
+package converter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache dei risultati delle conversioni, indirizzata per contenuto.
+ * La chiave è lo SHA-256 dei byte del sorgente insieme al formato richiesto, ai converter usati
+ * e ai parametri (password, unione delle pagine): lo stesso file ricevuto due volte, anche con un nome diverso,
+ * non viene riconvertito.
+ * Due livelli, entrambi con eliminazione LRU limitata per dimensione:
+ * - memoria: risultati piccoli e usati di recente
+ * - disco (src/cache): una cartella per chiave, sopravvive ai riavvii
+ * I risultati delle conversioni con password (PDF protetti, quindi decifrati) restano solo in memoria:
+ * il contenuto in chiaro non viene mai scritto in src/cache.
+ */
+public class ConversionCache {
+
+    // Nome usato al posto del nome base del sorgente nei file salvati in cache
+    private static final String BASE_NAME_PLACEHOLDER = "@base@";
+    // Prefisso delle chiavi delle conversioni con password, tenute solo nel livello in memoria
+    private static final String MEMORY_ONLY_PREFIX = "m-";
+
+    private final File directory;
+    private final long maxMemoryBytes;
+    private final long maxMemoryEntryBytes;
+    private final long maxDiskBytes;
+
+    // Ordine di accesso: il primo elemento è il meno usato di recente
+    private final LinkedHashMap<String, List<CachedFile>> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Crea la cache con i limiti predefiniti: 64 MB in memoria (al massimo 8 MB per risultato), 512 MB su disco
+     */
+    public ConversionCache() {
+        this(new File("src/cache"), 64L * 1024 * 1024, 8L * 1024 * 1024, 512L * 1024 * 1024);
+    }
+
+    /**
+     * @param directory Cartella del livello su disco
+     * @param maxMemoryBytes Dimensione massima del livello in memoria
+     * @param maxMemoryEntryBytes Dimensione massima di un risultato per essere tenuto in memoria
+     * @param maxDiskBytes Dimensione massima del livello su disco
+     */
+    public ConversionCache(File directory, long maxMemoryBytes, long maxMemoryEntryBytes, long maxDiskBytes) {
+        if (directory == null) {
+            Log.addMessage("ERRORE: directory nullo");
+            throw new NullPointerException("L'oggetto directory non esiste");
+        }
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxMemoryEntryBytes = maxMemoryEntryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        loadDiskIndex();
+    }
+
+    /**
+     * Calcola la chiave di cache di una conversione
+     * @param srcFile File sorgente, letto per intero per calcolarne l'hash
+     * @param signature Descrizione dei converter usati (formato finale e classi della catena)
+     * @param password Password per file criptati (può essere null)
+     * @param union Flag di unione delle immagini estratte dal PDF (può essere null)
+     * @return Chiave esadecimale
+     * @throws IOException Errore nella lettura del sorgente
+     */
+    public static String key(File srcFile, String signature, String password, Boolean union) throws IOException {
+        if (srcFile == null) {
+            Log.addMessage("ERRORE: srcFile nullo");
+            throw new NullPointerException("L'oggetto srcFile non esiste");
+        }
+        if (signature == null) {
+            Log.addMessage("ERRORE: signature nullo");
+            throw new NullPointerException("L'oggetto signature non esiste");
+        }
+
+        MessageDigest digest = sha256();
+        try (InputStream in = new FileInputStream(srcFile)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        // La password entra nell'hash (e non solo la sua presenza): una password sbagliata non deve
+        // restituire il contenuto decifrato con quella giusta
+        String params = "|" + signature + "|pwd=" + (password == null ? "" : password) + "|union=" + union;
+        digest.update(params.getBytes(StandardCharsets.UTF_8));
+        return (password == null ? "" : MEMORY_ONLY_PREFIX) + toHex(digest.digest());
+    }
+
+    /**
+     * Cerca il risultato in cache e, se presente, ne scrive i file nella cartella indicata
+     * @param key Chiave calcolata con {@link #key(File, String, String, Boolean)}
+     * @param baseName Nome base del sorgente attuale, usato per dare il nome ai file
+     * @param outputDir Cartella in cui scrivere i file
+     * @return File scritti, null se il risultato non è in cache
+     */
+    public List<File> restore(String key, String baseName, File outputDir) {
+        if (key == null) {
+            Log.addMessage("ERRORE: key nullo");
+            throw new NullPointerException("L'oggetto key non esiste");
+        }
+        if (baseName == null) {
+            Log.addMessage("ERRORE: baseName nullo");
+            throw new NullPointerException("L'oggetto baseName non esiste");
+        }
+        if (outputDir == null) {
+            Log.addMessage("ERRORE: outputDir nullo");
+            throw new NullPointerException("L'oggetto outputDir non esiste");
+        }
+
+        List<CachedFile> cached;
+        synchronized (this) {
+            cached = memory.get(key);
+        }
+
+        // File già scritti in outputDir: se il ripristino fallisce a metà vengono eliminati,
+        // così la conversione che segue il mancato ritrovamento non li trova nella cartella
+        List<File> written = new ArrayList<>();
+        try {
+            if (cached != null) {
+                write(cached, baseName, outputDir, written);
+                memoryHits.incrementAndGet();
+                return written;
+            }
+
+            File entryDir = new File(directory, key);
+            Long size;
+            synchronized (this) {
+                size = disk.get(key);
+            }
+            if (size != null && entryDir.isDirectory()) {
+                entryDir.setLastModified(System.currentTimeMillis());
+                if (size > maxMemoryEntryBytes) {
+                    // Risultato grande: copiato dal disco senza passare dall'heap
+                    copy(entryDir, baseName, outputDir, written);
+                } else {
+                    List<CachedFile> loaded = readEntry(entryDir);
+                    putInMemory(key, loaded);
+                    write(loaded, baseName, outputDir, written);
+                }
+                diskHits.incrementAndGet();
+                return written;
+            }
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: lettura dalla cache fallita per " + key + ": " + e.getMessage());
+            for (File f : written) {
+                if (f.exists() && !f.delete()) {
+                    Log.addMessage("ERRORE: impossibile eliminare il file parziale " + f.getAbsolutePath());
+                }
+            }
+            remove(key);
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Salva in cache i file prodotti da una conversione riuscita
+     * @param key Chiave della conversione
+     * @param baseName Nome base del sorgente, sostituito da un segnaposto nei nomi salvati
+     * @param outputs File prodotti
+     */
+    public void put(String key, String baseName, List<File> outputs) {
+        if (key == null) {
+            Log.addMessage("ERRORE: key nullo");
+            throw new NullPointerException("L'oggetto key non esiste");
+        }
+        if (baseName == null) {
+            Log.addMessage("ERRORE: baseName nullo");
+            throw new NullPointerException("L'oggetto baseName non esiste");
+        }
+        if (outputs == null || outputs.isEmpty()) {
+            return;
+        }
+
+        long size = 0;
+        for (File f : outputs) {
+            size += f.length();
+        }
+        if (key.startsWith(MEMORY_ONLY_PREFIX)) {
+            putMemoryOnly(key, baseName, outputs, size);
+            return;
+        }
+        if (size > maxDiskBytes) {
+            return;
+        }
+
+        File entryDir = new File(directory, key);
+        File tmpDir = new File(directory, key + ".tmp-" + Thread.currentThread().getId());
+        try {
+            Files.createDirectories(tmpDir.toPath());
+            List<String> names = new ArrayList<>();
+            for (File f : outputs) {
+                String name = toCachedName(f.getName(), baseName);
+                names.add(name);
+                Files.copy(f.toPath(), new File(tmpDir, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            // L'ordine dei file (es. pagine del PDF) viene conservato in un indice
+            Files.write(new File(tmpDir, ".index").toPath(), names, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmpDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Un'altra conversione ha già salvato lo stesso risultato
+                deleteRecursively(tmpDir);
+                return;
+            }
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: scrittura in cache fallita per " + key + ": " + e.getMessage());
+            deleteRecursively(tmpDir);
+            return;
+        }
+
+        List<File> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = disk.put(key, size);
+            diskBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                diskBytes -= eldest.getValue();
+                evicted.add(new File(directory, eldest.getKey()));
+                it.remove();
+            }
+        }
+        for (File dir : evicted) {
+            deleteRecursively(dir);
+        }
+
+        if (size <= maxMemoryEntryBytes) {
+            try {
+                putInMemory(key, readEntry(entryDir));
+            } catch (IOException e) {
+                Log.addMessage("ERRORE: lettura dalla cache fallita per " + key + ": " + e.getMessage());
+            }
+        }
+        Log.addMessage("Risultato salvato in cache: " + key + " (" + outputs.size() + " file, " + size + " byte)");
+    }
+
+    /**
+     * Salva nel solo livello in memoria il risultato di una conversione con password
+     */
+    private void putMemoryOnly(String key, String baseName, List<File> outputs, long size) {
+        if (size > maxMemoryEntryBytes) {
+            return;
+        }
+        List<CachedFile> files = new ArrayList<>();
+        try {
+            for (File f : outputs) {
+                files.add(new CachedFile(toCachedName(f.getName(), baseName), Files.readAllBytes(f.toPath())));
+            }
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: scrittura in cache fallita per " + key + ": " + e.getMessage());
+            return;
+        }
+        putInMemory(key, files);
+        Log.addMessage("Risultato salvato in cache (solo memoria): " + key + " (" + outputs.size() + " file, " + size + " byte)");
+    }
+
+    /**
+     * @return Risultati trovati nel livello in memoria
+     */
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * @return Risultati trovati nel livello su disco
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return Conversioni non trovate in cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Rapporto tra risultati trovati e richieste totali, 0 se non ci sono state richieste
+     */
+    public double getHitRatio() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private synchronized void putInMemory(String key, List<CachedFile> files) {
+        long size = 0;
+        for (CachedFile f : files) {
+            size += f.data.length;
+        }
+        if (size > maxMemoryEntryBytes) {
+            return;
+        }
+        List<CachedFile> previous = memory.put(key, files);
+        memoryBytes += size - sizeOf(previous);
+        Iterator<Map.Entry<String, List<CachedFile>>> it = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+            Map.Entry<String, List<CachedFile>> eldest = it.next();
+            memoryBytes -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            memoryBytes -= sizeOf(memory.remove(key));
+            Long size = disk.remove(key);
+            if (size != null) {
+                diskBytes -= size;
+            }
+        }
+        deleteRecursively(new File(directory, key));
+    }
+
+    /**
+     * Ricostruisce l'indice del livello su disco, dal meno al più recentemente usato
+     */
+    private void loadDiskIndex() {
+        File[] entries = directory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entryDir : entries) {
+            if (!entryDir.isDirectory() || entryDir.getName().contains(".tmp-")) {
+                deleteRecursively(entryDir);
+                continue;
+            }
+            long size = 0;
+            File[] files = entryDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    size += f.length();
+                }
+            }
+            disk.put(entryDir.getName(), size);
+            diskBytes += size;
+        }
+        Log.addMessage("Cache conversioni: " + disk.size() + " risultati su disco (" + diskBytes + " byte)");
+    }
+
+    private static List<CachedFile> readEntry(File entryDir) throws IOException {
+        List<CachedFile> files = new ArrayList<>();
+        for (String name : Files.readAllLines(new File(entryDir, ".index").toPath(), StandardCharsets.UTF_8)) {
+            files.add(new CachedFile(name, Files.readAllBytes(new File(entryDir, name).toPath())));
+        }
+        return files;
+    }
+
+    /**
+     * Scrive i file in outputDir, aggiungendo ciascuno a written prima di scriverlo
+     */
+    private static void write(List<CachedFile> files, String baseName, File outputDir, List<File> written) throws IOException {
+        Files.createDirectories(outputDir.toPath());
+        for (CachedFile f : files) {
+            File out = new File(outputDir, f.name.replace(BASE_NAME_PLACEHOLDER, baseName));
+            written.add(out);
+            Files.write(out.toPath(), f.data);
+        }
+    }
+
+    /**
+     * Copia i file della voce su disco in outputDir, aggiungendo ciascuno a written prima di copiarlo
+     */
+    private static void copy(File entryDir, String baseName, File outputDir, List<File> written) throws IOException {
+        Files.createDirectories(outputDir.toPath());
+        for (String name : Files.readAllLines(new File(entryDir, ".index").toPath(), StandardCharsets.UTF_8)) {
+            File out = new File(outputDir, name.replace(BASE_NAME_PLACEHOLDER, baseName));
+            written.add(out);
+            Files.copy(new File(entryDir, name).toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String toCachedName(String name, String baseName) {
+        return name.startsWith(baseName) ? BASE_NAME_PLACEHOLDER + name.substring(baseName.length()) : name;
+    }
+
+    private static long sizeOf(List<CachedFile> files) {
+        long size = 0;
+        if (files != null) {
+            for (CachedFile f : files) {
+                size += f.data.length;
+            }
+        }
+        return size;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Log.addMessage("ERRORE: impossibile eliminare " + file.getAbsolutePath());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * File salvato in cache: nome (con segnaposto per il nome base) e contenuto
+     */
+    private static final class CachedFile {
+        private final String name;
+        private final byte[] data;
+
+        private CachedFile(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+}
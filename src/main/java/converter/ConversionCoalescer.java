@@ -0,0 +1,120 @@
+package converter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Unione delle conversioni identiche in corso nello stesso momento.
+ * La chiave è quella della cache (hash del contenuto, converter usati e parametri): la prima richiesta esegue
+ * la conversione, le richieste identiche che arrivano mentre è in corso ne attendono la fine e poi leggono
+ * il risultato dalla cache, dove la conversione lo ha appena salvato, invece di convertire di nuovo lo stesso file.
+ * Condiviso da Engine ed EngineWebService.
+ */
+public class ConversionCoalescer {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final ConversionMetrics metrics;
+
+    /**
+     * @param metrics Metriche su cui contare le richieste unite a una conversione già in corso
+     */
+    public ConversionCoalescer(ConversionMetrics metrics) {
+        if (metrics == null) {
+            Log.addMessage("ERRORE: metrics nullo");
+            throw new NullPointerException("L'oggetto metrics non esiste");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Esegue la conversione, oppure attende quella identica già in corso e ne riusa il risultato.
+     * Se dopo l'attesa il risultato non è in cache (troppo grande, oppure salvato in una forma diversa)
+     * o la conversione in corso è stata annullata, la richiesta riparte, eventualmente eseguendo la conversione.
+     * Se la conversione in corso fallisce, l'errore viene riportato anche alle richieste in attesa
+     * @param key Chiave di cache della conversione
+     * @param conversion Esecuzione della conversione, che deve salvare il risultato in cache prima di terminare
+     * @param restore Lettura del risultato dalla cache, null se assente
+     * @return Risultato della conversione o della lettura dalla cache
+     * @throws Exception Errore della conversione, propria o di quella attesa
+     */
+    public <T> T execute(String key, Callable<T> conversion, Callable<T> restore) throws Exception {
+        return execute(key, conversion, restore, cause -> { });
+    }
+
+    /**
+     * Come {@link #execute(String, Callable, Callable)}, con la gestione dell'errore per il file di chi attende
+     * @param sharedFailure Chiamato da una richiesta in attesa, prima di riportare l'errore, quando la conversione
+     *                      attesa fallisce: riceve la causa, così il file della richiesta segue la stessa sorte di quello
+     *                      della conversione fallita (es. lo spostamento nella cartella degli errori)
+     */
+    public <T> T execute(String key, Callable<T> conversion, Callable<T> restore, Consumer<Throwable> sharedFailure) throws Exception {
+        if (key == null) {
+            Log.addMessage("ERRORE: key nullo");
+            throw new NullPointerException("L'oggetto key non esiste");
+        }
+        if (conversion == null) {
+            Log.addMessage("ERRORE: conversion nullo");
+            throw new NullPointerException("L'oggetto conversion non esiste");
+        }
+        if (restore == null) {
+            Log.addMessage("ERRORE: restore nullo");
+            throw new NullPointerException("L'oggetto restore non esiste");
+        }
+        if (sharedFailure == null) {
+            Log.addMessage("ERRORE: sharedFailure nullo");
+            throw new NullPointerException("L'oggetto sharedFailure non esiste");
+        }
+
+        while (true) {
+            CompletableFuture<Void> own = new CompletableFuture<>();
+            CompletableFuture<Void> running = inFlight.putIfAbsent(key, own);
+            if (running == null) {
+                return lead(key, own, conversion);
+            }
+
+            metrics.recordCoalesced();
+            Log.addMessage("Conversione identica già in corso, attesa del risultato (" + key.substring(0, Math.min(12, key.length())) + ")");
+            try {
+                running.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (!(cause instanceof CancellationException) && !(cause instanceof InterruptedException)) {
+                    sharedFailure.accept(cause);
+                    throw new Exception(cause.getMessage(), cause);
+                }
+                // Conversione annullata da chi l'aveva richiesta: non è un errore del file
+            }
+            T shared = restore.call();
+            if (shared != null) {
+                return shared;
+            }
+        }
+    }
+
+    private <T> T lead(String key, CompletableFuture<Void> own, Callable<T> conversion) throws Exception {
+        try {
+            T result = conversion.call();
+            own.complete(null);
+            return result;
+        } catch (Exception e) {
+            own.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * @return Numero di conversioni in corso
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,336 @@
+package converter;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metriche delle conversioni: istogramma delle durate, byte letti e scritti per coppia di formati
+ * e numero di errori per tipo di eccezione, più i tempi di attesa e i rifiuti del controllo di ammissione del web service.
+ * Le metriche vengono esportate in formato testo Prometheus insieme allo stato dello scheduler e della cache.
+ */
+public class ConversionMetrics {
+
+    // Limiti superiori (in secondi) dei bucket dell'istogramma delle durate
+    private static final double[] BUCKETS = {0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private final Map<String, PairStats> pairs = new ConcurrentHashMap<>();
+    private final Map<ConversionScheduler.CostClass, AdmissionStats> admission = new EnumMap<>(ConversionScheduler.CostClass.class);
+    private final LongAdder coalesced = new LongAdder();
+
+    public ConversionMetrics() {
+        for (ConversionScheduler.CostClass costClass : ConversionScheduler.CostClass.values()) {
+            admission.put(costClass, new AdmissionStats());
+        }
+    }
+
+    /**
+     * Registra una conversione riuscita
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @param nanos Durata in nanosecondi
+     * @param bytesIn Dimensione del sorgente
+     * @param bytesOut Dimensione totale dei file prodotti
+     */
+    public void recordSuccess(String srcExt, String outExt, long nanos, long bytesIn, long bytesOut) {
+        PairStats stats = stats(srcExt, outExt);
+        stats.buckets.incrementAndGet(bucket(nanos / 1_000_000_000.0));
+        stats.count.increment();
+        stats.sumNanos.add(nanos);
+        stats.bytesIn.add(bytesIn);
+        stats.bytesOut.add(bytesOut);
+    }
+
+    /**
+     * Registra una conversione fallita
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @param error Eccezione ricevuta: si conta il tipo della causa originale
+     */
+    public void recordFailure(String srcExt, String outExt, Throwable error) {
+        Throwable root = error;
+        // Le eccezioni generiche che incapsulano la causa vengono saltate
+        while (root.getCause() != null && root.getClass() == Exception.class) {
+            root = root.getCause();
+        }
+        stats(srcExt, outExt).failures.computeIfAbsent(root.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Registra una richiesta ammessa dal controllo di ammissione
+     * @param costClass Classe di costo della conversione
+     * @param waitNanos Tempo trascorso in attesa di un posto libero
+     */
+    public void recordAdmission(ConversionScheduler.CostClass costClass, long waitNanos) {
+        AdmissionStats stats = admission.get(costClass);
+        stats.buckets.incrementAndGet(bucket(waitNanos / 1_000_000_000.0));
+        stats.admitted.increment();
+        stats.waitNanos.add(waitNanos);
+    }
+
+    /**
+     * Registra una richiesta rifiutata dal controllo di ammissione
+     * @param costClass Classe di costo della conversione
+     */
+    public void recordRejection(ConversionScheduler.CostClass costClass) {
+        admission.get(costClass).rejected.increment();
+    }
+
+    /**
+     * Registra una richiesta unita a una conversione identica già in corso
+     */
+    public void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    /**
+     * @return Numero di richieste che hanno riusato il risultato di una conversione identica già in corso
+     */
+    public long getTotalCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Numero totale di richieste rifiutate dal controllo di ammissione
+     */
+    public long getTotalRejected() {
+        long total = 0;
+        for (AdmissionStats stats : admission.values()) {
+            total += stats.rejected.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @param files File prodotti da una conversione
+     * @return Dimensione totale in byte
+     */
+    public static long totalSize(List<File> files) {
+        long size = 0;
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Numero totale di conversioni riuscite
+     */
+    public long getTotalConversions() {
+        long total = 0;
+        for (PairStats stats : pairs.values()) {
+            total += stats.count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return Numero totale di conversioni fallite
+     */
+    public long getTotalFailures() {
+        long total = 0;
+        for (PairStats stats : pairs.values()) {
+            for (LongAdder failures : stats.failures.values()) {
+                total += failures.sum();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Esporta le metriche in formato testo Prometheus
+     * @param scheduler Scheduler di cui riportare attività in esecuzione e in coda
+     * @param cache Cache di cui riportare risultati trovati e mancati
+     * @return Testo in formato exposition 0.0.4
+     */
+    public String toPrometheus(ConversionScheduler scheduler, ConversionCache cache) {
+        StringBuilder sb = new StringBuilder(4096);
+        Map<String, PairStats> sorted = new TreeMap<>(pairs);
+
+        sb.append("# HELP converter_conversion_duration_seconds Durata delle conversioni riuscite\n");
+        sb.append("# TYPE converter_conversion_duration_seconds histogram\n");
+        for (PairStats stats : sorted.values()) {
+            String labels = "src=\"" + escape(stats.srcExt) + "\",target=\"" + escape(stats.outExt) + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += stats.buckets.get(i);
+                sb.append("converter_conversion_duration_seconds_bucket{").append(labels)
+                        .append(",le=\"").append(format(BUCKETS[i])).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += stats.buckets.get(BUCKETS.length);
+            sb.append("converter_conversion_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append("converter_conversion_duration_seconds_sum{").append(labels).append("} ")
+                    .append(format(stats.sumNanos.sum() / 1_000_000_000.0)).append('\n');
+            sb.append("converter_conversion_duration_seconds_count{").append(labels).append("} ").append(stats.count.sum()).append('\n');
+        }
+
+        sb.append("# HELP converter_bytes_in_total Byte letti dai file sorgente\n");
+        sb.append("# TYPE converter_bytes_in_total counter\n");
+        for (PairStats stats : sorted.values()) {
+            sb.append("converter_bytes_in_total{src=\"").append(escape(stats.srcExt)).append("\",target=\"")
+                    .append(escape(stats.outExt)).append("\"} ").append(stats.bytesIn.sum()).append('\n');
+        }
+        sb.append("# HELP converter_bytes_out_total Byte scritti nei file prodotti\n");
+        sb.append("# TYPE converter_bytes_out_total counter\n");
+        for (PairStats stats : sorted.values()) {
+            sb.append("converter_bytes_out_total{src=\"").append(escape(stats.srcExt)).append("\",target=\"")
+                    .append(escape(stats.outExt)).append("\"} ").append(stats.bytesOut.sum()).append('\n');
+        }
+
+        sb.append("# HELP converter_failures_total Conversioni fallite per tipo di eccezione\n");
+        sb.append("# TYPE converter_failures_total counter\n");
+        for (PairStats stats : sorted.values()) {
+            for (Map.Entry<String, LongAdder> failure : new TreeMap<>(stats.failures).entrySet()) {
+                sb.append("converter_failures_total{src=\"").append(escape(stats.srcExt)).append("\",target=\"")
+                        .append(escape(stats.outExt)).append("\",exception=\"").append(escape(failure.getKey()))
+                        .append("\"} ").append(failure.getValue().sum()).append('\n');
+            }
+        }
+
+        if (scheduler != null) {
+            sb.append("# HELP converter_jobs_active Conversioni in esecuzione per classe di costo\n");
+            sb.append("# TYPE converter_jobs_active gauge\n");
+            for (ConversionScheduler.CostClass costClass : ConversionScheduler.CostClass.values()) {
+                sb.append("converter_jobs_active{class=\"").append(costClass.name().toLowerCase()).append("\"} ")
+                        .append(scheduler.getActiveCount(costClass)).append('\n');
+            }
+            sb.append("# HELP converter_jobs_queued Conversioni in coda per classe di costo\n");
+            sb.append("# TYPE converter_jobs_queued gauge\n");
+            for (ConversionScheduler.CostClass costClass : ConversionScheduler.CostClass.values()) {
+                sb.append("converter_jobs_queued{class=\"").append(costClass.name().toLowerCase()).append("\"} ")
+                        .append(scheduler.getQueueDepth(costClass)).append('\n');
+            }
+        }
+
+        sb.append("# HELP converter_admission_wait_seconds Attesa delle richieste ammesse dal controllo di ammissione\n");
+        sb.append("# TYPE converter_admission_wait_seconds histogram\n");
+        for (Map.Entry<ConversionScheduler.CostClass, AdmissionStats> entry : admission.entrySet()) {
+            String labels = "class=\"" + entry.getKey().name().toLowerCase() + "\"";
+            AdmissionStats stats = entry.getValue();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += stats.buckets.get(i);
+                sb.append("converter_admission_wait_seconds_bucket{").append(labels)
+                        .append(",le=\"").append(format(BUCKETS[i])).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += stats.buckets.get(BUCKETS.length);
+            sb.append("converter_admission_wait_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append("converter_admission_wait_seconds_sum{").append(labels).append("} ")
+                    .append(format(stats.waitNanos.sum() / 1_000_000_000.0)).append('\n');
+            sb.append("converter_admission_wait_seconds_count{").append(labels).append("} ").append(stats.admitted.sum()).append('\n');
+        }
+        sb.append("# HELP converter_admission_rejected_total Richieste rifiutate con 429 per saturazione\n");
+        sb.append("# TYPE converter_admission_rejected_total counter\n");
+        for (Map.Entry<ConversionScheduler.CostClass, AdmissionStats> entry : admission.entrySet()) {
+            sb.append("converter_admission_rejected_total{class=\"").append(entry.getKey().name().toLowerCase()).append("\"} ")
+                    .append(entry.getValue().rejected.sum()).append('\n');
+        }
+
+        sb.append("# HELP converter_coalesced_total Richieste unite a una conversione identica già in corso\n");
+        sb.append("# TYPE converter_coalesced_total counter\n");
+        sb.append("converter_coalesced_total ").append(coalesced.sum()).append('\n');
+
+        if (cache != null) {
+            sb.append("# HELP converter_cache_requests_total Ricerche nella cache dei risultati\n");
+            sb.append("# TYPE converter_cache_requests_total counter\n");
+            sb.append("converter_cache_requests_total{result=\"hit\",tier=\"memory\"} ").append(cache.getMemoryHits()).append('\n');
+            sb.append("converter_cache_requests_total{result=\"hit\",tier=\"disk\"} ").append(cache.getDiskHits()).append('\n');
+            sb.append("converter_cache_requests_total{result=\"miss\",tier=\"\"} ").append(cache.getMisses()).append('\n');
+            sb.append("# HELP converter_cache_hit_ratio Rapporto tra risultati trovati e ricerche totali\n");
+            sb.append("# TYPE converter_cache_hit_ratio gauge\n");
+            sb.append("converter_cache_hit_ratio ").append(format(cache.getHitRatio())).append('\n');
+        }
+
+        sb.append("# HELP converter_log_dropped_total Messaggi di log scartati per coda piena\n");
+        sb.append("# TYPE converter_log_dropped_total counter\n");
+        sb.append("converter_log_dropped_total ").append(Log.getDroppedCount()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Riepilogo compatto su una riga, per la GUI
+     * @param scheduler Scheduler di cui riportare attività in esecuzione e in coda
+     * @param cache Cache di cui riportare la percentuale di risultati trovati
+     * @return Testo del riepilogo
+     */
+    public String getSummary(ConversionScheduler scheduler, ConversionCache cache) {
+        String slowest = null;
+        double slowestAvg = 0;
+        for (PairStats stats : pairs.values()) {
+            long count = stats.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            double avg = stats.sumNanos.sum() / 1_000_000_000.0 / count;
+            if (avg > slowestAvg) {
+                slowestAvg = avg;
+                slowest = stats.srcExt + "->" + stats.outExt;
+            }
+        }
+        return String.format(Locale.ROOT, "In esecuzione: %d | In coda: %d | Completate: %d | Errori: %d | Cache: %.0f%%%s",
+                scheduler.getTotalActive(), scheduler.getTotalQueued(), getTotalConversions(), getTotalFailures(),
+                cache.getHitRatio() * 100, slowest == null ? "" : String.format(Locale.ROOT, " | Più lenta: %s (%.2fs)", slowest, slowestAvg));
+    }
+
+    private PairStats stats(String srcExt, String outExt) {
+        return pairs.computeIfAbsent(srcExt + "->" + outExt, k -> new PairStats(srcExt, outExt));
+    }
+
+    /**
+     * @param seconds Durata in secondi
+     * @return Indice del bucket dell'istogramma (BUCKETS.length per le durate oltre l'ultimo limite)
+     */
+    private static int bucket(double seconds) {
+        int bucket = 0;
+        while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Contatori di una coppia di formati
+     */
+    private static final class PairStats {
+        private final String srcExt;
+        private final String outExt;
+        // Un contatore per bucket più uno per le durate oltre l'ultimo limite
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+        private PairStats(String srcExt, String outExt) {
+            this.srcExt = srcExt;
+            this.outExt = outExt;
+        }
+    }
+
+    /**
+     * Contatori del controllo di ammissione di una classe di costo
+     */
+    private static final class AdmissionStats {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+    }
+}
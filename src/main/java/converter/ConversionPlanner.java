@@ -0,0 +1,441 @@
+package converter;
+
+import Converters.CancellationToken;
+import Converters.ConversionContext;
+import Converters.ConversionOptions;
+import Converters.OutputSink;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pianificatore delle conversioni a più passaggi.
+ * Tratta le coppie di config.json come archi di un grafo tra formati e cerca il percorso più economico
+ * (Dijkstra), pesando ogni arco con il costo misurato del converter (media mobile esponenziale dei
+ * nanosecondi per byte letto). Finché una coppia non è mai stata misurata si usa una stima in base alla classe di costo.
+ * Una coppia presente in config.json viene sempre convertita direttamente: i costi per byte di passaggi diversi
+ * non sono confrontabili (ogni passaggio legge un input di dimensione diversa) e una catena più "economica"
+ * potrebbe passare da un formato che perde colori o qualità. Le catene servono solo per le coppie senza converter diretto.
+ * I risultati intermedi della catena restano in memoria: solo l'ultimo passaggio scrive nel sink finale.
+ */
+public final class ConversionPlanner {
+
+    // Numero massimo di passaggi di una catena, oltre il quale un percorso non viene considerato
+    private static final int MAX_HOPS = 4;
+    // Costo fisso aggiunto a ogni passaggio: a parità di costo stimato si preferisce la catena più corta
+    private static final double HOP_OVERHEAD = 5.0;
+    // Peso del nuovo campione nella media mobile
+    private static final double EWMA_ALPHA = 0.2;
+
+    // Costi misurati (ns per byte) per coppia "src->out", condivisi tra i rebuild del registro
+    private static final Map<String, Double> MEASURED_COSTS = new ConcurrentHashMap<>();
+
+    private final ConverterRegistry registry;
+
+    /**
+     * @param registry Registro dei converter da cui ricavare il grafo dei formati
+     */
+    public ConversionPlanner(ConverterRegistry registry) {
+        if (registry == null) {
+            Log.addMessage("ERRORE: registry nullo");
+            throw new NullPointerException("L'oggetto registry non esiste");
+        }
+        this.registry = registry;
+    }
+
+    /**
+     * @return Registro dei converter su cui è costruito il grafo
+     */
+    public ConverterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Cerca il percorso tra due formati: la conversione diretta se la coppia è in config.json,
+     * altrimenti la catena più economica
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @return Piano di conversione, null se il formato finale non è raggiungibile
+     */
+    public Plan plan(String srcExt, String outExt) {
+        if (srcExt == null) {
+            Log.addMessage("ERRORE: srcExt nullo");
+            throw new NullPointerException("L'oggetto srcExt non esiste");
+        }
+        if (outExt == null) {
+            Log.addMessage("ERRORE: outExt nullo");
+            throw new NullPointerException("L'oggetto outExt non esiste");
+        }
+        if (srcExt.equals(outExt)) {
+            return null;
+        }
+        ConverterRegistry.Entry direct = registry.getEntry(srcExt, outExt);
+        if (direct != null) {
+            Step step = new Step(srcExt, outExt, direct);
+            return new Plan(srcExt, Collections.<Step>emptyList(), 0.0).append(step, estimateCost(step) + HOP_OVERHEAD);
+        }
+        return search(srcExt).get(outExt);
+    }
+
+    /**
+     * Ritorna tutti i formati raggiungibili da un formato, direttamente o tramite catene.
+     * Prima le destinazioni dirette (nell'ordine di config.json), poi le altre per costo stimato crescente.
+     * @param srcExt Estensione file iniziale
+     * @return Lista dei formati raggiungibili, vuota se il formato non è supportato
+     */
+    public List<String> getReachableTargets(String srcExt) {
+        if (srcExt == null) {
+            Log.addMessage("ERRORE: srcExt nullo");
+            throw new NullPointerException("L'oggetto srcExt non esiste");
+        }
+
+        List<String> targets = new ArrayList<>(registry.getEntries(srcExt).keySet());
+        List<Plan> plans = new ArrayList<>(search(srcExt).values());
+        plans.sort(Comparator.comparingDouble(Plan::getEstimatedCost));
+        for (Plan plan : plans) {
+            if (!targets.contains(plan.getTargetFormat())) {
+                targets.add(plan.getTargetFormat());
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Dijkstra dal formato iniziale verso tutti i formati raggiungibili entro MAX_HOPS passaggi.
+     * I formati raggiungibili direttamente vengono raggiunti solo con la conversione diretta,
+     * anche come tappa intermedia di una catena
+     * @return Mappa formato raggiunto -> piano migliore
+     */
+    private Map<String, Plan> search(String srcExt) {
+        Set<String> direct = registry.getEntries(srcExt).keySet();
+        Map<String, Plan> best = new HashMap<>();
+        PriorityQueue<Plan> queue = new PriorityQueue<>(Comparator.comparingDouble(Plan::getEstimatedCost));
+        queue.add(new Plan(srcExt, Collections.<Step>emptyList(), 0.0));
+        Set<String> settled = new HashSet<>();
+
+        while (!queue.isEmpty()) {
+            Plan current = queue.poll();
+            String format = current.getTargetFormat();
+            if (direct.contains(format) && current.getSteps().size() != 1) {
+                continue;
+            }
+            if (!settled.add(format)) {
+                continue;
+            }
+            if (!current.getSteps().isEmpty()) {
+                best.put(format, current);
+            }
+            if (current.getSteps().size() >= MAX_HOPS) {
+                continue;
+            }
+            for (Map.Entry<String, ConverterRegistry.Entry> edge : registry.getEntries(format).entrySet()) {
+                String next = edge.getKey();
+                if (settled.contains(next) || next.equals(srcExt)) {
+                    continue;
+                }
+                Step step = new Step(format, next, edge.getValue());
+                queue.add(current.append(step, estimateCost(step) + HOP_OVERHEAD));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Esegue il piano leggendo il sorgente dallo stream indicato, senza cartella di lavoro né annullamento
+     * @see #execute(Plan, InputStream, OutputSink, ConversionContext)
+     */
+    public static void execute(Plan plan, InputStream in, OutputSink sink, ConversionOptions options) throws Exception {
+        if (options == null) {
+            Log.addMessage("ERRORE: options nullo");
+            throw new NullPointerException("L'oggetto options non esiste");
+        }
+        execute(plan, in, sink, new ConversionContext(null, null, options, new CancellationToken()));
+    }
+
+    /**
+     * Esegue il piano leggendo il sorgente dallo stream indicato.
+     * I risultati intermedi passano in memoria da un converter al successivo; se un passaggio produce
+     * più file (ad esempio le pagine di un PDF) il passaggio successivo viene applicato a ciascuno.
+     * Il segnale di annullamento del contesto viene controllato prima di ogni passaggio.
+     * @param plan Piano da eseguire
+     * @param in Contenuto del file sorgente
+     * @param sink Destinazione dei file prodotti dall'ultimo passaggio
+     * @param context Contesto della richiesta: la password delle opzioni vale solo per il primo passaggio
+     * @throws Exception Errore di uno dei converter della catena
+     */
+    public static void execute(Plan plan, InputStream in, OutputSink sink, ConversionContext context) throws Exception {
+        if (plan == null) {
+            Log.addMessage("ERRORE: plan nullo");
+            throw new NullPointerException("L'oggetto plan non esiste");
+        }
+        if (in == null) {
+            Log.addMessage("ERRORE: in nullo");
+            throw new NullPointerException("L'oggetto in non esiste");
+        }
+        if (sink == null) {
+            Log.addMessage("ERRORE: sink nullo");
+            throw new NullPointerException("L'oggetto sink non esiste");
+        }
+        if (context == null) {
+            Log.addMessage("ERRORE: context nullo");
+            throw new NullPointerException("L'oggetto context non esiste");
+        }
+
+        ConversionOptions options = context.getOptions();
+        List<Step> steps = plan.getSteps();
+        if (steps.size() > 1) {
+            Log.addMessage("Conversione a catena: " + plan);
+        }
+
+        List<MemoryOutputSink.Output> inputs = null;
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            boolean last = i == steps.size() - 1;
+            OutputSink stepSink = last ? sink : new MemoryOutputSink();
+            String password = i == 0 ? options.getPassword() : null;
+
+            if (inputs == null) {
+                runStep(step, in, stepSink, context.withOptions(new ConversionOptions(options.getSourceName(), step.getOutExt(), password, options.getUnion())));
+            } else {
+                for (MemoryOutputSink.Output input : inputs) {
+                    try (InputStream stepIn = input.openStream()) {
+                        runStep(step, stepIn, stepSink, context.withOptions(new ConversionOptions(input.getName(), step.getOutExt(), password, options.getUnion())));
+                    }
+                }
+            }
+
+            if (!last) {
+                inputs = ((MemoryOutputSink) stepSink).getOutputs();
+                if (inputs.isEmpty()) {
+                    Log.addMessage("ERRORE: il passaggio " + step + " non ha prodotto file");
+                    throw new IOException("Il passaggio " + step + " non ha prodotto file");
+                }
+            }
+        }
+    }
+
+    /**
+     * Esegue un singolo passaggio misurandone il costo
+     */
+    private static void runStep(Step step, InputStream in, OutputSink sink, ConversionContext context) throws Exception {
+        context.getCancellationToken().throwIfCancelled();
+        CountingInputStream counting = new CountingInputStream(in);
+        long start = System.nanoTime();
+        step.getEntry().getStreamConverter().convert(counting, sink, context);
+        recordCost(step.getSrcExt(), step.getOutExt(), System.nanoTime() - start, counting.getCount());
+    }
+
+    /**
+     * Registra la durata di una conversione e aggiorna la media mobile del costo della coppia
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @param nanos Durata della conversione in nanosecondi
+     * @param bytes Byte letti dal sorgente
+     */
+    public static void recordCost(String srcExt, String outExt, long nanos, long bytes) {
+        if (srcExt == null || outExt == null || bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        double sample = (double) nanos / bytes;
+        MEASURED_COSTS.merge(srcExt + "->" + outExt, sample, (old, value) -> old + EWMA_ALPHA * (value - old));
+    }
+
+    /**
+     * Dimentica i costi misurati: i piani tornano a usare le stime per classe di costo (usato dai test)
+     */
+    static void clearMeasuredCosts() {
+        MEASURED_COSTS.clear();
+    }
+
+    /**
+     * Costo stimato di un passaggio: misurato se disponibile, altrimenti in base alla classe di costo
+     */
+    private static double estimateCost(Step step) {
+        Double measured = MEASURED_COSTS.get(step.getSrcExt() + "->" + step.getOutExt());
+        if (measured != null) {
+            return measured;
+        }
+        switch (step.getEntry().getCostClass()) {
+            case CPU_HEAVY:
+                return 500.0;
+            case MEMORY_HEAVY:
+                return 100.0;
+            case IO_BOUND:
+                return 10.0;
+            default:
+                return 20.0;
+        }
+    }
+
+    /**
+     * Peso di una classe di costo: la catena viene schedulata nel pool del suo passaggio più pesante
+     */
+    private static int weight(ConversionScheduler.CostClass costClass) {
+        switch (costClass) {
+            case CPU_HEAVY:
+                return 3;
+            case MEMORY_HEAVY:
+                return 2;
+            case IO_BOUND:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Piano di conversione: sequenza di passaggi diretti con il relativo costo stimato
+     */
+    public static final class Plan {
+        private final String targetFormat;
+        private final List<Step> steps;
+        private final double estimatedCost;
+
+        private Plan(String targetFormat, List<Step> steps, double estimatedCost) {
+            this.targetFormat = targetFormat;
+            this.steps = steps;
+            this.estimatedCost = estimatedCost;
+        }
+
+        private Plan append(Step step, double cost) {
+            List<Step> next = new ArrayList<>(steps.size() + 1);
+            next.addAll(steps);
+            next.add(step);
+            return new Plan(step.getOutExt(), Collections.unmodifiableList(next), estimatedCost + cost);
+        }
+
+        public String getTargetFormat() {
+            return targetFormat;
+        }
+
+        public List<Step> getSteps() {
+            return steps;
+        }
+
+        public double getEstimatedCost() {
+            return estimatedCost;
+        }
+
+        /**
+         * @return true se il piano è composto da una sola conversione presente in config.json
+         */
+        public boolean isDirect() {
+            return steps.size() == 1;
+        }
+
+        /**
+         * @return Voce del registro del primo passaggio
+         */
+        public ConverterRegistry.Entry getFirstEntry() {
+            return steps.get(0).getEntry();
+        }
+
+        /**
+         * @return Classe di costo del passaggio più pesante della catena
+         */
+        public ConversionScheduler.CostClass getCostClass() {
+            ConversionScheduler.CostClass heaviest = ConversionScheduler.CostClass.LIGHT;
+            for (Step step : steps) {
+                if (weight(step.getEntry().getCostClass()) > weight(heaviest)) {
+                    heaviest = step.getEntry().getCostClass();
+                }
+            }
+            return heaviest;
+        }
+
+        /**
+         * @return Descrizione dei passaggi e delle classi dei converter, usata nella chiave della cache
+         */
+        public String getSignature() {
+            StringBuilder sb = new StringBuilder();
+            for (Step step : steps) {
+                sb.append(step.getSrcExt()).append('>').append(step.getOutExt())
+                        .append(':').append(step.getEntry().getClassName()).append(';');
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            if (steps.isEmpty()) {
+                return targetFormat;
+            }
+            StringBuilder sb = new StringBuilder(steps.get(0).getSrcExt());
+            for (Step step : steps) {
+                sb.append(" -> ").append(step.getOutExt());
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Singolo passaggio diretto della catena
+     */
+    public static final class Step {
+        private final String srcExt;
+        private final String outExt;
+        private final ConverterRegistry.Entry entry;
+
+        private Step(String srcExt, String outExt, ConverterRegistry.Entry entry) {
+            this.srcExt = srcExt;
+            this.outExt = outExt;
+            this.entry = entry;
+        }
+
+        public String getSrcExt() {
+            return srcExt;
+        }
+
+        public String getOutExt() {
+            return outExt;
+        }
+
+        public ConverterRegistry.Entry getEntry() {
+            return entry;
+        }
+
+        @Override
+        public String toString() {
+            return srcExt + " -> " + outExt;
+        }
+    }
+
+    /**
+     * Conta i byte letti dal converter, per rapportare la durata alla dimensione del sorgente
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+}
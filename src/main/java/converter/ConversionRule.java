@@ -0,0 +1,94 @@
+package converter;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
+/**
+ * Regola di conversione automatica letta dalla sezione "rules" di config.json.
+ * Un file della cartella monitorata che corrisponde a match viene convertito in target senza chiedere nulla all'utente.
+ * match è un'estensione (es. "pdf") oppure un glob confrontato con il nome del file
+ * e con il percorso relativo alla cartella monitorata (es. "*.pdf", "fatture/**.pdf").
+ * La password dei PDF protetti può essere scritta nella regola (password) oppure letta
+ * da una variabile d'ambiente (passwordEnv), così non resta in chiaro in config.json.
+ */
+public class ConversionRule {
+    private String match;
+    private String target;
+    private String password;
+    private String passwordEnv;
+    private boolean merge;
+
+    // Calcolato alla prima corrispondenza, Gson non lo legge né lo scrive
+    private transient volatile PathMatcher matcher;
+
+    public String getMatch() {
+        return match;
+    }
+
+    public String getTarget() {
+        return target == null ? null : target.toLowerCase();
+    }
+
+    /**
+     * @return true se le pagine estratte da un PDF vanno unite in un'unica immagine (solo verso jpg)
+     */
+    public boolean isMerge() {
+        return merge;
+    }
+
+    /**
+     * @return Password della regola, o quella della variabile d'ambiente indicata; null se assente
+     */
+    public String resolvePassword() {
+        if (password != null && !password.isEmpty()) {
+            return password;
+        }
+        if (passwordEnv != null && !passwordEnv.isEmpty()) {
+            String value = System.getenv(passwordEnv);
+            if (value == null) {
+                Log.addMessage("ERRORE: variabile d'ambiente " + passwordEnv + " della regola " + match + " non definita");
+            }
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * @param relative Percorso del file relativo alla cartella monitorata
+     * @return true se il file corrisponde alla regola
+     */
+    public boolean matches(Path relative) {
+        if (relative == null) {
+            Log.addMessage("ERRORE: relative nullo");
+            throw new NullPointerException("L'oggetto relative non esiste");
+        }
+        if (match == null || match.isEmpty() || target == null || target.isEmpty()) {
+            return false;
+        }
+        String name = relative.getFileName().toString();
+        if (!isGlob(match)) {
+            return name.toLowerCase().endsWith("." + match.toLowerCase());
+        }
+        PathMatcher current = matcher;
+        if (current == null) {
+            current = FileSystems.getDefault().getPathMatcher("glob:" + match);
+            matcher = current;
+        }
+        return current.matches(relative.getFileName()) || current.matches(relative);
+    }
+
+    private static boolean isGlob(String pattern) {
+        for (char c : pattern.toCharArray()) {
+            if ("*?[{/\\".indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return match + " -> " + target;
+    }
+}
@@ -0,0 +1,220 @@
+package converter;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler delle conversioni: un pool di thread limitato per ogni classe di costo,
+ * con coda a priorità (a parità di priorità vale l'ordine di arrivo).
+ * In questo modo un arrivo massiccio di file non crea centinaia di thread che renderizzano PDF
+ * in parallelo, ma si mette in coda rispettando i limiti di CPU e memoria.
+ */
+public class ConversionScheduler {
+
+    /**
+     * Classe di costo di una conversione, determina in quale pool viene eseguita
+     */
+    public enum CostClass {
+        CPU_HEAVY,      // rendering PDF, decodifica/codifica immagini
+        MEMORY_HEAVY,   // fogli di calcolo caricati interamente in memoria
+        LIGHT,          // csv, testo, email
+        IO_BOUND        // archivi compressi
+    }
+
+    /**
+     * Priorità di esecuzione all'interno di un pool
+     */
+    public enum Priority {
+        HIGH,    // richieste interattive dalla GUI
+        NORMAL,  // web service e monitoraggio cartella
+        LOW      // elaborazioni batch
+    }
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final Map<CostClass, ThreadPoolExecutor> pools = new EnumMap<>(CostClass.class);
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Crea lo scheduler dimensionando i pool sul numero di core disponibili
+     */
+    public ConversionScheduler() {
+        this(defaultPoolSizes());
+    }
+
+    /**
+     * @param poolSizes Numero massimo di thread per ogni classe di costo
+     */
+    public ConversionScheduler(Map<CostClass, Integer> poolSizes) {
+        for (CostClass costClass : CostClass.values()) {
+            Integer size = poolSizes.get(costClass);
+            int threads = (size == null || size < 1) ? 1 : size;
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<>(), new NamedThreadFactory("conversion-" + costClass.name().toLowerCase()));
+            pool.allowCoreThreadTimeOut(true);
+            pools.put(costClass, pool);
+        }
+        Log.addMessage("Scheduler conversioni avviato: " + poolSizes);
+    }
+
+    /**
+     * Dimensioni predefinite dei pool in base ai core della macchina
+     * @return Mappa classe di costo -> numero di thread
+     */
+    public static Map<CostClass, Integer> defaultPoolSizes() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Map<CostClass, Integer> sizes = new EnumMap<>(CostClass.class);
+        sizes.put(CostClass.CPU_HEAVY, Math.max(1, cores / 2));
+        sizes.put(CostClass.MEMORY_HEAVY, Math.max(1, Math.min(2, cores / 2)));
+        sizes.put(CostClass.LIGHT, Math.max(2, cores));
+        sizes.put(CostClass.IO_BOUND, 4);
+        return sizes;
+    }
+
+    /**
+     * Accoda un'attività nel pool della classe di costo indicata
+     * @param costClass Classe di costo della conversione
+     * @param priority Priorità all'interno del pool
+     * @param task Attività da eseguire
+     * @return Future per attendere il risultato o annullare l'attività
+     */
+    public <T> Future<T> submit(CostClass costClass, Priority priority, Callable<T> task) {
+        if (costClass == null) {
+            Log.addMessage("ERRORE: costClass nullo");
+            throw new NullPointerException("L'oggetto costClass non esiste");
+        }
+        if (priority == null) {
+            Log.addMessage("ERRORE: priority nullo");
+            throw new NullPointerException("L'oggetto priority non esiste");
+        }
+        if (task == null) {
+            Log.addMessage("ERRORE: task nullo");
+            throw new NullPointerException("L'oggetto task non esiste");
+        }
+
+        PrioritizedTask<T> future = new PrioritizedTask<>(task, priority, sequence.getAndIncrement());
+        pools.get(costClass).execute(future);
+        return future;
+    }
+
+    /**
+     * Accoda un'attività senza valore di ritorno
+     */
+    public Future<?> submit(CostClass costClass, Priority priority, Runnable task) {
+        if (task == null) {
+            Log.addMessage("ERRORE: task nullo");
+            throw new NullPointerException("L'oggetto task non esiste");
+        }
+        return submit(costClass, priority, Executors.callable(task));
+    }
+
+    /**
+     * @param costClass Classe di costo
+     * @return Numero di attività in attesa nel pool
+     */
+    public int getQueueDepth(CostClass costClass) {
+        return pools.get(costClass).getQueue().size();
+    }
+
+    /**
+     * @param costClass Classe di costo
+     * @return Numero di attività in esecuzione nel pool
+     */
+    public int getActiveCount(CostClass costClass) {
+        return pools.get(costClass).getActiveCount();
+    }
+
+    /**
+     * @param costClass Classe di costo
+     * @return Numero massimo di thread del pool
+     */
+    public int getPoolSize(CostClass costClass) {
+        return pools.get(costClass).getMaximumPoolSize();
+    }
+
+    /**
+     * @return Attività in attesa per ogni classe di costo
+     */
+    public Map<CostClass, Integer> getQueueDepths() {
+        Map<CostClass, Integer> depths = new EnumMap<>(CostClass.class);
+        for (CostClass costClass : CostClass.values()) {
+            depths.put(costClass, getQueueDepth(costClass));
+        }
+        return Collections.unmodifiableMap(depths);
+    }
+
+    /**
+     * @return Totale delle attività in attesa in tutti i pool
+     */
+    public int getTotalQueued() {
+        int total = 0;
+        for (ThreadPoolExecutor pool : pools.values()) {
+            total += pool.getQueue().size();
+        }
+        return total;
+    }
+
+    /**
+     * @return Totale delle attività in esecuzione in tutti i pool
+     */
+    public int getTotalActive() {
+        int total = 0;
+        for (ThreadPoolExecutor pool : pools.values()) {
+            total += pool.getActiveCount();
+        }
+        return total;
+    }
+
+    /**
+     * Arresta i pool: le attività già accodate vengono completate, le nuove rifiutate
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor pool : pools.values()) {
+            pool.shutdown();
+        }
+        Log.addMessage("Scheduler conversioni arrestato");
+    }
+
+    /**
+     * FutureTask ordinabile per priorità e, a parità, per ordine di arrivo
+     */
+    private static final class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+        private final Priority priority;
+        private final long sequence;
+
+        PrioritizedTask(Callable<T> callable, Priority priority, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            int cmp = priority.compareTo(other.priority);
+            return cmp != 0 ? cmp : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Thread daemon con nome riconoscibile nei dump
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package converter;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class ConverterConfig {
@@ -7,8 +9,12 @@ public class ConverterConfig {
     private String errorOutputDir;
     private String monitoredDir;
     private boolean monitorAtStart;
+    private String backlogOrder;
+    private String watchBackend;
+    private int pollingIntervalSeconds;
 
     private Map<String, Map<String, String>> conversions;
+    private List<ConversionRule> rules;
 
     public String getSuccessOutputDir() {
         return successOutputDir;
@@ -26,6 +32,36 @@ public class ConverterConfig {
         return conversions;
     }
 
+    /**
+     * @return Regole di conversione automatica, nell'ordine di config.json (vuota se la sezione manca)
+     */
+    public List<ConversionRule> getRules() {
+        return rules == null ? Collections.<ConversionRule>emptyList() : rules;
+    }
+
+    /**
+     * @return Ordine in cui vengono accodati i file già presenti all'avvio del monitoraggio:
+     * "oldest" (prima i meno recenti, predefinito) oppure "smallest" (prima i più piccoli)
+     */
+    public String getBacklogOrder() {
+        return backlogOrder == null || backlogOrder.trim().isEmpty() ? "oldest" : backlogOrder.trim().toLowerCase();
+    }
+
+    /**
+     * @return Modo in cui vengono rilevati i file nuovi: "native" (WatchService del sistema operativo, predefinito)
+     * oppure "polling" (scansione periodica, per alberi molto grandi o cartelle di rete dove gli eventi non arrivano)
+     */
+    public String getWatchBackend() {
+        return watchBackend == null || watchBackend.trim().isEmpty() ? "native" : watchBackend.trim().toLowerCase();
+    }
+
+    /**
+     * @return Secondi tra due scansioni del backend "polling" (30 se non indicato)
+     */
+    public int getPollingIntervalSeconds() {
+        return pollingIntervalSeconds > 0 ? pollingIntervalSeconds : 30;
+    }
+
     public boolean getMonitorAtStart() {
         return monitorAtStart;
     }
@@ -0,0 +1,194 @@
+package converter;
+
+import Converters.Converter;
+import Converters.FileConverterAdapter;
+import Converters.StreamConverter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro dei convertitori costruito una sola volta a partire dalla sezione "conversions" di config.json.
+ * Contiene una tabella di dispatch precompilata (srcExt, outExt) -> converter, cosi' le conversioni
+ * non devono piu' usare la reflection ne' scorrere la mappa annidata della configurazione.
+ * Le istanze sono immutabili: quando la configurazione cambia se ne costruisce una nuova e la si pubblica.
+ */
+public final class ConverterRegistry {
+
+    // I converter sono stateless: una sola istanza per classe, riusata anche tra un rebuild e l'altro
+    private static final Map<String, Converter> INSTANCES = new ConcurrentHashMap<>();
+
+    // Classe di costo di ogni converter, usata dallo scheduler per scegliere il pool
+    private static final Map<String, ConversionScheduler.CostClass> COST_CLASSES = new HashMap<>();
+
+    static {
+        COST_CLASSES.put("Converters.PDFtoJPGconverter", ConversionScheduler.CostClass.CPU_HEAVY);
+        COST_CLASSES.put("Converters.PDFtoDOCconverter", ConversionScheduler.CostClass.CPU_HEAVY);
+        COST_CLASSES.put("Converters.PDFtoDOCXconverter", ConversionScheduler.CostClass.CPU_HEAVY);
+        COST_CLASSES.put("Converters.ImageConverter", ConversionScheduler.CostClass.CPU_HEAVY);
+        COST_CLASSES.put("Converters.XLStoJSONconverter", ConversionScheduler.CostClass.MEMORY_HEAVY);
+        COST_CLASSES.put("Converters.XLSXtoJSONconverter", ConversionScheduler.CostClass.MEMORY_HEAVY);
+        COST_CLASSES.put("Converters.ODStoJSONconverter", ConversionScheduler.CostClass.MEMORY_HEAVY);
+        COST_CLASSES.put("Converters.JSONtoXLSconverter", ConversionScheduler.CostClass.MEMORY_HEAVY);
+        COST_CLASSES.put("Converters.JSONtoXLSXconverter", ConversionScheduler.CostClass.MEMORY_HEAVY);
+        COST_CLASSES.put("Converters.JSONtoODSconverter", ConversionScheduler.CostClass.MEMORY_HEAVY);
+        COST_CLASSES.put("Converters.ZIPtoTARGZconverter", ConversionScheduler.CostClass.IO_BOUND);
+        COST_CLASSES.put("Converters.TARGZtoZIPconverter", ConversionScheduler.CostClass.IO_BOUND);
+    }
+
+    private final Map<String, Map<String, Entry>> dispatch;
+    private final Map<String, List<String>> targets;
+
+    private ConverterRegistry(Map<String, Map<String, Entry>> dispatch, Map<String, List<String>> targets) {
+        this.dispatch = dispatch;
+        this.targets = targets;
+    }
+
+    /**
+     * Costruisce la tabella di dispatch a partire dalla configurazione.
+     * Le classi che non possono essere istanziate vengono segnalate nel log e scartate.
+     * @param config Configurazione caricata da config.json
+     * @return Registro immutabile pronto all'uso
+     */
+    public static ConverterRegistry build(ConverterConfig config) {
+        if (config == null) {
+            Log.addMessage("ERRORE: config nullo");
+            throw new NullPointerException("L'oggetto config non esiste");
+        }
+
+        Map<String, Map<String, Entry>> dispatch = new HashMap<>();
+        Map<String, List<String>> targets = new HashMap<>();
+        Map<String, Map<String, String>> conversions = config.getConversions();
+
+        if (conversions != null) {
+            for (Map.Entry<String, Map<String, String>> src : conversions.entrySet()) {
+                Map<String, Entry> row = new LinkedHashMap<>();
+                for (Map.Entry<String, String> out : src.getValue().entrySet()) {
+                    Converter converter = instance(out.getValue());
+                    if (converter != null) {
+                        row.put(out.getKey(), new Entry(out.getValue(), converter));
+                    }
+                }
+                dispatch.put(src.getKey(), Collections.unmodifiableMap(row));
+                targets.put(src.getKey(), Collections.unmodifiableList(new ArrayList<>(row.keySet())));
+            }
+        }
+
+        Log.addMessage("Registro converter costruito: " + dispatch.size() + " formati sorgente");
+        return new ConverterRegistry(Collections.unmodifiableMap(dispatch), Collections.unmodifiableMap(targets));
+    }
+
+    /**
+     * Ritorna (creandola se necessario) l'istanza condivisa della classe indicata
+     * @param className Nome completo della classe del converter
+     * @return Istanza del converter, null se la classe non e' valida
+     */
+    private static Converter instance(String className) {
+        Converter converter = INSTANCES.get(className);
+        if (converter != null) {
+            return converter;
+        }
+        try {
+            Class<?> clazz = Class.forName(className);
+            converter = (Converter) clazz.getDeclaredConstructor().newInstance();
+        } catch (Exception | LinkageError e) {
+            Log.addMessage("ERRORE: impossibile istanziare il converter " + className + ": " + e.getMessage());
+            return null;
+        }
+        Converter previous = INSTANCES.putIfAbsent(className, converter);
+        return previous != null ? previous : converter;
+    }
+
+    /**
+     * Ritorna la voce della tabella di dispatch per la coppia richiesta
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @return Voce registrata, null se la conversione non e' supportata
+     */
+    public Entry getEntry(String srcExt, String outExt) {
+        Map<String, Entry> row = dispatch.get(srcExt);
+        return row == null ? null : row.get(outExt);
+    }
+
+    /**
+     * Ritorna la classe di costo della conversione richiesta
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @return Classe di costo, LIGHT se la conversione non e' registrata
+     */
+    public ConversionScheduler.CostClass getCostClass(String srcExt, String outExt) {
+        Entry entry = getEntry(srcExt, outExt);
+        return entry == null ? ConversionScheduler.CostClass.LIGHT : entry.getCostClass();
+    }
+
+    /**
+     * @param srcExt Estensione file iniziale
+     * @return true se esiste almeno una conversione per il formato
+     */
+    public boolean supports(String srcExt) {
+        return dispatch.containsKey(srcExt);
+    }
+
+    /**
+     * Ritorna i formati di destinazione disponibili per una estensione
+     * @param srcExt Estensione file iniziale
+     * @return Lista non modificabile dei formati, null se il formato non e' supportato
+     */
+    public List<String> getTargets(String srcExt) {
+        return targets.get(srcExt);
+    }
+
+    /**
+     * Ritorna le conversioni dirette disponibili da un formato, usate come archi del grafo dei formati
+     * @param srcExt Estensione file iniziale
+     * @return Mappa non modificabile formato di destinazione -> voce, vuota se il formato non e' supportato
+     */
+    public Map<String, Entry> getEntries(String srcExt) {
+        Map<String, Entry> row = dispatch.get(srcExt);
+        return row == null ? Collections.<String, Entry>emptyMap() : row;
+    }
+
+    /**
+     * Voce della tabella di dispatch: nome della classe (per i log), istanza riusabile
+     * e vista a stream del converter (nativa oppure tramite adapter)
+     */
+    public static final class Entry {
+        private final String className;
+        private final Converter converter;
+        private final StreamConverter streamConverter;
+        private final boolean streamNative;
+        private final ConversionScheduler.CostClass costClass;
+
+        private Entry(String className, Converter converter) {
+            this.className = className;
+            this.converter = converter;
+            ConversionScheduler.CostClass known = COST_CLASSES.get(className);
+            this.costClass = known != null ? known : ConversionScheduler.CostClass.LIGHT;
+            this.streamNative = converter instanceof StreamConverter;
+            this.streamConverter = streamNative ? (StreamConverter) converter : new FileConverterAdapter(converter);
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public Converter getConverter() {
+            return converter;
+        }
+
+        public ConversionScheduler.CostClass getCostClass() {
+            return costClass;
+        }
+
+        public StreamConverter getStreamConverter() {
+            return streamConverter;
+        }
+
+        /**
+         * @return true se il converter sa leggere il sorgente direttamente da stream, senza copie su disco
+         */
+        public boolean isStreamNative() {
+            return streamNative;
+        }
+    }
+}
@@ -6,10 +6,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
@@ -17,30 +18,58 @@ import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 /**
  * Questa classe osserva ricorsivamente una directory e tutte le sue sottodirectory,
  * eseguendo un'azione (conversione) quando viene creato un nuovo file.
+ * I file nuovi passano da {@link FileIntake}, che li consegna solo a scrittura terminata.
+ * I file visti vengono registrati in un {@link FileIndex}: dopo un OVERFLOW degli eventi l'albero viene
+ * scansionato di nuovo e vengono consegnati solo i file nuovi o modificati rispetto all'indice.
+ * All'avvio i file già presenti vengono elaborati da un {@link BacklogPass} in parallelo agli eventi nuovi.
+ * I file che corrispondono a una regola di config.json vengono convertiti automaticamente ({@link AutoConversion});
+ * gli altri passano al gestore indicato, che nella GUI mostra il dialogo di scelta del formato.
+ * Con "watchBackend": "polling" in config.json il WatchService non viene usato: i file nuovi vengono trovati
+ * da un {@link PollingScanner} a intervalli regolari e seguono lo stesso percorso (attesa di fine scrittura, indice, regole).
  */
 public class DirectoryWatcher implements Runnable {
 
     private final Path dir;
+    // null con il backend a polling
     private final WatchService watchService;
-    private final ExecutorService executor;
+    private final PollingScanner pollingScanner;
     private final Map<WatchKey, Path> watchKeyToPath;
-    private final MainViewController controller;
+    private final Set<Path> registeredDirs;
+    private final AutoConversion autoConversion;
+    private final Consumer<File> unmatched;
+    private final FileIntake intake;
+    private final FileIndex index;
+    private volatile BacklogPass backlog;
 
     /**
      * Costruttore che inizializza il watcher e registra tutte le sottodirectory.
+     * I file senza regola di conversione automatica vengono proposti all'utente con il dialogo di scelta del formato.
      *
      * @param directoryPath percorso della directory da monitorare
      * @param controller riferimento al controller per eseguire la conversione
      * @throws IOException in caso di errore nella registrazione delle directory
      */
     public DirectoryWatcher(String directoryPath, MainViewController controller) throws IOException {
+        this(directoryPath, new Engine(), requireController(controller), controller::launchDialogConversion);
+    }
+
+    /**
+     * Costruttore che inizializza il watcher e registra tutte le sottodirectory.
+     *
+     * @param directoryPath percorso della directory da monitorare
+     * @param engine engine che esegue le conversioni automatiche
+     * @param listener destinatario degli esiti delle conversioni automatiche
+     * @param unmatched gestore dei file a cui non corrisponde nessuna regola, eseguito nel pool LIGHT dello scheduler
+     * @throws IOException in caso di errore nella registrazione delle directory
+     */
+    public DirectoryWatcher(String directoryPath, Engine engine, AutoConversion.Listener listener, Consumer<File> unmatched) throws IOException {
         if (directoryPath == null) {
             Log.addMessage("ERRORE: directoryPath nullo");
             throw new NullPointerException("L'oggetto directoryPath non esiste");
         }
-        if (controller == null) {
-            Log.addMessage("ERRORE: controller nullo");
-            throw new NullPointerException("L'oggetto controller non esiste");
+        if (unmatched == null) {
+            Log.addMessage("ERRORE: unmatched nullo");
+            throw new NullPointerException("L'oggetto unmatched non esiste");
         }
 
         this.dir = Paths.get(directoryPath);
@@ -49,13 +78,65 @@ public class DirectoryWatcher implements Runnable {
             throw new IllegalArgumentException("Il percorso " + directoryPath + " è sbagliato o non è una directory");
         }
 
-        this.executor = Executors.newCachedThreadPool();
-        this.watchService = FileSystems.getDefault().newWatchService();
-        this.controller = controller;
-        this.watchKeyToPath = new HashMap<>();
+        this.autoConversion = new AutoConversion(engine, completing(listener));
+        this.unmatched = unmatched;
+        // Anche il thread dell'arretrato registra le directory trovate dalla scansione
+        this.watchKeyToPath = new ConcurrentHashMap<>();
+        this.registeredDirs = ConcurrentHashMap.newKeySet();
+
+        String backend = ConfigStore.get().getConfig().getWatchBackend();
+        Log.addMessage("Inizializzazione DirectoryWatcher per: " + directoryPath + " (backend " + backend + ")");
+        this.index = FileIndex.open(dir);
+        try {
+            if ("polling".equals(backend)) {
+                this.watchService = null;
+                this.pollingScanner = new PollingScanner(dir, index);
+            } else {
+                if (!"native".equals(backend)) {
+                    Log.addMessage("ERRORE: backend " + backend + " non valido, uso native");
+                }
+                this.watchService = FileSystems.getDefault().newWatchService();
+                this.pollingScanner = null;
+                registerAll(dir);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Il watcher non partirà: l'indice va rilasciato per quello successivo
+            index.close();
+            throw e;
+        }
+        this.intake = new FileIntake(path -> startConversion(path, ConversionScheduler.Priority.NORMAL));
+    }
+
+    private static MainViewController requireController(MainViewController controller) {
+        if (controller == null) {
+            Log.addMessage("ERRORE: controller nullo");
+            throw new NullPointerException("L'oggetto controller non esiste");
+        }
+        return controller;
+    }
+
+    /**
+     * Registra nell'indice la fine dell'elaborazione prima di avvisare il listener:
+     * dopo un'interruzione improvvisa vengono riproposti solo i file consegnati e non terminati
+     */
+    private AutoConversion.Listener completing(AutoConversion.Listener listener) {
+        if (listener == null) {
+            Log.addMessage("ERRORE: listener nullo");
+            throw new NullPointerException("L'oggetto listener non esiste");
+        }
+        return new AutoConversion.Listener() {
+            @Override
+            public void onConverted(File srcFile, ConversionRule rule) {
+                index.markDone(srcFile.toPath());
+                listener.onConverted(srcFile, rule);
+            }
 
-        Log.addMessage("Inizializzazione DirectoryWatcher per: " + directoryPath);
-        registerAll(dir);
+            @Override
+            public void onFailed(File srcFile, ConversionRule rule, String error) {
+                index.markDone(srcFile.toPath());
+                listener.onFailed(srcFile, rule, error);
+            }
+        };
     }
 
     /**
@@ -78,9 +159,38 @@ public class DirectoryWatcher implements Runnable {
                     throw new NullPointerException("L'oggetto dir non esiste");
                 }
 
-                WatchKey key = dir.register(watchService, ENTRY_CREATE);
-                watchKeyToPath.put(key, dir);
-                Log.addMessage("Registrata directory per il monitoraggio: " + dir.toString());
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Segnala tutti i file già presenti in una directory appena comparsa e nelle sue sottodirectory.
+     * Va chiamato dopo la registrazione: un file creato nel frattempo viene segnalato due volte, e la seconda
+     * segnalazione viene ignorata da {@link FileIntake#offer(Path)}
+     * @param start Directory appena registrata
+     * @throws IOException Errore nella lettura dell'albero
+     */
+    private void offerAll(final Path start) throws IOException {
+        if (start == null) {
+            Log.addMessage("ERRORE: start nullo");
+            throw new NullPointerException("L'oggetto start non esiste");
+        }
+
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    index.markPending(file);
+                    intake.offer(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                Log.addMessage("ERRORE: lettura di " + file + " fallita: " + exc.getMessage());
                 return FileVisitResult.CONTINUE;
             }
         });
@@ -88,11 +198,79 @@ public class DirectoryWatcher implements Runnable {
 
     /**
      * Ciclo principale del watcher. Rimane in ascolto per eventi di creazione (ENTRY_CREATE)
-     * e avvia una conversione automatica per ogni nuovo file rilevato.
+     * e mette in attesa di fine scrittura ogni nuovo file rilevato; la conversione parte quando il file è stabile.
      * Le directory appena create vengono registrate ricorsivamente.
      */
     @Override
     public void run() {
+        if (pollingScanner != null) {
+            // Prima dell'arretrato: le directory cambiate durante la sua scansione vengono viste dal primo ciclo
+            pollingScanner.initialize();
+        }
+        // I file già presenti vengono elaborati in un thread separato: gli eventi nuovi vengono accettati subito
+        BacklogPass pass = new BacklogPass(index, ConfigStore.get().getConfig().getBacklogOrder(),
+                path -> startConversion(path, ConversionScheduler.Priority.LOW), intake::offer, this::registerQuietly);
+        backlog = pass;
+        Thread backlogThread = new Thread(pass, "backlog-pass");
+        backlogThread.setDaemon(true);
+        backlogThread.start();
+        try {
+            if (pollingScanner != null) {
+                poll();
+            } else {
+                watch();
+            }
+        } finally {
+            backlogThread.interrupt();
+            try {
+                backlogThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            intake.close();
+            if (pollingScanner != null) {
+                pollingScanner.close();
+            }
+            index.close();
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    Log.addMessage("ERRORE: chiusura del WatchService fallita - " + e.getMessage());
+                }
+            }
+        }
+        Log.addMessage("DirectoryWatcher terminato per: " + dir.toString());
+    }
+
+    /**
+     * Ciclo del backend a polling: a ogni intervallo scansiona le directory cambiate
+     * e mette in attesa di fine scrittura i file nuovi o modificati
+     */
+    private void poll() {
+        long interval = ConfigStore.get().getConfig().getPollingIntervalSeconds() * 1000L;
+        Log.addMessage("DirectoryWatcher avviato per: " + dir.toString() + " (scansione ogni " + interval / 1000 + " s)");
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                Log.addMessage("Thread interrotto, chiusura DirectoryWatcher");
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try {
+                for (FileIndex.FoundFile file : pollingScanner.scan()) {
+                    intake.offer(file.getPath());
+                }
+            } catch (RuntimeException e) {
+                // Un ciclo fallito non ferma il monitoraggio: il successivo rilegge le directory non elencate
+                Log.addMessage("ERRORE: scansione di " + dir + " fallita: " + e.getMessage());
+            }
+        }
+    }
+
+    private void watch() {
         Log.addMessage("DirectoryWatcher avviato per: " + dir.toString());
 
         while (!Thread.currentThread().isInterrupted()) {
@@ -106,16 +284,23 @@ public class DirectoryWatcher implements Runnable {
             }
 
             Path parentDir = watchKeyToPath.get(key);
+            if (parentDir == null) {
+                // Directory appena registrata da un altro thread: attende che la registrazione sia completa
+                synchronized (this) {
+                    parentDir = watchKeyToPath.get(key);
+                }
+            }
             if (parentDir == null) {
                 Log.addMessage("ERRORE: chiave sconosciuta nel watchKeyToPath");
                 continue;
             }
 
+            boolean overflow = false;
             for (WatchEvent<?> event : key.pollEvents()) {
                 WatchEvent.Kind<?> kind = event.kind();
 
                 if (kind == OVERFLOW) {
-                    Log.addMessage("Overflow rilevato, evento ignorato");
+                    overflow = true;
                     continue;
                 }
 
@@ -133,21 +318,25 @@ public class DirectoryWatcher implements Runnable {
                     if (Files.isDirectory(fullPath)) {
                         try {
                             registerAll(fullPath);
+                            // Una directory spostata o copiata già piena non genera eventi per i file che contiene
+                            offerAll(fullPath);
                         } catch (IOException e) {
                             Log.addMessage("ERRORE: registrazione sottocartella fallita - " + fullPath.toString());
                         }
                     } else {
-                        File file = fullPath.toFile();
-                        if (file != null) {
-                            Log.addMessage("Avvio conversione automatica per: " + file.getAbsolutePath());
-                            executor.submit(() -> controller.launchDialogConversion(file));
-                        } else {
-                            Log.addMessage("ERRORE: file nullo da convertire");
-                        }
+                        // Il file potrebbe essere ancora in copia: la conversione parte quando è stabile
+                        index.markPending(fullPath);
+                        intake.offer(fullPath);
                     }
                 }
             }
 
+            if (overflow) {
+                // Eventi persi: l'indice indica quali file non sono mai stati consegnati
+                Log.addMessage("Overflow rilevato, nuova scansione di " + dir);
+                rescan();
+            }
+
             boolean valid = key.reset();
             if (!valid) {
                 Path removed = watchKeyToPath.remove(key);
@@ -158,8 +347,79 @@ public class DirectoryWatcher implements Runnable {
                 }
             }
         }
-        executor.shutdown();
-        Log.addMessage("Executor interrotto");
+    }
+
+    /**
+     * Registra una directory nel WatchService, se non è già registrata
+     *
+     * @param directory directory da registrare
+     * @throws IOException in caso di errore nella registrazione
+     */
+    private synchronized void register(Path directory) throws IOException {
+        if (watchService == null) {
+            return; // backend a polling: le directory le trova la scansione
+        }
+        if (registeredDirs.add(directory.toAbsolutePath().normalize())) {
+            WatchKey key = directory.register(watchService, ENTRY_CREATE);
+            watchKeyToPath.put(key, directory);
+            Log.addMessage("Registrata directory per il monitoraggio: " + directory.toString());
+        }
+    }
+
+    private void registerQuietly(Path directory) {
+        try {
+            register(directory);
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: registrazione sottocartella fallita - " + directory.toString());
+        }
+    }
+
+    /**
+     * Scansiona l'albero confrontandolo con l'indice: registra le directory mancanti
+     * (create durante l'overflow) e mette in attesa i file nuovi o modificati
+     */
+    private void rescan() {
+        FileIndex.RescanResult result = index.rescan();
+        for (Path directory : result.getDirectories()) {
+            registerQuietly(directory);
+        }
+        for (FileIndex.FoundFile file : result.getFiles()) {
+            intake.offer(file.getPath());
+        }
+    }
+
+    /**
+     * Avvia la conversione di un file scritto completamente
+     *
+     * @param path file da convertire
+     * @param priority priorità nel pool: NORMAL per i file nuovi, LOW per l'arretrato
+     * @return Future dell'attività accodata, null se il file era già stato consegnato
+     */
+    private Future<?> startConversion(Path path, ConversionScheduler.Priority priority) {
+        File file = path.toFile();
+        if (!index.markQueued(path)) {
+            Log.addMessage("File già consegnato per la conversione: " + file.getAbsolutePath());
+            return null;
+        }
+        Path relative = path.toAbsolutePath().startsWith(dir.toAbsolutePath())
+                ? dir.toAbsolutePath().relativize(path.toAbsolutePath()) : path.getFileName();
+        Future<?> automatic = autoConversion.submit(file, relative, priority);
+        if (automatic != null) {
+            return automatic;
+        }
+        Log.addMessage("Avvio conversione per: " + file.getAbsolutePath());
+        // Passa per lo scheduler condiviso: nessun thread dedicato per ogni file
+        return Engine.getScheduler().submit(ConversionScheduler.CostClass.LIGHT, priority, () -> {
+            unmatched.accept(file);
+            index.markDone(path);
+        });
+    }
+
+    /**
+     * @return Elaborazione dei file presenti all'avvio, null se il watcher non è ancora partito
+     */
+    public BacklogPass getBacklog() {
+        return backlog;
     }
 
     /**
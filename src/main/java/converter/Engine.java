@@ -1,38 +1,36 @@
 package converter;
 
+import Converters.ConversionOptions;
 import Converters.Converter;
-import com.google.gson.Gson;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Engine {
-    private ConverterConfig config;
-    private static final String CONFIG_FILE_PATH = System.getProperty("user.dir") + "/src/main/java/converter/config/config.json";
+    // Scheduler condiviso da GUI, DirectoryWatcher e web service
+    private static final ConversionScheduler SCHEDULER = new ConversionScheduler();
+    // Cache dei risultati condivisa da Engine e web service
+    private static final ConversionCache CACHE = new ConversionCache();
+    // Metriche delle conversioni condivise da Engine e web service
+    private static final ConversionMetrics METRICS = new ConversionMetrics();
+    // Conversioni identiche in corso, condivise da Engine e web service
+    private static final ConversionCoalescer COALESCER = new ConversionCoalescer(METRICS);
 
     /**
-     * Costruttore: carica il file config.json
+     * Costruttore: carica il file config.json se non è ancora stato caricato
      */
     public Engine() {
-        setConfig();
+        ConfigStore.get();
     }
 
     /**
-     * Carica il file config.json
+     * Ricarica il file config.json
      */
     public void setConfig() {
-        try (FileReader reader = new FileReader(CONFIG_FILE_PATH)) {
-            Gson gson = new Gson();
-            config = gson.fromJson(reader, ConverterConfig.class);
-            if (config == null) {
-                Log.addMessage("ERRORE: l'oggetto config non esiste");
-                throw new NullPointerException("L'oggetto config non esiste");
-            }
-            Log.addMessage("Configurazione caricata correttamente da config.json");
-        } catch (Exception e) {
-            Log.addMessage("ERRORE: Lettura del file di configurazione fallita");
-            throw new RuntimeException("Errore nella lettura del file di configurazione", e);
-        }
+        ConfigStore.reload();
     }
 
     /**
@@ -41,13 +39,8 @@ public class Engine {
      * @throws Exception Nel caso di errore nella lettura del file di configurazione
      */
     public String getConfigAsJson() throws Exception {
-        try {
-            Log.addMessage("Lettura del contenuto di config.json eseguita con successo");
-            return new String(Files.readAllBytes(Paths.get(CONFIG_FILE_PATH)));
-        } catch (IOException e) {
-            Log.addMessage("ERRORE: Lettura del file di configurazione non riuscita");
-            throw new Exception("Errore nella lettura del file di configurazione: " + e.getMessage(), e);
-        }
+        // Il testo è quello della configurazione pubblicata: il file non viene riletto
+        return ConfigStore.get().getJson();
     }
 
     /**
@@ -55,35 +48,15 @@ public class Engine {
      * @throws Exception Errore scrittura sul file di configurazione
      */
     public void setConfigFromJson(String jsonText) throws Exception {
-        // Prima valida che il JSON sia corretto
         try {
-            Gson gson = new Gson();
-            ConverterConfig testConfig = gson.fromJson(jsonText, ConverterConfig.class);
-            if (testConfig == null) {
-                throw new Exception("JSON non valido: impossibile parsare la configurazione");
-            }
-        } catch (Exception e) {
-            Log.addMessage("ERRORE: JSON non valido");
-            throw new Exception("Il JSON fornito non è valido: " + e.getMessage(), e);
-        }
-
-        // Scrivi il file
-        try (FileWriter writer = new FileWriter(CONFIG_FILE_PATH)) {
-            writer.write(jsonText);
-            writer.flush(); // Assicurati che i dati siano scritti
-            Log.addMessage("Scrittura su config.json completata");
+            ConfigStore.update(jsonText);
+            Log.addMessage("Configurazione ricaricata con successo");
         } catch (IOException e) {
             Log.addMessage("ERRORE: Scrittura su config.json fallita");
             throw new Exception("Errore nella scrittura del file di configurazione: " + e.getMessage(), e);
-        }
-
-        // Ricarica la configurazione
-        try {
-            setConfig();
-            Log.addMessage("Configurazione ricaricata con successo");
         } catch (Exception e) {
-            Log.addMessage("ERRORE: Caricamento della nuova configurazione fallito");
-            throw new Exception("Errore nel caricamento della nuova configurazione: " + e.getMessage(), e);
+            Log.addMessage("ERRORE: JSON non valido");
+            throw new Exception("Il JSON fornito non è valido: " + e.getMessage(), e);
         }
     }
 
@@ -101,13 +74,78 @@ public class Engine {
             throw new NullPointerException("L'oggetto extension non esiste");
         }
 
-        if (config == null || config.getConversions() == null || !config.getConversions().containsKey(extension)) {
+        // Oltre alle coppie dirette di config.json vengono elencati i formati raggiungibili tramite catene
+        ConversionPlanner current = ConfigStore.get().getPlanner();
+        if (!current.getRegistry().supports(extension)) {
             Log.addMessage("ERRORE: Configurazione mancante o conversione non supportata per: " + extension);
             throw new Exception("Config assente o conversione non supportata");
         }
 
         Log.addMessage("Formati disponibili per la conversione da " + extension + " ottenuti con successo");
-        return new ArrayList<>(config.getConversions().get(extension).keySet());
+        return current.getReachableTargets(extension);
+    }
+
+    /**
+     * Ritorna lo scheduler condiviso delle conversioni
+     * @return Scheduler con i pool limitati per classe di costo
+     */
+    public static ConversionScheduler getScheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Ritorna la cache condivisa dei risultati delle conversioni
+     * @return Cache indirizzata per contenuto
+     */
+    public static ConversionCache getCache() {
+        return CACHE;
+    }
+
+    /**
+     * Ritorna le metriche condivise delle conversioni
+     * @return Metriche per coppia di formati, scheduler e cache
+     */
+    public static ConversionMetrics getMetrics() {
+        return METRICS;
+    }
+
+    /**
+     * Ritorna l'elenco condiviso delle conversioni in corso, usato per unire le richieste identiche
+     * @return Conversioni in corso per chiave di cache
+     */
+    public static ConversionCoalescer getCoalescer() {
+        return COALESCER;
+    }
+
+    /**
+     * Ritorna la classe di costo di una conversione secondo il registro corrente
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @return Classe di costo (del passaggio più pesante per le catene), LIGHT se la conversione non e' supportata
+     */
+    public ConversionScheduler.CostClass getCostClass(String srcExt, String outExt) {
+        ConversionPlanner.Plan plan = ConfigStore.get().getPlanner().plan(srcExt, outExt);
+        return plan == null ? ConversionScheduler.CostClass.LIGHT : plan.getCostClass();
+    }
+
+    /**
+     * Punto di ingresso unico per eseguire in background un'attività di conversione:
+     * l'attività viene accodata nel pool della classe di costo della coppia (srcExt, outExt)
+     * @param srcExt Estensione file iniziale
+     * @param outExt Estensione file finale
+     * @param priority Priorità dell'attività
+     * @param task Attività da eseguire
+     * @return Future dell'attività
+     */
+    public <T> Future<T> submitConversion(String srcExt, String outExt, ConversionScheduler.Priority priority, Callable<T> task) {
+        return SCHEDULER.submit(getCostClass(srcExt, outExt), priority, task);
+    }
+
+    /**
+     * Come {@link #submitConversion(String, String, ConversionScheduler.Priority, Callable)} per attività senza risultato
+     */
+    public Future<?> submitConversion(String srcExt, String outExt, ConversionScheduler.Priority priority, Runnable task) {
+        return SCHEDULER.submit(getCostClass(srcExt, outExt), priority, task);
     }
 
     /**
@@ -158,6 +196,102 @@ public class Engine {
         executeConversion(srcExt, outExt, srcFile, password, union);
     }
 
+    /**
+     * Conversione di un insieme di file nello stesso formato.
+     * Ogni file diventa un'attività a priorità LOW nel pool della sua classe di costo: la concorrenza resta
+     * limitata per classe e le richieste interattive (GUI, web service) passano davanti al batch.
+     * Un file non valido o una conversione fallita non interrompono gli altri.
+     * @param files File da convertire
+     * @param outExt Estensione file finale
+     * @return Esito aggregato con il risultato di ogni file
+     * @throws InterruptedException Se il thread viene interrotto mentre attende il batch (le attività in coda vengono annullate)
+     */
+    public BatchResult conversioneBatch(List<File> files, String outExt) throws InterruptedException {
+        if (files == null) {
+            Log.addMessage("ERRORE: files nullo");
+            throw new NullPointerException("L'oggetto files non esiste");
+        }
+        if (outExt == null) {
+            Log.addMessage("ERRORE: outExt nullo");
+            throw new NullPointerException("L'oggetto outExt non esiste");
+        }
+
+        Log.addMessage("Avvio batch di " + files.size() + " file verso " + outExt);
+        long start = System.nanoTime();
+        List<Future<BatchResult.Item>> futures = new ArrayList<>(files.size());
+        for (File file : files) {
+            String srcExt = getExtension(file);
+            futures.add(submitConversion(srcExt, outExt, ConversionScheduler.Priority.LOW, () -> convertBatchItem(srcExt, outExt, file)));
+        }
+
+        List<BatchResult.Item> items = new ArrayList<>(futures.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    items.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // convertBatchItem non lancia eccezioni: qui arrivano solo errori imprevisti (es. Error)
+                    items.add(BatchResult.Item.failed(files.get(i), 0, String.valueOf(e.getCause())));
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<BatchResult.Item> future : futures) {
+                future.cancel(true);
+            }
+            Log.addMessage("ERRORE: batch interrotto dopo " + items.size() + " file su " + files.size());
+            throw e;
+        }
+
+        BatchResult result = new BatchResult(items, (System.nanoTime() - start) / 1_000_000);
+        Log.addMessage("Batch completato: " + result.getSucceeded() + " riusciti, " + result.getFailed() + " falliti in " + result.getElapsedMillis() + " ms");
+        return result;
+    }
+
+    /**
+     * Conversione di tutti i file (non nascosti) presenti direttamente in una cartella
+     * @param directory Cartella con i file da convertire
+     * @param outExt Estensione file finale
+     * @return Esito aggregato con il risultato di ogni file
+     * @throws Exception La cartella non esiste o il batch viene interrotto
+     */
+    public BatchResult conversioneBatch(File directory, String outExt) throws Exception {
+        if (directory == null) {
+            Log.addMessage("ERRORE: directory nulla");
+            throw new NullPointerException("L'oggetto directory non esiste");
+        }
+        File[] listed = directory.listFiles(f -> f.isFile() && !f.isHidden());
+        if (listed == null) {
+            Log.addMessage("ERRORE: cartella non leggibile: " + directory.getPath());
+            throw new Exception("Cartella non leggibile: " + directory.getPath());
+        }
+        Arrays.sort(listed);
+        return conversioneBatch(Arrays.asList(listed), outExt);
+    }
+
+    /**
+     * Converte un singolo file del batch trasformando qualsiasi errore in un esito fallito
+     */
+    private BatchResult.Item convertBatchItem(String srcExt, String outExt, File file) {
+        long start = System.nanoTime();
+        try {
+            List<File> outputs = executeConversion(srcExt, outExt, file, null, null);
+            return BatchResult.Item.succeeded(file, (System.nanoTime() - start) / 1_000_000, outputs);
+        } catch (Exception e) {
+            Log.addMessage("ERRORE: conversione batch fallita per " + file.getName() + ": " + e.getMessage());
+            return BatchResult.Item.failed(file, (System.nanoTime() - start) / 1_000_000, e.getMessage());
+        }
+    }
+
+    /**
+     * @param file File di cui ricavare l'estensione
+     * @return Estensione in minuscolo, stringa vuota se assente
+     */
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int lastDot = name.lastIndexOf('.');
+        return (lastDot == -1 || lastDot == name.length() - 1) ? "" : name.substring(lastDot + 1).toLowerCase();
+    }
+
     /**
      * Esecuzione conversione
      * @param srcExt Estensione file iniziale
@@ -165,13 +299,89 @@ public class Engine {
      * @param srcFile File iniziale
      * @param parameter Parametro extra
      * @param union Flag che indica l'unione o meno delle immagini estratte dal PDF
+     * @return File prodotti, nella cartella di successo
      * @throws Exception Errore nella rinomina del file
      */
-    private void executeConversion(String srcExt, String outExt, File srcFile, String parameter, Boolean union) throws Exception {
-        String converterClassName = checkParameters(srcExt, outExt, srcFile);
+    private List<File> executeConversion(String srcExt, String outExt, File srcFile, String parameter, Boolean union) throws Exception {
+        ConversionPlanner.Plan plan = checkParameters(srcExt, outExt, srcFile);
+
+        // Stesso contenuto, stessi converter e stessi parametri: il risultato viene preso dalla cache
+        String baseName = srcFile.getName().replaceFirst("\\.[^\\.]+$", "");
+        String cacheKey = ConversionCache.key(srcFile, plan.getSignature(), parameter, union);
+        Callable<List<File>> restore = () -> {
+            List<File> cached = CACHE.restore(cacheKey, baseName, new File(getConverterConfig().getSuccessOutputDir()));
+            if (cached != null) {
+                Log.addMessage("Conversione trovata in cache: " + srcFile.getName() + " -> " + outExt + " (" + cached.size() + " file)");
+            }
+            return cached;
+        };
+        List<File> cached = restore.call();
+        if (cached != null) {
+            return cached;
+        }
+        // Se lo stesso file è già in conversione verso lo stesso formato si attende quella e se ne riusa il risultato
+        // Se quella attesa fallisce per un errore del file, anche il file di questa richiesta va nella cartella degli errori
+        return COALESCER.execute(cacheKey, () -> convertAndCache(plan, srcExt, outExt, srcFile, parameter, union, cacheKey, baseName), restore,
+                cause -> {
+                    if (isFileError(cause)) {
+                        Log.addMessage("ERRORE: conversione identica fallita, file spostato negli errori: " + srcFile.getName());
+                        try {
+                            spostaFile(getConverterConfig().getErrorOutputDir(), srcFile);
+                        } catch (IOException e) {
+                            Log.addMessage("ERRORE: spostamento di " + srcFile.getName() + " nella cartella degli errori fallito: " + e.getMessage());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @return true se l'errore deriva da un IOException, il caso in cui executeFileConversion
+     * ed executeStreamConversion spostano il file iniziale nella cartella degli errori
+     */
+    private static boolean isFileError(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Esegue la conversione, ne registra le metriche e salva il risultato in cache
+     */
+    private List<File> convertAndCache(ConversionPlanner.Plan plan, String srcExt, String outExt, File srcFile, String parameter, Boolean union,
+                                       String cacheKey, String baseName) throws Exception {
+        long bytesIn = srcFile.length();
+        long start = System.nanoTime();
+        try {
+            List<File> outFiles;
+            if (!plan.isDirect() || plan.getFirstEntry().isStreamNative()) {
+                outFiles = executeStreamConversion(plan, outExt, srcFile, parameter, union);
+            } else {
+                outFiles = executeFileConversion(plan.getFirstEntry().getConverter(), outExt, srcFile, parameter, union);
+            }
+            METRICS.recordSuccess(srcExt, outExt, System.nanoTime() - start, bytesIn, ConversionMetrics.totalSize(outFiles));
+            CACHE.put(cacheKey, baseName, outFiles);
+            return outFiles;
+        } catch (Exception e) {
+            METRICS.recordFailure(srcExt, outExt, e);
+            throw e;
+        }
+    }
 
-        Class<?> clazz = Class.forName(converterClassName);
-        Converter converter = (Converter) clazz.getDeclaredConstructor().newInstance();
+    /**
+     * Esecuzione conversione con un converter che lavora solo su file: il sorgente viene copiato in src/temp
+     * e i file prodotti vengono spostati nella cartella di successo
+     * @param converter Converter da usare
+     * @param outExt Estensione file finale
+     * @param srcFile File iniziale
+     * @param parameter Parametro extra
+     * @param union Flag che indica l'unione o meno delle immagini estratte dal PDF
+     * @return File prodotti, nella cartella di successo
+     * @throws Exception Errore nella conversione o nello spostamento dei file
+     */
+    private List<File> executeFileConversion(Converter converter, String outExt, File srcFile, String parameter, Boolean union) throws Exception {
         List<File> outFiles;
         File tempFile = new File("src/temp/" + srcFile.getName());
         Files.copy(srcFile.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
@@ -189,17 +399,55 @@ public class Engine {
             Files.deleteIfExists(tempFile.toPath());
             Log.addMessage("File temporaneo eliminato: " + srcFile.getPath());
 
+            List<File> moved = new ArrayList<>();
             for (File f : outFiles) {
                 //Sposto il file convertito nella directory corretta
-                spostaFile(config.getSuccessOutputDir(), f);
+                moved.add(spostaFile(getConverterConfig().getSuccessOutputDir(), f));
             }
             Log.addMessage("Conversione completata con successo: " + srcFile.getName() + " -> " + outExt);
+            return moved;
+
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: Errore durante la conversione o lo spostamento del file " + srcFile.getName());
+            spostaFile(getConverterConfig().getErrorOutputDir(), srcFile);
+            throw new Exception(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Esecuzione conversione con un converter a stream: il sorgente viene letto direttamente,
+     * senza copia in src/temp, e i file prodotti vengono scritti subito nella cartella di successo.
+     * Nelle conversioni a catena i risultati intermedi restano in memoria
+     * @param plan Piano con i converter da usare
+     * @param outExt Estensione file finale
+     * @param srcFile File iniziale
+     * @param parameter Parametro extra
+     * @param union Flag che indica l'unione o meno delle immagini estratte dal PDF
+     * @return File prodotti
+     * @throws Exception Errore durante la conversione
+     */
+    private List<File> executeStreamConversion(ConversionPlanner.Plan plan, String outExt, File srcFile, String parameter, Boolean union) throws Exception {
+        ConversionOptions options = new ConversionOptions(srcFile.getName(), outExt, parameter, union);
+        FileOutputSink sink = new FileOutputSink(new File(getConverterConfig().getSuccessOutputDir()));
 
+        try (InputStream in = new BufferedInputStream(new FileInputStream(srcFile))) {
+            ConversionPlanner.execute(plan, in, sink, options);
         } catch (IOException e) {
+            sink.discard();
             Log.addMessage("ERRORE: Errore durante la conversione o lo spostamento del file " + srcFile.getName());
-            spostaFile(config.getErrorOutputDir(), srcFile);
-            throw new Exception(e.getMessage());
+            spostaFile(getConverterConfig().getErrorOutputDir(), srcFile);
+            throw new Exception(e.getMessage(), e);
+        } catch (Exception e) {
+            sink.discard();
+            throw e;
         }
+
+        List<File> outFiles = sink.getFiles();
+        for (File f : outFiles) {
+            Log.debug(() -> "File salvato in: " + f.getPath());
+        }
+        Log.addMessage("Conversione completata con successo: " + srcFile.getName() + " -> " + outExt);
+        return outFiles;
     }
 
     /**
@@ -209,7 +457,7 @@ public class Engine {
      * @param srcFile File iniziale
      * @throws NullPointerException Ritorna il primo parametro inesistente trovato
      */
-    private String checkParameters(String srcExt, String outExt, File srcFile) throws Exception {
+    private ConversionPlanner.Plan checkParameters(String srcExt, String outExt, File srcFile) throws Exception {
         if (srcExt == null) {
             Log.addMessage("ERRORE: srcExt nullo");
             throw new NullPointerException("L'oggetto srcExt non esiste");
@@ -223,35 +471,40 @@ public class Engine {
             throw new NullPointerException("L'oggetto srcFile non esiste");
         }
 
-        Map<String, Map<String, String>> conversions = config.getConversions();
-        if (conversions == null || !conversions.containsKey(srcExt)) {
+        ConversionPlanner current = ConfigStore.get().getPlanner();
+        if (!current.getRegistry().supports(srcExt)) {
             Log.addMessage("ERRORE: Conversione da " + srcExt + " non supportata");
             throw new Exception("Conversione non supportata");
         }
 
-        Map<String, String> possibleConversions = conversions.get(srcExt);
-        String converterClassName = possibleConversions.get(outExt);
-        if (converterClassName == null) {
+        ConversionPlanner.Plan plan = current.plan(srcExt, outExt);
+        if (plan == null) {
             Log.addMessage("ERRORE: Conversione da " + srcExt + " a " + outExt + " non supportata");
             throw new Exception("Conversione non supportata");
         }
 
-        Log.addMessage("Parametri validi. Conversione da " + srcExt + " a " + outExt + " tramite " + converterClassName);
-        return converterClassName;
+        if (plan.isDirect()) {
+            Log.addMessage("Parametri validi. Conversione da " + srcExt + " a " + outExt + " tramite " + plan.getFirstEntry().getClassName());
+        } else {
+            Log.addMessage("Parametri validi. Conversione a catena " + plan);
+        }
+        return plan;
     }
 
     /**
      * Sposta il file ricevuto nella directory indicata
      * @param outPath Percorso di destinazione
      * @param file File da spostare
+     * @return File nella nuova posizione
      * @throws IOException Errore sull'istruzione Files.move()
      */
-    private void spostaFile(String outPath, File file) throws IOException {
+    private File spostaFile(String outPath, File file) throws IOException {
         if (file == null) throw new NullPointerException("L'oggetto file non esiste");
         if (outPath == null) throw new NullPointerException("L'oggetto outPath non esiste");
         Path dest = Paths.get(outPath, file.getName());
         Files.move(file.toPath(), dest, StandardCopyOption.REPLACE_EXISTING);
         Log.addMessage("File spostato in: " + dest.toString());
+        return dest.toFile();
     }
 
 
@@ -261,9 +514,6 @@ public class Engine {
      * @throws NullPointerException Variabile config nulla
      */
     public ConverterConfig getConverterConfig() throws NullPointerException{
-        if (config == null) {
-            throw new NullPointerException("L'oggetto config non esiste");
-        }
-        return config;
+        return ConfigStore.get().getConfig();
     }
 }
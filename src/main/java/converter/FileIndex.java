@@ -0,0 +1,651 @@
+package converter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indice persistente dei file visti nella cartella monitorata: percorso relativo, dimensione, data di modifica e stato.
+ * Serve a recuperare i file persi quando il WatchService va in OVERFLOW e quelli arrivati mentre l'applicazione era ferma:
+ * una nuova scansione dell'albero viene confrontata con l'indice e restituisce solo i file nuovi o modificati,
+ * quindi ogni file viene consegnato una sola volta anche dopo raffiche di eventi o riavvii.
+ * L'indice è salvato come journal: ogni cambio di stato è una riga aggiunta in fondo, e il file viene
+ * riscritto per intero solo quando le righe superate diventano troppe.
+ * Un file consegnato resta QUEUED finché la sua elaborazione non termina (DONE): quelli rimasti QUEUED
+ * per un'interruzione improvvisa vengono riproposti alla riapertura dell'indice.
+ * L'indice di una cartella può essere aperto da un solo watcher alla volta (lock sul file .lock accanto all'indice).
+ * In memoria i file sono raggruppati per directory: con il backend a polling ({@link PollingScanner}) l'indice viene
+ * confrontato solo con le directory modificate, e il costo di un ciclo dipende dai file di quelle directory e non
+ * da quelli dell'intero albero. La memoria occupata resta proporzionale al numero di file indicizzati.
+ */
+public class FileIndex implements AutoCloseable {
+
+    // Directory in cui vengono salvati gli indici, uno per ogni cartella monitorata
+    private static final File INDEX_DIR = new File(System.getProperty("converter.index.dir", "src/index"));
+    // Thread usati per la scansione dell'albero
+    private static final int RESCAN_THREADS = Integer.getInteger("converter.index.rescanThreads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Stato di un file nell'indice
+     */
+    public enum State {
+        PENDING,    // trovato o segnalato, non ancora consegnato
+        QUEUED,     // consegnato per la conversione
+        DONE        // elaborazione terminata (convertito, spostato negli errori o gestito dall'utente)
+    }
+
+    private final Path root;
+    private final Path indexFile;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    // Directory relativa alla radice ("" per la radice) -> nome del file -> voce.
+    // Le modifiche a una directory avvengono dentro compute() della mappa esterna, così una directory
+    // tolta perché vuota o sparita non perde un file aggiunto nello stesso momento
+    private final Map<String, Map<String, Entry>> directories = new ConcurrentHashMap<>();
+    private final AtomicInteger fileCount = new AtomicInteger();
+    // Una scansione alla volta (avvio e overflow possono sovrapporsi)
+    private final Object rescanLock = new Object();
+
+    private BufferedWriter journal;
+    private int journalLines = 0;
+
+    private FileIndex(Path root, Path indexFile, FileChannel lockChannel, FileLock lock) throws IOException {
+        this.root = root;
+        this.indexFile = indexFile;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        if (Files.exists(indexFile)) {
+            load();
+        }
+        compact();
+    }
+
+    /**
+     * Apre l'indice della cartella monitorata, creandolo se non esiste
+     * @param root Cartella monitorata
+     * @return Indice caricato dal disco
+     * @throws IOException Errore nella lettura o nella creazione dell'indice, oppure indice già aperto da un altro watcher
+     */
+    public static FileIndex open(Path root) throws IOException {
+        if (root == null) {
+            Log.addMessage("ERRORE: root nullo");
+            throw new NullPointerException("L'oggetto root non esiste");
+        }
+        Path normalized = root.toAbsolutePath().normalize();
+        if (!INDEX_DIR.exists() && !INDEX_DIR.mkdirs()) {
+            Log.addMessage("ERRORE: impossibile creare la directory degli indici " + INDEX_DIR.getAbsolutePath());
+            throw new IOException("Impossibile creare la directory degli indici: " + INDEX_DIR.getAbsolutePath());
+        }
+        String name = "watch-" + Integer.toHexString(normalized.toString().hashCode());
+
+        // Il lock è su un file separato: compact() sostituisce il file dell'indice, e con lui il suo lock
+        Path lockFile = new File(INDEX_DIR, name + ".lock").toPath();
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            Log.addMessage("ERRORE: indice di " + normalized + " già in uso da un altro watcher");
+            throw new IOException("L'indice di " + normalized + " è già in uso da un altro watcher");
+        }
+        try {
+            return new FileIndex(normalized, new File(INDEX_DIR, name + ".idx").toPath(), channel, lock);
+        } catch (IOException | RuntimeException e) {
+            lock.release();
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Numero di file nell'indice
+     */
+    public int size() {
+        return fileCount.get();
+    }
+
+    /**
+     * Registra un file in attesa di fine scrittura
+     */
+    public void markPending(Path file) {
+        update(file, State.PENDING);
+    }
+
+    /**
+     * Registra un file consegnato per la conversione, con dimensione e data di modifica al momento della consegna
+     * @return false se lo stesso file, non modificato, era già stato consegnato (ad esempio sia dall'arretrato
+     * sia da un evento): in questo caso non va convertito di nuovo
+     */
+    public boolean markQueued(Path file) {
+        return update(file, State.QUEUED);
+    }
+
+    /**
+     * Registra la fine dell'elaborazione di un file consegnato, con gli attributi che aveva alla consegna:
+     * se nel frattempo è stato modificato, la prossima scansione lo riconsegna
+     */
+    public void markDone(Path file) {
+        String key = key(file);
+        String name = fileName(key);
+        Entry[] done = {null};
+        directories.computeIfPresent(directoryKey(key), (dir, files) -> {
+            Entry current = files.get(name);
+            if (current != null && current.state != State.DONE) {
+                done[0] = new Entry(current.size, current.modified, State.DONE);
+                files.put(name, done[0]);
+            }
+            return files;
+        });
+        if (done[0] != null) {
+            append(key, done[0]);
+            flushJournal();
+        }
+    }
+
+    /**
+     * Scansiona in parallelo l'albero della cartella monitorata e lo confronta con l'indice.
+     * I file spariti vengono tolti dall'indice
+     * @return File nuovi, modificati o mai consegnati, e directory trovate
+     */
+    public RescanResult rescan() {
+        synchronized (rescanLock) {
+            return scan();
+        }
+    }
+
+    /**
+     * Confronta con l'indice il contenuto delle sole directory modificate, senza scansionare l'albero.
+     * I file che non sono più nelle directory indicate, o che erano in una directory eliminata, vengono tolti dall'indice
+     * @param listings File regolari trovati in ciascuna directory modificata (elenco completo della directory)
+     * @param removed Directory eliminate
+     * @return File nuovi, modificati o mai consegnati
+     */
+    public List<FoundFile> reconcile(Map<Path, List<FoundFile>> listings, Collection<Path> removed) {
+        if (listings == null) {
+            Log.addMessage("ERRORE: listings nullo");
+            throw new NullPointerException("L'oggetto listings non esiste");
+        }
+        if (removed == null) {
+            Log.addMessage("ERRORE: removed nullo");
+            throw new NullPointerException("L'oggetto removed non esiste");
+        }
+        synchronized (rescanLock) {
+            List<FoundFile> result = new ArrayList<>();
+            for (Map.Entry<Path, List<FoundFile>> listing : listings.entrySet()) {
+                String directory = key(listing.getKey());
+                Set<String> present = new HashSet<>();
+                for (FoundFile file : listing.getValue()) {
+                    String name = file.getPath().getFileName().toString();
+                    present.add(name);
+                    if (reconcile(directory, name, file.getSize(), file.getModified())) {
+                        result.add(file);
+                    }
+                }
+                prune(directory, present);
+            }
+            for (Path directory : removed) {
+                removeTree(key(directory));
+            }
+            flushJournal();
+            return result;
+        }
+    }
+
+    /**
+     * Toglie dall'indice i file di una directory elencata che non sono più presenti
+     * @return Numero di file tolti
+     */
+    private int prune(String directory, Set<String> present) {
+        List<String> gone = new ArrayList<>();
+        directories.computeIfPresent(directory, (dir, files) -> {
+            for (String name : files.keySet()) {
+                if (!present.contains(name)) {
+                    gone.add(name);
+                }
+            }
+            for (String name : gone) {
+                files.remove(name);
+            }
+            fileCount.addAndGet(-gone.size());
+            return files.isEmpty() ? null : files;
+        });
+        for (String name : gone) {
+            append("R", childKey(directory, name), null);
+        }
+        return gone.size();
+    }
+
+    /**
+     * Toglie dall'indice una directory eliminata e tutte le sue sottodirectory.
+     * Scorre solo le directory dell'indice, non i file
+     */
+    private void removeTree(String directory) {
+        String prefix = directory.isEmpty() ? "" : directory + File.separator;
+        for (String dir : new ArrayList<>(directories.keySet())) {
+            if (dir.equals(directory) || dir.startsWith(prefix)) {
+                removeDirectory(dir);
+            }
+        }
+    }
+
+    /**
+     * @return Numero di file tolti
+     */
+    private int removeDirectory(String directory) {
+        List<String> gone = new ArrayList<>();
+        directories.computeIfPresent(directory, (dir, files) -> {
+            gone.addAll(files.keySet());
+            fileCount.addAndGet(-gone.size());
+            return null;
+        });
+        for (String name : gone) {
+            append("R", childKey(directory, name), null);
+        }
+        return gone.size();
+    }
+
+    private RescanResult scan() {
+        long start = System.currentTimeMillis();
+        RescanResult result = new RescanResult();
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, RESCAN_THREADS));
+        try {
+            pool.invoke(new ScanDirectory(root, result, visited));
+        } finally {
+            pool.shutdown();
+        }
+
+        // I file spariti dalle directory lette sono già stati tolti durante la scansione; restano le directory sparite.
+        // Con una directory non leggibile le sue sottodirectory non risultano visitate: toglierle farebbe riconvertire i file
+        if (!result.incomplete) {
+            for (String directory : new ArrayList<>(directories.keySet())) {
+                if (!visited.contains(directory)) {
+                    result.removed.addAndGet(removeDirectory(directory));
+                }
+            }
+        }
+        flushJournal();
+        Log.addMessage("Scansione di " + root + " completata in " + (System.currentTimeMillis() - start) + " ms: "
+                + result.present.get() + " file, " + result.files.size() + " da convertire, " + result.removed.get() + " rimossi dall'indice");
+        return result;
+    }
+
+    /**
+     * Salva l'indice, chiude il journal e rilascia il lock
+     */
+    @Override
+    public synchronized void close() {
+        if (!lockChannel.isOpen()) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: salvataggio dell'indice " + indexFile + " fallito: " + e.getMessage());
+        }
+        closeJournal();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: rilascio del lock dell'indice " + indexFile + " fallito: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return false se il file era già nello stato indicato con la stessa dimensione e data di modifica
+     * (per QUEUED anche se la sua elaborazione è già terminata)
+     */
+    private boolean update(Path file, State state) {
+        String key = key(file);
+        String name = fileName(key);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // File già sparito: la prossima scansione lo toglie dall'indice
+            return true;
+        }
+        Entry entry = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), state);
+        boolean[] changed = {false};
+        directories.compute(directoryKey(key), (dir, files) -> {
+            Map<String, Entry> current = files != null ? files : new ConcurrentHashMap<>();
+            Entry previous = current.get(name);
+            if (previous != null && previous.size == entry.size && previous.modified == entry.modified
+                    && (previous.state == state || (state == State.QUEUED && previous.state == State.DONE))) {
+                return current;
+            }
+            changed[0] = true;
+            if (current.put(name, entry) == null) {
+                fileCount.incrementAndGet();
+            }
+            return current;
+        });
+        if (!changed[0]) {
+            return false;
+        }
+        append(key, entry);
+        flushJournal();
+        return true;
+    }
+
+    /**
+     * Confronta un file trovato dalla scansione con l'indice
+     * @return true se il file va consegnato: non è mai stato consegnato, oppure è cambiato dopo la consegna
+     */
+    private boolean reconcile(String directory, String name, long size, long modified) {
+        Map<String, Entry> files = directories.get(directory);
+        Entry current = files != null ? files.get(name) : null;
+        if (current != null && current.size == size && current.modified == modified) {
+            // Consegnato o già elaborato e non modificato: non va riconsegnato
+            return current.state == State.PENDING;
+        }
+        Entry entry = new Entry(size, modified, State.PENDING);
+        put(directory, name, entry);
+        append(childKey(directory, name), entry);
+        return true;
+    }
+
+    private void put(String directory, String name, Entry entry) {
+        directories.compute(directory, (dir, files) -> {
+            Map<String, Entry> current = files != null ? files : new ConcurrentHashMap<>();
+            if (current.put(name, entry) == null) {
+                fileCount.incrementAndGet();
+            }
+            return current;
+        });
+    }
+
+    private void remove(String directory, String name) {
+        directories.computeIfPresent(directory, (dir, files) -> {
+            if (files.remove(name) != null) {
+                fileCount.decrementAndGet();
+            }
+            return files.isEmpty() ? null : files;
+        });
+    }
+
+    private String key(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        return absolute.startsWith(root) ? root.relativize(absolute).toString() : absolute.toString();
+    }
+
+    /**
+     * @return Directory di un file a partire dal suo percorso relativo, "" per i file nella radice
+     */
+    private static String directoryKey(String key) {
+        int separator = key.lastIndexOf(File.separatorChar);
+        return separator < 0 ? "" : key.substring(0, separator);
+    }
+
+    private static String fileName(String key) {
+        return key.substring(key.lastIndexOf(File.separatorChar) + 1);
+    }
+
+    private static String childKey(String directory, String name) {
+        return directory.isEmpty() ? name : directory + File.separator + name;
+    }
+
+    /**
+     * Legge il journal una riga alla volta, senza caricarlo tutto in memoria
+     */
+    private void load() throws IOException {
+        int lines = 0;
+        int interrupted = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) {
+                    continue; // riga troncata da un'interruzione durante la scrittura
+                }
+                String directory = directoryKey(fields[3]);
+                String name = fileName(fields[3]);
+                if ("R".equals(fields[0])) {
+                    remove(directory, name);
+                    continue;
+                }
+                try {
+                    put(directory, name, new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), State.valueOf(fields[0])));
+                } catch (IllegalArgumentException e) {
+                    Log.addMessage("Riga non valida nell'indice " + indexFile + ": " + line);
+                }
+            }
+        }
+        // Consegnati ma mai terminati (applicazione interrotta durante la conversione): tornano in attesa
+        // e la prima scansione li consegna di nuovo
+        for (Map<String, Entry> files : directories.values()) {
+            for (Map.Entry<String, Entry> e : files.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.state == State.QUEUED) {
+                    e.setValue(new Entry(entry.size, entry.modified, State.PENDING));
+                    interrupted++;
+                }
+            }
+        }
+        Log.addMessage("Indice " + indexFile + " caricato: " + fileCount.get() + " file in " + directories.size()
+                + " directory (" + lines + " righe), " + interrupted + " conversioni interrotte da riproporre");
+    }
+
+    private synchronized void append(String key, Entry entry) {
+        append(entry.state.name(), key, entry);
+    }
+
+    private synchronized void append(String tag, String key, Entry entry) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.write(tag + "\t" + (entry != null ? entry.size : 0) + "\t" + (entry != null ? entry.modified : 0) + "\t" + key);
+            journal.newLine();
+            journalLines++;
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: scrittura dell'indice " + indexFile + " fallita: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rende visibili sul disco le righe aggiunte; riscrive l'indice se contiene troppe righe superate
+     */
+    private synchronized void flushJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.flush();
+            if (journalLines > 2 * fileCount.get() + 1000) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.addMessage("ERRORE: scrittura dell'indice " + indexFile + " fallita: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Riscrive l'indice con una riga per file, scrivendo direttamente sul file temporaneo, e riapre il journal in coda
+     */
+    private synchronized void compact() throws IOException {
+        closeJournal();
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        int lines = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Map<String, Entry>> dir : directories.entrySet()) {
+                for (Map.Entry<String, Entry> e : dir.getValue().entrySet()) {
+                    Entry entry = e.getValue();
+                    writer.write(entry.state.name() + "\t" + entry.size + "\t" + entry.modified + "\t" + childKey(dir.getKey(), e.getKey()));
+                    writer.newLine();
+                    lines++;
+                }
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        journalLines = lines;
+    }
+
+    private synchronized void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.addMessage("ERRORE: chiusura dell'indice " + indexFile + " fallita: " + e.getMessage());
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Esito di una scansione
+     */
+    public static final class RescanResult {
+        private final Queue<FoundFile> files = new ConcurrentLinkedQueue<>();
+        private final Queue<Path> directories = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger present = new AtomicInteger();
+        private final AtomicInteger removed = new AtomicInteger();
+        private volatile boolean incomplete = false;
+
+        /**
+         * @return File da consegnare per la conversione, nell'ordine in cui sono stati trovati
+         */
+        public List<FoundFile> getFiles() {
+            return Collections.unmodifiableList(new ArrayList<>(files));
+        }
+
+        /**
+         * @return Directory trovate, compresa la radice
+         */
+        public List<Path> getDirectories() {
+            return Collections.unmodifiableList(new ArrayList<>(directories));
+        }
+    }
+
+    /**
+     * File da consegnare trovato dalla scansione, con gli attributi letti durante la scansione
+     */
+    public static final class FoundFile {
+        private final Path path;
+        private final long size;
+        private final long modified;
+
+        FoundFile(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return Data di ultima modifica in millisecondi
+         */
+        public long getModified() {
+            return modified;
+        }
+    }
+
+    /**
+     * Scansione di una directory: i file vengono confrontati con l'indice e quelli spariti tolti,
+     * le sottodirectory scansionate in parallelo
+     */
+    private final class ScanDirectory extends RecursiveAction {
+        private final Path directory;
+        private final RescanResult result;
+        private final Set<String> visited;
+
+        private ScanDirectory(Path directory, RescanResult result, Set<String> visited) {
+            this.directory = directory;
+            this.result = result;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute() {
+            result.directories.add(directory);
+            String directoryKey = key(directory);
+            visited.add(directoryKey);
+            List<ScanDirectory> children = new ArrayList<>();
+            Set<String> present = new HashSet<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue; // sparito durante la scansione
+                    }
+                    if (attrs.isDirectory()) {
+                        children.add(new ScanDirectory(child, result, visited));
+                    } else if (attrs.isRegularFile()) {
+                        String name = child.getFileName().toString();
+                        present.add(name);
+                        long modified = attrs.lastModifiedTime().toMillis();
+                        if (reconcile(directoryKey, name, attrs.size(), modified)) {
+                            result.files.add(new FoundFile(child, attrs.size(), modified));
+                        }
+                    }
+                }
+                result.present.addAndGet(present.size());
+                result.removed.addAndGet(prune(directoryKey, present));
+            } catch (IOException e) {
+                // Directory non leggibile: i suoi file restano nell'indice, altrimenti verrebbero riconvertiti
+                result.incomplete = true;
+                Log.addMessage("ERRORE: scansione della directory " + directory + " fallita: " + e.getMessage());
+            }
+            invokeAll(children);
+        }
+    }
+
+    /**
+     * Dimensione, data di modifica e stato di un file
+     */
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final State state;
+
+        private Entry(long size, long modified, State state) {
+            this.size = size;
+            this.modified = modified;
+            this.state = state;
+        }
+    }
+}
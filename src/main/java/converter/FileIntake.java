@@ -0,0 +1,182 @@
+package converter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coda dei file rilevati nella cartella monitorata, in attesa che siano stati scritti completamente.
+ * I file copiati via rete (SMB, scp) vengono creati subito ma scritti per minuti: convertirli al primo evento
+ * significa convertire un PDF o uno zip troncato. Ogni file viene consegnato solo quando dimensione e data di modifica
+ * restano invariate per l'intervallo di stabilità e, se il file system lo permette, si riesce a ottenere un lock esclusivo.
+ * Più eventi sullo stesso file vengono uniti; un solo thread controlla periodicamente tutti i file in attesa,
+ * quindi anche migliaia di file in copia non occupano un thread ciascuno.
+ */
+public class FileIntake implements AutoCloseable {
+
+    // Intervallo tra due controlli dei file in attesa
+    private static final long POLL_MILLIS = Long.getLong("converter.intake.pollMillis", 500L);
+    // Tempo per cui dimensione e data di modifica devono restare invariate
+    private static final long STABLE_MILLIS = Long.getLong("converter.intake.stableMillis", 2000L);
+    // Se true, prima della consegna si verifica che nessun altro processo tenga il file bloccato
+    private static final boolean LOCK_CHECK = Boolean.parseBoolean(System.getProperty("converter.intake.lockCheck", "true"));
+
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    private final Consumer<Path> handoff;
+    private final ScheduledExecutorService poller;
+
+    /**
+     * @param handoff Destinatario dei file pronti, chiamato nel thread di controllo: deve solo accodare il lavoro
+     */
+    public FileIntake(Consumer<Path> handoff) {
+        if (handoff == null) {
+            Log.addMessage("ERRORE: handoff nullo");
+            throw new NullPointerException("L'oggetto handoff non esiste");
+        }
+        this.handoff = handoff;
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "file-intake");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Segnala un file nuovo o modificato. Se è già in attesa il controllo di stabilità prosegue:
+     * le modifiche vengono comunque viste dal confronto di dimensione e data, e le segnalazioni ripetute
+     * (ad esempio una directory elencata a ogni ciclo dal backend a polling) non ne rimandano la consegna
+     * @param file File rilevato
+     */
+    public void offer(Path file) {
+        if (file == null) {
+            Log.addMessage("ERRORE: file nullo");
+            throw new NullPointerException("L'oggetto file non esiste");
+        }
+        Pending previous = pending.putIfAbsent(file, new Pending());
+        if (previous == null) {
+            Log.addMessage("File in attesa di fine scrittura: " + file);
+        }
+    }
+
+    /**
+     * @return Tempo per cui dimensione e data di modifica di un file devono restare invariate prima della consegna
+     */
+    public static long getStableMillis() {
+        return STABLE_MILLIS;
+    }
+
+    /**
+     * @return Numero di file in attesa di fine scrittura
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Ferma i controlli: i file ancora in attesa non vengono consegnati
+     */
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        pending.clear();
+    }
+
+    /**
+     * Controlla tutti i file in attesa e consegna quelli stabili
+     */
+    private void poll() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Pending> entry = it.next();
+            Path file = entry.getKey();
+            Pending state = entry.getValue();
+            try {
+                if (!state.isStable(file, now) || !isUnlocked(file)) {
+                    continue;
+                }
+            } catch (NoSuchFileException e) {
+                // Eliminato o rinominato prima della fine della copia (es. file temporanei dei programmi di copia)
+                pending.remove(file, state);
+                continue;
+            } catch (IOException e) {
+                // Ad esempio il file è ancora aperto in scrittura da un altro processo: nuovo tentativo al prossimo controllo
+                continue;
+            }
+
+            // Consegna solo se nel frattempo il file non è stato tolto dall'attesa (close)
+            if (pending.remove(file, state)) {
+                Log.addMessage("File pronto per la conversione: " + file);
+                try {
+                    handoff.accept(file);
+                } catch (RuntimeException e) {
+                    Log.addMessage("ERRORE: consegna del file " + file + " fallita: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true se nessun altro processo tiene il file bloccato (o se il controllo è disattivato)
+     * @throws IOException File non apribile, tipicamente perché ancora in scrittura
+     */
+    private static boolean isUnlocked(Path file) throws IOException {
+        if (!LOCK_CHECK) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (AccessDeniedException e) {
+            // File in sola lettura: il lock non è verificabile, basta la stabilità
+            return Files.isReadable(file);
+        } catch (OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stato di un file in attesa: ultima dimensione e data di modifica osservate e da quando non cambiano
+     */
+    private static final class Pending {
+        private long size = -1;
+        private long modified = -1;
+        private long stableSince = -1;
+
+        /**
+         * Aggiorna lo stato con gli attributi attuali del file
+         * @return true se il file non cambia da almeno l'intervallo di stabilità
+         */
+        private boolean isStable(Path file, long now) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long currentSize = attrs.size();
+            long currentModified = attrs.lastModifiedTime().toMillis();
+            if (currentSize != size || currentModified != modified) {
+                size = currentSize;
+                modified = currentModified;
+                stableSince = now;
+                return false;
+            }
+            return now - stableSince >= STABLE_MILLIS;
+        }
+    }
+}
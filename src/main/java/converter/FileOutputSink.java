@@ -0,0 +1,58 @@
+package converter;
+
+import Converters.OutputSink;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sink che salva i file prodotti da uno StreamConverter in una cartella del file system
+ * e tiene traccia dei file creati.
+ */
+public class FileOutputSink implements OutputSink {
+    private final File directory;
+    private final List<File> files = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param directory Cartella di destinazione (viene creata se non esiste)
+     */
+    public FileOutputSink(File directory) {
+        if (directory == null) {
+            Log.addMessage("ERRORE: directory nullo");
+            throw new NullPointerException("L'oggetto directory non esiste");
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    public OutputStream newOutput(String fileName) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossibile creare la directory di output: " + directory.getAbsolutePath());
+        }
+        File file = new File(directory, fileName);
+        files.add(file);
+        return new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    /**
+     * @return Copia della lista dei file scritti finora
+     */
+    public List<File> getFiles() {
+        synchronized (files) {
+            return new ArrayList<>(files);
+        }
+    }
+
+    /**
+     * Elimina i file scritti, usato quando la conversione fallisce a metà
+     */
+    public void discard() {
+        for (File f : getFiles()) {
+            if (f.exists() && !f.delete()) {
+                Log.addMessage("ERRORE: impossibile eliminare il file parziale " + f.getAbsolutePath());
+            }
+        }
+    }
+}
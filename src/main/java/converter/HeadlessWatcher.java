@@ -0,0 +1,47 @@
+package converter;
+
+import java.io.File;
+
+/**
+ * Monitoraggio della cartella senza interfaccia grafica, per i server.
+ * I file vengono convertiti solo secondo le regole di config.json; quelli a cui non corrisponde nessuna regola
+ * restano nella cartella monitorata e vengono segnalati nel log.
+ * Uso: java converter.HeadlessWatcher [cartella] (senza argomenti usa monitoredDir di config.json)
+ */
+public class HeadlessWatcher implements AutoConversion.Listener {
+
+    public static void main(String[] args) throws Exception {
+        Engine engine = new Engine();
+        String directory = args.length > 0 ? args[0] : engine.getConverterConfig().getMonitoredDir();
+        if (ConfigStore.get().getConfig().getRules().isEmpty()) {
+            Log.addMessage(Log.Level.WARN, "Nessuna regola in config.json, nessun file verrà convertito");
+        }
+
+        DirectoryWatcher watcher = new DirectoryWatcher(directory, engine, new HeadlessWatcher(),
+                file -> Log.addMessage("Nessuna regola per " + file.getAbsolutePath() + ": file lasciato nella cartella monitorata"));
+        Thread watcherThread = new Thread(watcher, "directory-watcher");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcherThread.interrupt();
+            try {
+                watcherThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Log.addMessage("Monitoraggio senza interfaccia terminato");
+            Log.close();
+        }));
+        Log.addMessage("Monitoraggio senza interfaccia avviato per: " + watcher.getWatchedDir());
+        watcherThread.start();
+        watcherThread.join();
+    }
+
+    @Override
+    public void onConverted(File srcFile, ConversionRule rule) {
+        Log.addMessage("Convertito " + srcFile.getName() + " (" + rule + ")");
+    }
+
+    @Override
+    public void onFailed(File srcFile, ConversionRule rule, String error) {
+        Log.addMessage("ERRORE: conversione di " + srcFile.getName() + " (" + rule + ") fallita: " + error);
+    }
+}
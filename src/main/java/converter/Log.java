@@ -1,42 +1,256 @@
 package converter;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+/**
+ * Log dell'applicazione.
+ * I messaggi vengono messi in una coda limitata e scritti da un thread in background a blocchi,
+ * con un solo flush per blocco: chi chiama addMessage non tocca mai il disco.
+ * Se la coda è piena il messaggio viene scartato (e conteggiato) invece di bloccare la conversione.
+ * Il file cambia ogni giorno (src/logs/log_yyyy-MM-dd.txt).
+ * Il livello minimo si imposta con la proprietà di sistema converter.log.level (predefinito INFO).
+ */
 public class Log {
-    private static File logFile = null;
-    private static PrintWriter writer = null;
+
+    /**
+     * Livello di un messaggio
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
     private static final File logDir = new File("src/logs");
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 512;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private static final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile Level minLevel = parseLevel(System.getProperty("converter.log.level"));
+    private static volatile boolean closed = false;
+
+    // Stato del file corrente, usato solo dal thread di scrittura
+    private static volatile File logFile = null;
+    private static PrintWriter writer = null;
+    private static LocalDate currentDate = null;
+
+    private static final Thread writerThread = new Thread(Log::writeLoop, "log-writer");
 
+    static {
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::close, "log-shutdown"));
+    }
+
+    /**
+     * Registra un messaggio. I messaggi che iniziano con "ERRORE" sono di livello ERROR, gli altri INFO
+     * @param message Testo del messaggio
+     */
     public static void addMessage(String message) {
-        if (logFile == null){
-            try {
-                String fileName = "log_" + getDateOnly() + ".txt";
-                logFile = new File(logDir, fileName);
-                writer = new PrintWriter(new BufferedWriter(new FileWriter(logFile, true)));
-            } catch (IOException e){
-                System.out.println("ERRORE CREAZIONE FILE DI LOG");
-            }
+        Level level = message != null && message.startsWith("ERRORE") ? Level.ERROR : Level.INFO;
+        enqueue(level, message);
+    }
+
+    /**
+     * Registra un messaggio con il livello indicato
+     * @param level Livello del messaggio
+     * @param message Testo del messaggio
+     */
+    public static void addMessage(Level level, String message) {
+        enqueue(level, message);
+    }
+
+    /**
+     * Registra un messaggio costruendolo solo se il livello è abilitato
+     * @param level Livello del messaggio
+     * @param message Funzione che costruisce il testo
+     */
+    public static void addMessage(Level level, Supplier<String> message) {
+        if (isEnabled(level)) {
+            enqueue(level, message.get());
         }
-        String time = getTimeOnly();
-        writer.println("[" + time + "] " + message);
-        writer.flush();
     }
 
+    /**
+     * Messaggio di debug, costruito solo se il livello DEBUG è abilitato
+     * @param message Funzione che costruisce il testo
+     */
+    public static void debug(Supplier<String> message) {
+        addMessage(Level.DEBUG, message);
+    }
+
+    /**
+     * @param level Livello da controllare
+     * @return true se i messaggi del livello vengono scritti
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(minLevel) >= 0;
+    }
+
+    /**
+     * @param level Nuovo livello minimo dei messaggi scritti
+     */
+    public static void setLevel(Level level) {
+        if (level == null) {
+            Log.addMessage("ERRORE: level nullo");
+            throw new NullPointerException("L'oggetto level non esiste");
+        }
+        minLevel = level;
+    }
+
+    /**
+     * @return Numero di messaggi scartati perché la coda era piena
+     */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Scrive i messaggi ancora in coda e chiude il file
+     */
     public static void close() {
-        writer.close();
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public static File getLogFile() {
         return logFile;
     }
 
-    private static String getTimeOnly() {
-        return new SimpleDateFormat("HH:mm:ss").format(new Date());
+    private static void enqueue(Level level, String message) {
+        if (closed || !isEnabled(level)) {
+            return;
+        }
+        if (!queue.offer(new Record(System.currentTimeMillis(), level, message))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Ciclo del thread di scrittura: attende un messaggio, poi scrive tutto ciò che è in coda con un solo flush
+     */
+    private static void writeLoop() {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        long reportedDropped = 0;
+        boolean running = true;
+        while (running) {
+            try {
+                Record first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            queue.drainTo(batch, BATCH_SIZE - batch.size());
+
+            long lost = dropped.get();
+            if (batch.isEmpty() && lost == reportedDropped) {
+                continue;
+            }
+            write(batch, lost - reportedDropped);
+            reportedDropped = lost;
+            batch.clear();
+        }
+
+        // Chiusura: svuota la coda
+        queue.drainTo(batch);
+        write(batch, dropped.get() - reportedDropped);
+        if (writer != null) {
+            writer.close();
+        }
     }
 
-    private static String getDateOnly() {
-        return new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    private static void write(List<Record> batch, long newlyDropped) {
+        LocalDate today = LocalDate.now();
+        if (writer == null || !today.equals(currentDate)) {
+            rotate(today);
+        }
+        if (writer == null) {
+            return;
+        }
+        if (newlyDropped > 0) {
+            writer.println("[" + TIME_FORMAT.format(LocalTime.now()) + "] WARN: " + newlyDropped + " messaggi di log scartati (coda piena)");
+        }
+        for (Record record : batch) {
+            writer.print('[');
+            writer.print(TIME_FORMAT.format(Instant.ofEpochMilli(record.time).atZone(ZoneId.systemDefault())));
+            writer.print("] ");
+            if (record.level == Level.DEBUG || record.level == Level.WARN) {
+                writer.print(record.level.name());
+                writer.print(": ");
+            }
+            writer.println(record.message);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Apre il file del giorno indicato, chiudendo quello precedente
+     */
+    private static void rotate(LocalDate date) {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        try {
+            if (!logDir.exists()) {
+                logDir.mkdirs();
+            }
+            File file = new File(logDir, "log_" + DATE_FORMAT.format(date) + ".txt");
+            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)));
+            logFile = file;
+            currentDate = date;
+        } catch (IOException e) {
+            System.out.println("ERRORE CREAZIONE FILE DI LOG");
+        }
+    }
+
+    private static Level parseLevel(String value) {
+        if (value == null) {
+            return Level.INFO;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * Messaggio in coda: il timestamp viene preso al momento della chiamata, la formattazione la fa il thread di scrittura
+     */
+    private static final class Record {
+        private final long time;
+        private final Level level;
+        private final String message;
+
+        private Record(long time, Level level, String message) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package converter;
+
+import Converters.OutputSink;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sink che tiene in memoria i file prodotti da uno StreamConverter.
+ * Usato per i risultati intermedi delle conversioni a più passaggi, che non devono toccare il disco.
+ */
+public class MemoryOutputSink implements OutputSink {
+    private final List<Output> outputs = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public OutputStream newOutput(String fileName) {
+        if (fileName == null) {
+            Log.addMessage("ERRORE: fileName nullo");
+            throw new NullPointerException("L'oggetto fileName non esiste");
+        }
+        Output output = new Output(fileName);
+        outputs.add(output);
+        return output.buffer;
+    }
+
+    /**
+     * @return Copia della lista dei file prodotti, nell'ordine di creazione
+     */
+    public List<Output> getOutputs() {
+        synchronized (outputs) {
+            return new ArrayList<>(outputs);
+        }
+    }
+
+    /**
+     * File prodotto in memoria: nome e contenuto
+     */
+    public static final class Output {
+        private final String name;
+        private final Buffer buffer = new Buffer();
+
+        private Output(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return buffer.size();
+        }
+
+        /**
+         * @return Stream di lettura sul contenuto, senza copiare il buffer
+         */
+        public InputStream openStream() {
+            return buffer.asInputStream();
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream che permette di rileggere i dati senza la copia fatta da toByteArray()
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(64 * 1024);
+        }
+
+        private synchronized InputStream asInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
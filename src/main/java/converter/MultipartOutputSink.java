@@ -0,0 +1,123 @@
+package converter;
+
+import Converters.OutputSink;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sink che invia i file prodotti come parti di una risposta multipart/mixed, man mano che il converter li produce.
+ * Ogni parte viene inviata al client appena il converter la chiude (ad esempio ogni pagina di un PDF appena renderizzata),
+ * quindi il client può mostrare il primo file mentre i successivi sono ancora in conversione.
+ * Come previsto da {@link OutputSink}, il converter apre un file alla volta e lo chiude prima di aprire il successivo.
+ */
+public class MultipartOutputSink implements OutputSink {
+    private static final String CRLF = "\r\n";
+
+    private final OutputStream out;
+    private final String boundary;
+
+    private int count = 0;
+    private boolean finished = false;
+
+    /**
+     * @param out Stream della risposta, su cui vengono scritte le parti
+     * @param boundary Separatore delle parti, lo stesso indicato nel Content-Type della risposta
+     */
+    public MultipartOutputSink(OutputStream out, String boundary) {
+        if (out == null) {
+            Log.addMessage("ERRORE: out nullo");
+            throw new NullPointerException("L'oggetto out non esiste");
+        }
+        if (boundary == null) {
+            Log.addMessage("ERRORE: boundary nullo");
+            throw new NullPointerException("L'oggetto boundary non esiste");
+        }
+        this.out = out;
+        this.boundary = boundary;
+    }
+
+    @Override
+    public synchronized OutputStream newOutput(String fileName) throws IOException {
+        if (finished) {
+            throw new IOException("Risposta già terminata");
+        }
+        String contentType = URLConnection.guessContentTypeFromName(fileName);
+        writePartHeaders(contentType != null ? contentType : "application/octet-stream",
+                "attachment; filename=\"" + fileName.replace("\"", "") + "\"");
+        count++;
+        return new PartOutputStream(out);
+    }
+
+    /**
+     * Aggiunge in fondo una parte JSON con l'errore della conversione e termina la risposta.
+     * Usato quando la conversione fallisce dopo l'invio dell'intestazione, che riporta già esito positivo
+     * @param message Messaggio d'errore
+     * @throws IOException Errore nella scrittura della risposta
+     */
+    public synchronized void fail(String message) throws IOException {
+        if (finished) {
+            return;
+        }
+        String text = message == null ? "" : message.replace("\\", "\\\\").replace("\"", "\\\"").replaceAll("[\\r\\n]+", " ");
+        writePartHeaders("application/json; charset=utf-8", "inline; name=\"error\"");
+        out.write(("{\"success\":false,\"error\":\"" + text + "\"}").getBytes(StandardCharsets.UTF_8));
+        finish();
+    }
+
+    /**
+     * Scrive il separatore finale, va chiamato a conversione terminata
+     * @throws IOException Errore nella scrittura della risposta
+     */
+    public synchronized void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        out.write((CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * @return Numero di file inviati
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    private void writePartHeaders(String contentType, String disposition) throws IOException {
+        // Il CRLF prima del separatore appartiene al separatore, non al contenuto della parte precedente
+        String headers = (count == 0 ? "" : CRLF) + "--" + boundary + CRLF
+                + "Content-Type: " + contentType + CRLF
+                + "Content-Disposition: " + disposition + CRLF
+                + CRLF;
+        out.write(headers.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stream di una parte: la chiusura invia subito la parte al client ma lascia aperta la risposta
+     */
+    private static final class PartOutputStream extends FilterOutputStream {
+        private boolean closed = false;
+
+        private PartOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                out.flush();
+            }
+        }
+    }
+}
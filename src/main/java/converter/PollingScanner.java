@@ -0,0 +1,228 @@
+package converter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rilevamento dei file nuovi tramite scansione periodica, alternativo al WatchService (backend "polling" di config.json).
+ * Serve per alberi con centinaia di migliaia di cartelle, dove il WatchService esaurisce i watch di inotify
+ * (max_user_watches), e per le cartelle di rete (NFS, SMB) dove gli eventi del file system non arrivano.
+ * Lo scanner tiene in memoria solo l'albero delle directory con la data di modifica di ciascuna; dimensione, data e stato
+ * dei file restano in {@link FileIndex}, che ha una voce per ogni file indicizzato. Ad ogni ciclo tutte le directory
+ * vengono lette in parallelo con una sola lettura degli attributi, e vengono elencate solo quelle la cui data di modifica
+ * è cambiata (un file creato, eliminato o rinominato cambia la data della directory che lo contiene). I file delle
+ * directory elencate vengono confrontati con l'indice, che restituisce solo quelli nuovi o modificati: oltre alla lettura
+ * degli attributi delle directory, il costo di un ciclo dipende dai file delle directory cambiate e non dall'intero albero.
+ */
+public class PollingScanner implements AutoCloseable {
+
+    // Thread usati per la scansione dell'albero
+    private static final int THREADS = Integer.getInteger("converter.polling.threads",
+            Math.min(8, Runtime.getRuntime().availableProcessors()));
+    // Una directory modificata da meno di questo tempo viene elencata anche al ciclo successivo:
+    // sui file system con data di modifica al secondo (NFS, ext3) due modifiche ravvicinate hanno la stessa data
+    private static final long SETTLE_MILLIS = Long.getLong("converter.polling.settleMillis", 2000L);
+
+    // Data di modifica di una directory non ancora elencata
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Path root;
+    private final FileIndex index;
+    private final ForkJoinPool pool;
+    private final Node tree;
+    private volatile int directoryCount = 0;
+
+    /**
+     * @param root Cartella monitorata
+     * @param index Indice della cartella monitorata
+     */
+    public PollingScanner(Path root, FileIndex index) {
+        if (root == null) {
+            Log.addMessage("ERRORE: root nullo");
+            throw new NullPointerException("L'oggetto root non esiste");
+        }
+        if (index == null) {
+            Log.addMessage("ERRORE: index nullo");
+            throw new NullPointerException("L'oggetto index non esiste");
+        }
+        this.root = root;
+        this.index = index;
+        this.pool = new ForkJoinPool(Math.max(1, THREADS));
+        this.tree = new Node(null);
+    }
+
+    /**
+     * Costruisce l'albero delle directory senza consegnare file: quelli già presenti li elabora l'arretrato.
+     * Va chiamato prima di avviare l'arretrato, così un file creato durante la sua scansione cambia la data
+     * di una directory già letta e viene trovato dal primo ciclo
+     */
+    public void initialize() {
+        long start = System.currentTimeMillis();
+        Cycle cycle = new Cycle(false);
+        pool.invoke(new ScanDirectory(tree, root, cycle));
+        directoryCount = cycle.directories.get();
+        Log.addMessage("Albero di " + root + " letto in " + (System.currentTimeMillis() - start) + " ms: "
+                + directoryCount + " directory");
+    }
+
+    /**
+     * Esegue un ciclo di scansione incrementale
+     * @return File nuovi, modificati o mai consegnati nelle directory cambiate dall'ultimo ciclo
+     */
+    public List<FileIndex.FoundFile> scan() {
+        long start = System.currentTimeMillis();
+        Cycle cycle = new Cycle(true);
+        pool.invoke(new ScanDirectory(tree, root, cycle));
+        directoryCount = cycle.directories.get();
+        if (cycle.listings.isEmpty() && cycle.removed.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<FileIndex.FoundFile> found = index.reconcile(cycle.listings, cycle.removed);
+        Log.addMessage("Scansione di " + root + " in " + (System.currentTimeMillis() - start) + " ms: "
+                + directoryCount + " directory, " + cycle.listings.size() + " modificate, " + found.size() + " file nuovi");
+        return found;
+    }
+
+    /**
+     * @return Numero di directory lette dall'ultimo ciclo
+     */
+    public int getDirectoryCount() {
+        return directoryCount;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Risultato di un ciclo: contenuto delle directory elencate e directory sparite
+     */
+    private static final class Cycle {
+        private final boolean deliver;
+        private final long now = System.currentTimeMillis();
+        private final Map<Path, List<FileIndex.FoundFile>> listings = new ConcurrentHashMap<>();
+        private final Queue<Path> removed = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger directories = new AtomicInteger();
+
+        private Cycle(boolean deliver) {
+            this.deliver = deliver;
+        }
+    }
+
+    /**
+     * Directory dell'albero: solo il nome, il percorso viene ricostruito durante la visita.
+     * Ogni nodo è letto e modificato da una sola attività per ciclo e i cicli non si sovrappongono
+     */
+    private static final class Node {
+        private final String name;
+        private long modified = UNKNOWN;
+        private Node[] children = NO_CHILDREN;
+
+        private Node(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Visita di una directory: la elenca solo se è cambiata, poi visita in parallelo le sottodirectory
+     */
+    private final class ScanDirectory extends RecursiveAction {
+        private final Node node;
+        private final Path directory;
+        private final Cycle cycle;
+
+        private ScanDirectory(Node node, Path directory, Cycle cycle) {
+            this.node = node;
+            this.directory = directory;
+            this.cycle = cycle;
+        }
+
+        @Override
+        protected void compute() {
+            long modified;
+            try {
+                modified = Files.getLastModifiedTime(directory).toMillis();
+            } catch (IOException e) {
+                // Sparita: la directory padre è cambiata e al suo elenco il nodo viene tolto
+                if (node == tree) {
+                    Log.addMessage("ERRORE: cartella monitorata " + directory + " non raggiungibile: " + e.getMessage());
+                }
+                return;
+            }
+            cycle.directories.incrementAndGet();
+
+            // La data è letta prima dell'elenco: una modifica durante l'elenco viene vista al ciclo successivo
+            if (modified != node.modified && list()) {
+                node.modified = cycle.now - modified < SETTLE_MILLIS ? UNKNOWN : modified;
+            }
+
+            Node[] children = node.children;
+            if (children.length == 0) {
+                return;
+            }
+            List<ScanDirectory> tasks = new ArrayList<>(children.length);
+            for (Node child : children) {
+                tasks.add(new ScanDirectory(child, directory.resolve(child.name), cycle));
+            }
+            invokeAll(tasks);
+        }
+
+        /**
+         * Elenca la directory aggiornando le sottodirectory del nodo
+         * @return false se la directory non è leggibile: verrà elencata di nuovo al ciclo successivo
+         */
+        private boolean list() {
+            Map<String, Node> previous = new HashMap<>();
+            for (Node child : node.children) {
+                previous.put(child.name, child);
+            }
+            List<Node> children = new ArrayList<>();
+            List<FileIndex.FoundFile> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue; // sparito durante l'elenco
+                    }
+                    if (attrs.isDirectory()) {
+                        // Una directory nuova viene elencata nello stesso ciclo (modified = UNKNOWN)
+                        Node existing = previous.remove(child.getFileName().toString());
+                        children.add(existing != null ? existing : new Node(child.getFileName().toString()));
+                    } else if (attrs.isRegularFile() && cycle.deliver) {
+                        files.add(new FileIndex.FoundFile(child, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch (IOException e) {
+                Log.addMessage("ERRORE: scansione della directory " + directory + " fallita: " + e.getMessage());
+                return false;
+            }
+
+            node.children = children.isEmpty() ? NO_CHILDREN : children.toArray(new Node[0]);
+            if (cycle.deliver) {
+                cycle.listings.put(directory, files);
+                for (String name : previous.keySet()) {
+                    cycle.removed.add(directory.resolve(name));
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package converter;
+
+import Converters.OutputSink;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Sink per le conversioni che devono restituire un solo file.
+ * Se il converter produce un solo file questo viene salvato così com'è; dal secondo file in poi
+ * tutti i file prodotti vengono raccolti in un archivio zip, scritto una voce alla volta
+ * man mano che il converter li produce (ad esempio le pagine di un PDF).
+ * Come previsto da {@link OutputSink}, il converter apre un file alla volta e lo chiude prima di aprire il successivo.
+ * L'archivio viene scritto su disco e non direttamente nella risposta HTTP: se il risultato sia un file singolo o uno zip
+ * (e quindi il Content-Type) si sa solo al secondo file prodotto, il risultato di un job deve restare scaricabile
+ * da /jobs/{id}/result e l'archivio completo viene messo in cache. Chi vuole i file man mano che vengono prodotti
+ * usa /convert/stream, che li invia come parti multipart senza passare dal disco.
+ */
+public class ZipOutputSink implements OutputSink {
+    private final File directory;
+    private final String archiveName;
+
+    private File single = null;
+    private File archive = null;
+    private ZipOutputStream zip = null;
+    private int count = 0;
+
+    /**
+     * @param directory Cartella di destinazione (viene creata se non esiste)
+     * @param archiveName Nome dell'archivio zip creato quando i file prodotti sono più di uno
+     */
+    public ZipOutputSink(File directory, String archiveName) {
+        if (directory == null) {
+            Log.addMessage("ERRORE: directory nullo");
+            throw new NullPointerException("L'oggetto directory non esiste");
+        }
+        if (archiveName == null) {
+            Log.addMessage("ERRORE: archiveName nullo");
+            throw new NullPointerException("L'oggetto archiveName non esiste");
+        }
+        this.directory = directory;
+        this.archiveName = archiveName;
+    }
+
+    @Override
+    public synchronized OutputStream newOutput(String fileName) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossibile creare la directory di output: " + directory.getAbsolutePath());
+        }
+        count++;
+        if (count == 1) {
+            single = new File(directory, fileName);
+            return new BufferedOutputStream(new FileOutputStream(single));
+        }
+        if (zip == null) {
+            openArchive();
+        }
+        zip.putNextEntry(new ZipEntry(fileName));
+        return new EntryOutputStream(zip);
+    }
+
+    /**
+     * Il primo file, già scritto su disco, diventa la prima voce dell'archivio
+     */
+    private void openArchive() throws IOException {
+        archive = new File(directory, archiveName);
+        zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+        // Le pagine sono già compresse (jpg, png): conta la velocità, non il rapporto di compressione
+        zip.setLevel(Deflater.BEST_SPEED);
+        zip.putNextEntry(new ZipEntry(single.getName()));
+        Files.copy(single.toPath(), zip);
+        zip.closeEntry();
+        Files.deleteIfExists(single.toPath());
+        single = null;
+        Log.addMessage("Più file prodotti: raccolti nell'archivio " + archive.getName());
+    }
+
+    /**
+     * Chiude l'archivio, se è stato creato. Va chiamato a conversione terminata
+     * @throws IOException Errore nella scrittura della directory dell'archivio
+     */
+    public synchronized void finish() throws IOException {
+        if (zip != null) {
+            zip.close();
+            zip = null;
+        }
+    }
+
+    /**
+     * @return Archivio zip se i file prodotti sono più di uno, altrimenti l'unico file prodotto (null se nessuno)
+     */
+    public synchronized File getResult() {
+        return archive != null ? archive : single;
+    }
+
+    /**
+     * @return Numero di file prodotti dal converter
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Elimina i file scritti, usato quando la conversione fallisce a metà
+     */
+    public synchronized void discard() {
+        if (zip != null) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // L'archivio viene eliminato comunque
+            }
+            zip = null;
+        }
+        File result = getResult();
+        if (result != null && result.exists() && !result.delete()) {
+            Log.addMessage("ERRORE: impossibile eliminare il file parziale " + result.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Stream di una voce dell'archivio: la chiusura termina la voce ma lascia aperto l'archivio
+     */
+    private static final class EntryOutputStream extends FilterOutputStream {
+        private boolean closed = false;
+
+        private EntryOutputStream(ZipOutputStream zip) {
+            super(zip);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                ((ZipOutputStream) out).closeEntry();
+            }
+        }
+    }
+}
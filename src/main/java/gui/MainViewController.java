@@ -1,8 +1,16 @@
 package gui;
 
+import converter.AutoConversion;
+import converter.BacklogPass;
+import converter.ConfigStore;
+import converter.ConversionRule;
+import converter.ConversionScheduler;
 import converter.DirectoryWatcher;
 import converter.Log;
 import converter.Engine;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -13,6 +21,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.awt.*;
 import java.io.File;
@@ -20,20 +29,23 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.nio.file.StandardCopyOption;
 
 import WebService.client.ConverterWebServiceClient;
 import WebService.client.ConversionResult;
+import WebService.client.JobProgressListener;
 
 /**
  * Controller principale della UI per la gestione del monitoraggio cartelle e conversione file.
  */
-public class MainViewController {
+public class MainViewController implements AutoConversion.Listener {
 
     @FXML
     private Label statusIndicator;
@@ -48,6 +60,8 @@ public class MainViewController {
     @FXML
     private Label failedConversionsCounter;
     @FXML
+    private Label metricsLabel;
+    @FXML
     private Button MonitoringBtn;
     @FXML
     private Button configBtn;
@@ -59,6 +73,12 @@ public class MainViewController {
     private Button fileConvertitiBtn;
     @FXML
     private Button conversioniFalliteBtn;
+    @FXML
+    private ProgressBar conversionProgressBar;
+    @FXML
+    private Label conversionProgressLabel;
+    @FXML
+    private Button cancelConversionBtn;
 
     // Riferimento all'applicazione principale
     private MainApp mainApp;
@@ -79,6 +99,23 @@ public class MainViewController {
 
     private Engine engine;
     private Thread watcherThread;
+    private volatile DirectoryWatcher watcher;
+    private Timeline metricsRefresh;
+    // Ultima conversione avviata, di cui vengono mostrati avanzamento e pulsante di annullamento
+    private volatile ActiveConversion activeConversion;
+    // Conversioni avviate dal dialogo: il thread segue il job del web service (solo attesa di rete) e accoda
+    // l'eventuale fallback locale nel pool della sua classe di costo, quindi non occupa un worker dello scheduler
+    private final ExecutorService guiConversions = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "gui-conversion");
+        t.setDaemon(true);
+        return t;
+    });
+    // Richieste di annullamento: mai nel pool LIGHT, i cui thread possono essere tutti in attesa dei job da annullare
+    private final ExecutorService cancelExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "conversion-cancel");
+        t.setDaemon(true);
+        return t;
+    });
 
     /**
      * Metodo invocato automaticamente da JavaFX dopo il caricamento del FXML.
@@ -96,12 +133,34 @@ public class MainViewController {
         webServiceClient = new ConverterWebServiceClient("http://localhost:8080");
 
         loadConfiguration();
+        startMetricsRefresh();
 
         if (monitorAtStart) {
             toggleMonitoring();
         }
     }
 
+    /**
+     * Aggiorna ogni 2 secondi il riepilogo delle metriche (coda, conversioni, cache, coppia più lenta).
+     */
+    private void startMetricsRefresh() {
+        if (metricsLabel == null) {
+            return;
+        }
+        metricsRefresh = new Timeline(new KeyFrame(Duration.seconds(2), e -> {
+            String summary = Engine.getMetrics().getSummary(Engine.getScheduler(), Engine.getCache());
+            // Avanzamento dei file trovati nella cartella all'avvio del monitoraggio, finché non sono stati elaborati
+            DirectoryWatcher current = watcher;
+            BacklogPass backlog = current != null ? current.getBacklog() : null;
+            if (backlog != null && backlog.isRunning()) {
+                summary += " | " + backlog.getSummary();
+            }
+            metricsLabel.setText(summary);
+        }));
+        metricsRefresh.setCycleCount(Animation.INDEFINITE);
+        metricsRefresh.play();
+    }
+
     /**
      * Restituisce l'estensione del file.
      *
@@ -155,14 +214,14 @@ public class MainViewController {
             Log.addMessage("Monitoraggio fermato");
             addLogMessage("Monitoraggio fermato.");
             resetCounters();
-            if (watcherThread != null && watcherThread.isAlive()) {
-                watcherThread.interrupt();
-            }
+            stopWatcher();
         } else {
             Log.addMessage("Monitoraggio avviato per: " + monitoredFolderPath);
             addLogMessage("Monitoraggio avviato per: " + monitoredFolderPath);
             // Avvia DirectoryWatcher
-            watcherThread = new Thread(new DirectoryWatcher(monitoredFolderPath, this));
+            stopWatcher();
+            watcher = new DirectoryWatcher(monitoredFolderPath, this);
+            watcherThread = new Thread(watcher);
             watcherThread.start();
             resetCounters();
         }
@@ -271,8 +330,9 @@ public class MainViewController {
             addLogMessage("Editor configurazione chiuso");
             loadConfiguration();
             if (watcherThread != null && watcherThread.isAlive()) {
-                watcherThread.interrupt();
-                watcherThread = new Thread(new DirectoryWatcher(monitoredFolderPath, this));
+                stopWatcher();
+                watcher = new DirectoryWatcher(monitoredFolderPath, this);
+                watcherThread = new Thread(watcher);
                 watcherThread.start();
             }
 
@@ -319,6 +379,22 @@ public class MainViewController {
         });
     }
 
+    /**
+     * Ferma il watcher e ne attende la chiusura: l'indice della cartella deve essere chiuso
+     * prima che un nuovo watcher lo riapra
+     */
+    private void stopWatcher() {
+        if (watcherThread != null && watcherThread.isAlive()) {
+            watcherThread.interrupt();
+            try {
+                watcherThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.addMessage("ERRORE: attesa della chiusura del watcher interrotta");
+            }
+        }
+    }
+
     public void interruptWatcher() {
         addLogMessage("Chiusura applicazione...");
         if (watcherThread != null) {
@@ -339,7 +415,6 @@ public class MainViewController {
     }
 
     public void launchDialogConversion(File srcFile) {
-        List<String> formatiImmagini = Arrays.asList("png", "tiff", "gif", "webp", "psd", "icns", "ico", "tga", "iff", "jpeg", "bmp", "jpg", "pnm", "pgm", "pgm", "ppm", "xwd");
         if (srcFile == null || engine == null) {
             Log.addMessage("ERRORE: File sorgente o Engine non valido.");
             launchAlertError("File sorgente o Engine non valido.");
@@ -383,69 +458,65 @@ public class MainViewController {
 
             Optional<String> result = dialog.showAndWait();
             result.ifPresent(chosenFormat -> {
-                new Thread(() -> performConversionWithFallback(srcFile, chosenFormat)).start();
+                // I dialoghi PDF vengono mostrati qui, nel thread JavaFX, prima di avviare la conversione:
+                // cosi' nessun thread resta bloccato in attesa dell'utente
+                String password = null;
+                boolean mergeImages = false;
+                if (srcExtension.equals("pdf")) {
+                    password = launchDialogPdfSync();
+                    if (chosenFormat.equals("jpg")) {
+                        mergeImages = launchDialogUnisciSync();
+                    }
+                }
+                String finalPassword = password;
+                boolean finalMergeImages = mergeImages;
+                guiConversions.execute(() -> performConversionWithFallback(srcFile, chosenFormat, finalPassword, finalMergeImages));
             });
         });
     }
 
-    private void performConversionWithFallback(File srcFile, String targetFormat) {
-        List<String> formatiImmagini = Arrays.asList("png", "tiff", "gif", "webp", "psd", "icns", "ico", "tga", "iff", "jpeg", "bmp", "jpg", "pnm", "pgm", "pgm", "ppm", "xwd");
+    private void performConversionWithFallback(File srcFile, String targetFormat, String password, boolean mergeImages) {
         String srcExtension = getExtension(srcFile);
         String outputFileName = srcFile.getName().replaceFirst("\\.[^\\.]+$", "") + "." + targetFormat;
         File outputDestinationFile = new File(convertedFolderPath, outputFileName);
 
-        // Variabili per gestire i dialoghi PDF
-        String password = null;
-        boolean mergeImages = false;
-
         try {
             // Assicurati che la directory di output esista
             if (outputDestinationFile.getParentFile() != null && !outputDestinationFile.getParentFile().exists()) {
                 outputDestinationFile.getParentFile().mkdirs();
             }
 
-            // CORREZIONE: Gestione dialoghi per PDF (eseguiti nel thread JavaFX)
-            if (srcExtension.equals("pdf")) {
-                // Usa CountDownLatch per sincronizzare i thread
-                java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
-                java.util.concurrent.atomic.AtomicReference<String> passwordRef = new java.util.concurrent.atomic.AtomicReference<>();
-                java.util.concurrent.atomic.AtomicBoolean mergeImagesRef = new java.util.concurrent.atomic.AtomicBoolean(false);
-
-                Platform.runLater(() -> {
-                    try {
-                        // Chiedi la password nel thread JavaFX
-                        passwordRef.set(launchDialogPdfSync());
-
-                        // Se il target è JPG, chiedi se unire le immagini
-                        if (targetFormat.equals("jpg")) {
-                            mergeImagesRef.set(launchDialogUnisciSync());
-                        }
-                    } finally {
-                        latch.countDown();
-                    }
-                });
-
-                // Aspetta che i dialoghi siano completati
-                try {
-                    latch.await();
-                    password = passwordRef.get();
-                    mergeImages = mergeImagesRef.get();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new Exception("Operazione interrotta dall'utente");
-                }
-            }
-
             // PRIMO TENTATIVO: USA WEBSERVICE
             boolean webServiceSuccess = false;
+            File savedFile = outputDestinationFile;
+            ActiveConversion conversion = new ActiveConversion(srcFile.getName());
+            activeConversion = conversion;
             if (webServiceClient.isServiceAvailable()) {
                 try {
                     addLogMessage("Tentativo conversione tramite web service...");
-                    ConversionResult result = webServiceClient.convertFile(srcFile, targetFormat, outputDestinationFile, password, mergeImages);
+                    // La conversione viene eseguita come job del web service, seguendone l'avanzamento
+                    ConversionResult result = webServiceClient.convertFile(srcFile, targetFormat, outputDestinationFile, password, mergeImages,
+                            new JobProgressListener() {
+                                @Override
+                                public void onSubmitted(String jobId) {
+                                    conversion.jobId = jobId;
+                                    showProgress(conversion, "QUEUED", 0, null);
+                                }
+
+                                @Override
+                                public void onProgress(String state, int progress, String detail) {
+                                    showProgress(conversion, state, progress, detail);
+                                }
+                            });
+                    clearProgress(conversion);
 
                     if (result.isSuccess()) {
+                        // Con più file prodotti il web service restituisce un archivio zip, salvato con un altro nome
+                        if (result.getOutputFile() != null) {
+                            savedFile = result.getOutputFile();
+                        }
                         // Verifica che il file convertito sia stato effettivamente salvato
-                        if (outputDestinationFile.exists()) {
+                        if (savedFile.exists()) {
                             addLogMessage("Conversione WEB SERVICE riuscita: " + result.getMessage());
                             webServiceSuccess = true;
                         } else {
@@ -459,9 +530,9 @@ public class MainViewController {
                     webServiceSuccess = false;
 
                     // Pulisci eventuale file parzialmente creato
-                    if (outputDestinationFile.exists()) {
+                    if (savedFile.exists()) {
                         try {
-                            Files.delete(outputDestinationFile.toPath());
+                            Files.delete(savedFile.toPath());
                             addLogMessage("File parziale eliminato per retry con engine locale");
                         } catch (Exception cleanupError) {
                             addLogMessage("Errore pulizia file parziale: " + cleanupError.getMessage());
@@ -471,31 +542,34 @@ public class MainViewController {
             } else {
                 addLogMessage("Web service non disponibile, passo direttamente a engine locale");
             }
+            clearProgress(conversion);
+
+            // Annullata dall'operatore: nessun tentativo con l'engine locale
+            if (conversion.cancelled) {
+                addLogMessage("Conversione annullata dall'operatore: " + srcFile.getName());
+                moveFileToErrorFolder(srcFile);
+                Platform.runLater(() -> {
+                    fileScartati++;
+                    stampaRisultati();
+                });
+                return;
+            }
 
             // SECONDO TENTATIVO: USA ENGINE LOCALE (solo se webservice fallito)
             if (!webServiceSuccess) {
                 addLogMessage("Fallback: uso engine locale per conversione...");
+                showProgress(conversion, "RUNNING", -1, "engine locale");
 
                 try {
-                    // L'engine locale gestisce automaticamente il salvataggio nelle cartelle configurate
-                    if (password != null) {
-                        if (mergeImages && targetFormat.equals("jpg")) {
-                            engine.conversione(srcExtension, targetFormat, srcFile, password, mergeImages);
-                        } else {
-                            engine.conversione(srcExtension, targetFormat, srcFile, password);
-                        }
-                    } else {
-                        if (mergeImages && targetFormat.equals("jpg")) {
-                            engine.conversione(srcExtension, targetFormat, srcFile, mergeImages);
-                        } else {
-                            if(formatiImmagini.contains(srcExtension)){
-                                engine.conversione(srcExtension, targetFormat, srcFile, targetFormat);
-                            }else {
-                                engine.conversione(srcExtension, targetFormat, srcFile);
-                            }
-                        }
+                    // Accodata nel pool della classe di costo della coppia, con priorità HIGH perché l'utente la attende
+                    try {
+                        engine.submitConversion(srcExtension, targetFormat, ConversionScheduler.Priority.HIGH,
+                                () -> convertLocally(srcExtension, targetFormat, srcFile, password, mergeImages)).get();
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
                     }
 
+                    clearProgress(conversion);
                     addLogMessage("Conversione ENGINE LOCALE riuscita");
 
                     // Per l'engine locale, il file originale è già stato gestito automaticamente
@@ -507,6 +581,7 @@ public class MainViewController {
                     return; // Esci qui se engine locale ha successo
 
                 } catch (Exception engineError) {
+                    clearProgress(conversion);
                     addLogMessage("Anche engine locale fallito: " + engineError.getMessage());
                     throw new Exception("Entrambi i metodi di conversione falliti. Web service: fallito. Engine locale: " + engineError.getMessage());
                 }
@@ -514,7 +589,8 @@ public class MainViewController {
 
             // Se arriviamo qui, il web service ha avuto successo
             if (webServiceSuccess) {
-                addLogMessage("File convertito salvato in: " + outputDestinationFile.getAbsolutePath());
+                File convertedFile = savedFile;
+                addLogMessage("File convertito salvato in: " + convertedFile.getAbsolutePath());
 
                 // Gestisci il file originale dopo successo web service
                 moveOriginalFileAfterSuccess(srcFile);
@@ -522,7 +598,7 @@ public class MainViewController {
                 Platform.runLater(() -> {
                     fileConvertiti++;
                     stampaRisultati();
-                    launchAlertSuccess(outputDestinationFile);
+                    launchAlertSuccess(convertedFile);
                 });
             }
 
@@ -537,6 +613,98 @@ public class MainViewController {
         }
     }
 
+    /**
+     * Conversione con l'engine locale, che gestisce automaticamente il salvataggio nelle cartelle configurate
+     * @return null, per poter essere accodata come Callable
+     */
+    private Void convertLocally(String srcExtension, String targetFormat, File srcFile, String password, boolean mergeImages) throws Exception {
+        if (password != null) {
+            if (mergeImages && targetFormat.equals("jpg")) {
+                engine.conversione(srcExtension, targetFormat, srcFile, password, mergeImages);
+            } else {
+                engine.conversione(srcExtension, targetFormat, srcFile, password);
+            }
+        } else {
+            if (mergeImages && targetFormat.equals("jpg")) {
+                engine.conversione(srcExtension, targetFormat, srcFile, mergeImages);
+            } else {
+                if(ConfigStore.get().isImageFormat(srcExtension)){
+                    engine.conversione(srcExtension, targetFormat, srcFile, targetFormat);
+                }else {
+                    engine.conversione(srcExtension, targetFormat, srcFile);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mostra l'avanzamento della conversione, se è ancora quella visualizzata
+     * @param progress Avanzamento tra 0 e 100, negativo se non noto
+     * @param detail Descrizione dell'avanzamento, null se il converter non lo riporta
+     */
+    private void showProgress(ActiveConversion conversion, String state, int progress, String detail) {
+        if (conversionProgressBar == null) {
+            return;
+        }
+        Platform.runLater(() -> {
+            if (activeConversion != conversion) {
+                return;
+            }
+            boolean running = "RUNNING".equals(state);
+            // Senza un avanzamento noto la barra resta indeterminata finché il converter è in esecuzione
+            conversionProgressBar.setProgress(progress > 0 ? progress / 100.0 : running ? ProgressBar.INDETERMINATE_PROGRESS : 0);
+            conversionProgressLabel.setText(conversion.fileName + ": " + (detail != null ? detail : running ? "in corso" : "in coda"));
+            cancelConversionBtn.setDisable(conversion.jobId == null || conversion.cancelled);
+        });
+    }
+
+    /**
+     * Riporta l'indicatore di avanzamento allo stato iniziale, se mostra ancora la conversione indicata
+     */
+    private void clearProgress(ActiveConversion conversion) {
+        if (conversionProgressBar == null) {
+            return;
+        }
+        Platform.runLater(() -> {
+            if (activeConversion != conversion) {
+                return;
+            }
+            conversionProgressBar.setProgress(0);
+            conversionProgressLabel.setText("Nessuna conversione in corso");
+            cancelConversionBtn.setDisable(true);
+        });
+    }
+
+    /**
+     * Annulla la conversione mostrata nell'indicatore di avanzamento (solo quelle eseguite dal web service)
+     */
+    @FXML
+    public void cancelConversion(javafx.event.ActionEvent actionEvent) {
+        ActiveConversion conversion = activeConversion;
+        if (conversion == null || conversion.jobId == null || conversion.cancelled) {
+            return;
+        }
+        conversion.cancelled = true;
+        cancelConversionBtn.setDisable(true);
+        conversionProgressLabel.setText(conversion.fileName + ": annullamento in corso");
+        addLogMessage("Annullamento richiesto per " + conversion.fileName);
+        cancelExecutor.execute(() -> webServiceClient.cancelJob(conversion.jobId));
+    }
+
+    /**
+     * Conversione in corso mostrata nella GUI
+     */
+    private static final class ActiveConversion {
+        private final String fileName;
+        private volatile String jobId;
+        private volatile boolean cancelled;
+
+        private ActiveConversion(String fileName) {
+            this.fileName = fileName;
+        }
+    }
+
     private void moveOriginalFileAfterSuccess(File originalFile) {
         try {
             if (originalFile.exists()) {
@@ -623,6 +791,32 @@ public class MainViewController {
         return result.orElse(null);
     }
 
+    /**
+     * Conversione automatica riuscita secondo una regola di config.json
+     */
+    @Override
+    public void onConverted(File srcFile, ConversionRule rule) {
+        addLogMessage("Conversione automatica (" + rule + ") riuscita: " + srcFile.getName());
+        Platform.runLater(() -> {
+            fileRicevuti++;
+            fileConvertiti++;
+            stampaRisultati();
+        });
+    }
+
+    /**
+     * Conversione automatica fallita: nessun alert, il file è già nella cartella degli errori
+     */
+    @Override
+    public void onFailed(File srcFile, ConversionRule rule, String error) {
+        addLogMessage("Conversione automatica (" + rule + ") fallita per " + srcFile.getName() + ": " + error);
+        Platform.runLater(() -> {
+            fileRicevuti++;
+            fileScartati++;
+            stampaRisultati();
+        });
+    }
+
     public void stampaRisultati() {
         Log.addMessage("Stato: ricevuti=" + fileRicevuti + ", convertiti=" + fileConvertiti + ", scartati=" + fileScartati);
         Platform.runLater(() -> {
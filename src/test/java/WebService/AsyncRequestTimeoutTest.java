@@ -0,0 +1,28 @@
+package WebService;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Le risposte con StreamingResponseBody (/convert, /convert/stream, /convert/batch) durano quanto la conversione:
+ * senza spring.mvc.async.request-timeout il container le interrompe dopo 30 s
+ */
+class AsyncRequestTimeoutTest {
+
+    @Test
+    void streamingResponsesHaveNoAsyncTimeout() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = getClass().getResourceAsStream("/application.properties")) {
+            assertNotNull(in, "application.properties non trovato");
+            properties.load(in);
+        }
+
+        String timeout = properties.getProperty("spring.mvc.async.request-timeout");
+        assertNotNull(timeout, "spring.mvc.async.request-timeout non impostato");
+        assertEquals("-1", timeout.trim());
+    }
+}
@@ -0,0 +1,52 @@
+package converter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifica che le coppie presenti in config.json vengano sempre convertite direttamente
+ * e che le catene vengano pianificate solo per le coppie senza converter diretto
+ */
+class ConversionPlannerTest {
+
+    private static final String CONFIG = "{\"conversions\": {"
+            + "\"png\": {\"jpg\": \"Converters.ImageConverter\", \"gif\": \"Converters.ImageConverter\"},"
+            + "\"gif\": {\"jpg\": \"Converters.ImageConverter\", \"bmp\": \"Converters.ImageConverter\"}"
+            + "}}";
+
+    @AfterEach
+    void clearMeasuredCosts() {
+        // I costi misurati sono condivisi da tutti i planner della JVM
+        ConversionPlanner.clearMeasuredCosts();
+    }
+
+    @Test
+    void directPairWinsOverCheaperChain() throws Exception {
+        ConversionPlanner planner = ConfigSnapshot.parse(CONFIG).getPlanner();
+        // La coppia diretta risulta molto più costosa della catena png -> gif -> jpg
+        ConversionPlanner.recordCost("png", "jpg", 1_000_000_000L, 1L);
+        ConversionPlanner.recordCost("png", "gif", 1L, 1_000_000L);
+        ConversionPlanner.recordCost("gif", "jpg", 1L, 1_000_000L);
+
+        ConversionPlanner.Plan plan = planner.plan("png", "jpg");
+
+        assertNotNull(plan);
+        assertTrue(plan.isDirect());
+        assertEquals("png -> jpg", plan.toString());
+    }
+
+    @Test
+    void chainOnlyWithoutDirectPair() throws Exception {
+        ConversionPlanner planner = ConfigSnapshot.parse(CONFIG).getPlanner();
+
+        ConversionPlanner.Plan plan = planner.plan("png", "bmp");
+
+        assertNotNull(plan);
+        assertFalse(plan.isDirect());
+        assertEquals("png -> gif -> bmp", plan.toString());
+        assertTrue(planner.getReachableTargets("png").contains("bmp"));
+        assertNull(planner.plan("bmp", "png"));
+    }
+}
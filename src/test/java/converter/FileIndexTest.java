@@ -0,0 +1,179 @@
+package converter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifica che l'indice consegni ogni file una sola volta, anche dopo una riapertura,
+ * e che il journal venga riscritto quando contiene troppe righe superate
+ */
+class FileIndexTest {
+
+    @TempDir
+    Path root;
+
+    @AfterEach
+    void deleteIndexFiles() throws Exception {
+        // Gli indici sono nella directory condivisa, con il nome ricavato dalla cartella monitorata
+        Files.deleteIfExists(indexFile(".idx"));
+        Files.deleteIfExists(indexFile(".lock"));
+    }
+
+    @Test
+    void reloadTurnsQueuedIntoPending() throws Exception {
+        Path file = write("a.txt", "a");
+        try (FileIndex index = FileIndex.open(root)) {
+            assertEquals(1, index.rescan().getFiles().size());
+            assertTrue(index.markQueued(file));
+            // Consegnato e non modificato: la scansione non lo riconsegna
+            assertTrue(index.rescan().getFiles().isEmpty());
+        }
+
+        // Applicazione interrotta prima di markDone: alla riapertura il file torna in attesa
+        try (FileIndex index = FileIndex.open(root)) {
+            assertEquals(1, index.size());
+            assertEquals(paths(file), paths(index.rescan()));
+        }
+    }
+
+    @Test
+    void markQueuedOnlyOnceForUnchangedFile() throws Exception {
+        Path file = write("a.txt", "a");
+        try (FileIndex index = FileIndex.open(root)) {
+            index.markPending(file);
+            assertTrue(index.markQueued(file));
+            assertFalse(index.markQueued(file));
+
+            index.markDone(file);
+            assertFalse(index.markQueued(file));
+
+            write("a.txt", "modificato");
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10_000));
+            assertTrue(index.markQueued(file));
+        }
+    }
+
+    @Test
+    void compactionKeepsOneLinePerFile() throws Exception {
+        Path file = write("a.txt", "a");
+        int updates = 3000;
+        try (FileIndex index = FileIndex.open(root)) {
+            for (int i = 0; i < updates; i++) {
+                if (i % 2 == 0) {
+                    index.markQueued(file);
+                } else {
+                    index.markPending(file);
+                }
+            }
+            assertTrue(Files.readAllLines(indexFile(".idx"), StandardCharsets.UTF_8).size() < updates);
+        }
+        assertEquals(1, Files.readAllLines(indexFile(".idx"), StandardCharsets.UTF_8).size());
+
+        try (FileIndex index = FileIndex.open(root)) {
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    void rescanReturnsOnlyNewOrChangedFiles() throws Exception {
+        Path a = write("a.txt", "a");
+        Path b = write("b.txt", "b");
+        Files.createDirectory(root.resolve("sub"));
+        Path c = write("sub/c.txt", "c");
+
+        try (FileIndex index = FileIndex.open(root)) {
+            assertEquals(paths(a, b, c), paths(index.rescan()));
+            for (Path file : new Path[]{a, b, c}) {
+                assertTrue(index.markQueued(file));
+                index.markDone(file);
+            }
+            assertTrue(index.rescan().getFiles().isEmpty());
+
+            Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() + 10_000));
+            Files.delete(b);
+            Path d = write("sub/d.txt", "d");
+
+            assertEquals(paths(a, d), paths(index.rescan()));
+            assertEquals(3, index.size());
+        }
+    }
+
+    @Test
+    void reconcileTouchesOnlyListedAndRemovedDirectories() throws Exception {
+        Path a = write("a.txt", "a");
+        Files.createDirectories(root.resolve("sub/deep"));
+        write("sub/c.txt", "c");
+        Path d = write("sub/deep/d.txt", "d");
+        Files.createDirectory(root.resolve("other"));
+        Path e = write("other/e.txt", "e");
+
+        try (FileIndex index = FileIndex.open(root)) {
+            assertEquals(4, index.rescan().getFiles().size());
+
+            // sub elencata senza c.txt e con un file nuovo: la radice e other non vengono toccate
+            Path f = write("sub/f.txt", "f");
+            Map<Path, List<FileIndex.FoundFile>> listings = new HashMap<>();
+            listings.put(root.resolve("sub"), Collections.singletonList(found(f)));
+            List<FileIndex.FoundFile> found = index.reconcile(listings, Collections.<Path>emptyList());
+            assertEquals(paths(f), paths(found));
+            assertEquals(4, index.size());
+
+            // other eliminata: i suoi file spariscono dall'indice, quelli di sub/deep restano
+            index.reconcile(Collections.<Path, List<FileIndex.FoundFile>>emptyMap(), Collections.singletonList(root.resolve("other")));
+            assertEquals(3, index.size());
+            assertTrue(index.markQueued(a));
+            assertTrue(index.markQueued(d));
+            assertTrue(index.markQueued(e));
+        }
+    }
+
+    private static FileIndex.FoundFile found(Path file) throws Exception {
+        return new FileIndex.FoundFile(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    private Path write(String name, String content) throws Exception {
+        return Files.write(root.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path indexFile(String suffix) {
+        Path normalized = root.toAbsolutePath().normalize();
+        File dir = new File(System.getProperty("converter.index.dir", "src/index"));
+        return new File(dir, "watch-" + Integer.toHexString(normalized.toString().hashCode()) + suffix).toPath();
+    }
+
+    private static Set<Path> paths(Path... files) {
+        Set<Path> result = new HashSet<>();
+        for (Path file : files) {
+            result.add(file.toAbsolutePath().normalize());
+        }
+        return result;
+    }
+
+    private static Set<Path> paths(FileIndex.RescanResult result) {
+        return paths(result.getFiles());
+    }
+
+    private static Set<Path> paths(Collection<FileIndex.FoundFile> files) {
+        Set<Path> paths = new HashSet<>();
+        for (FileIndex.FoundFile file : files) {
+            paths.add(file.getPath().toAbsolutePath().normalize());
+        }
+        return paths;
+    }
+}